@@ -0,0 +1,20 @@
+package com.y5neko.dbapptools;
+
+import com.y5neko.dbapptools.cli.RiskListCli;
+
+import java.util.Arrays;
+
+/**
+ * 程序入口
+ * 第一个参数为 cli 时进入命令行模式，这条路径不会加载任何 JavaFX 类；否则启动图形界面
+ */
+public class Launcher {
+
+    public static void main(String[] args) {
+        if (args.length > 0 && "cli".equals(args[0])) {
+            RiskListCli.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        MainGUI.main(args);
+    }
+}
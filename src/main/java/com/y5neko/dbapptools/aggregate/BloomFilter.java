@@ -0,0 +1,112 @@
+package com.y5neko.dbapptools.aggregate;
+
+/**
+ * long 键的 Bloom Filter，按预计元素数和误判率确定位数和哈希函数个数
+ * 不存在漏判，mightContain 返回 false 的键一定没有加入过；不是线程安全的
+ */
+public final class BloomFilter {
+
+    private final long[] bits;
+    private final long bitSize;
+    private final int hashCount;
+    private final long capacity;
+    private final double falsePositiveRate;
+    private long insertions = 0;
+
+    /**
+     * @param expectedInsertions 预计加入的元素数，超过后误判率会升高
+     * @param falsePositiveRate 元素数达到 expectedInsertions 时的误判率
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        if (expectedInsertions <= 0) {
+            throw new IllegalArgumentException("expectedInsertions 必须大于 0");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate 取值范围 (0, 1)");
+        }
+        // m = -n ln p / (ln 2)^2，k = m / n * ln 2
+        long m = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        m = Math.max(64, (m + 63) / 64 * 64);
+        this.bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, m / 64)];
+        this.bitSize = (long) bits.length * 64;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / expectedInsertions * Math.log(2)));
+        this.capacity = expectedInsertions;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * 加入键
+     * @return 有位由 0 变为 1（键一定是第一次加入）时返回 true
+     */
+    public boolean put(long key) {
+        long h1 = mix1(key);
+        long h2 = mix2(key);
+        boolean changed = false;
+        for (int i = 0; i < hashCount; i++) {
+            long index = Math.floorMod(h1 + i * h2, bitSize);
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            if ((bits[word] & mask) == 0) {
+                bits[word] |= mask;
+                changed = true;
+            }
+        }
+        if (changed) {
+            insertions++;
+        }
+        return changed;
+    }
+
+    public boolean mightContain(long key) {
+        long h1 = mix1(key);
+        long h2 = mix2(key);
+        for (int i = 0; i < hashCount; i++) {
+            long index = Math.floorMod(h1 + i * h2, bitSize);
+            if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 两个独立的 64 位哈希，第 i 个位置取 h1 + i * h2（Kirsch-Mitzenmacher 双重哈希）
+     */
+    private static long mix1(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    private static long mix2(long key) {
+        long h = (key ^ (key >>> 33)) * 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 29;
+        // 避免 h2 为 0 时 k 个位置重合
+        return h | 1;
+    }
+
+    /**
+     * 已加入的元素数达到预计值，继续加入误判率会超过设定值
+     */
+    public boolean isFull() {
+        return insertions >= capacity;
+    }
+
+    /**
+     * 按当前已加入的元素数估计的误判率 (1 - e^(-kn/m))^k
+     */
+    public double currentFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) hashCount * insertions / bitSize), hashCount);
+    }
+
+    public long getInsertions() {
+        return insertions;
+    }
+
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    public long getMemoryBytes() {
+        return (long) bits.length * 8;
+    }
+}
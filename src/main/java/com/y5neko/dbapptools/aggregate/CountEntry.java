@@ -0,0 +1,32 @@
+package com.y5neko.dbapptools.aggregate;
+
+import java.util.Comparator;
+
+/**
+ * 计数结果
+ * 精确计数时 error 为 0；heavy hitter 估计时真实值在 [count - error, count] 之间
+ */
+public final class CountEntry {
+
+    public static final Comparator<CountEntry> BY_COUNT_DESC =
+            Comparator.comparingLong((CountEntry e) -> e.count).reversed().thenComparingLong(e -> e.key);
+
+    public final long key;
+    public final long count;
+    public final long error;
+
+    public CountEntry(long key, long count, long error) {
+        this.key = key;
+        this.count = count;
+        this.error = error;
+    }
+
+    public boolean isExact() {
+        return error == 0;
+    }
+
+    @Override
+    public String toString() {
+        return key + "=" + count + (error > 0 ? "(±" + error + ")" : "");
+    }
+}
@@ -0,0 +1,77 @@
+package com.y5neko.dbapptools.aggregate;
+
+/**
+ * Count-Min Sketch，固定 depth * width 个计数器
+ * 估计值不小于真实值，超出部分以 1 - (1/2)^depth 的概率不超过 总数 * e / width；不是线程安全的
+ */
+public final class CountMinSketch {
+
+    public static final int DEFAULT_DEPTH = 4;
+    public static final int DEFAULT_WIDTH = 1 << 14;
+
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L,
+            0xFF51AFD7ED558CCDL, 0xC4CEB9FE1A85EC53L, 0x27D4EB2F165667C5L, 0x94D049BB133111EBL
+    };
+
+    private final int depth;
+    private final int width;
+    private final int mask;
+    private final long[] table;
+    private long total = 0;
+
+    public CountMinSketch() {
+        this(DEFAULT_DEPTH, DEFAULT_WIDTH);
+    }
+
+    /**
+     * @param width 会向上取整为 2 的幂
+     */
+    public CountMinSketch(int depth, int width) {
+        if (depth <= 0 || depth > SEEDS.length) {
+            throw new IllegalArgumentException("depth 取值范围 1~" + SEEDS.length);
+        }
+        this.depth = depth;
+        this.width = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+        this.mask = this.width - 1;
+        this.table = new long[depth * this.width];
+    }
+
+    private int index(int row, long key) {
+        long h = (key ^ SEEDS[row]) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 29;
+        return row * width + ((int) (h ^ (h >>> 32)) & mask);
+    }
+
+    public void add(long key, long count) {
+        for (int row = 0; row < depth; row++) {
+            table[index(row, key)] += count;
+        }
+        total += count;
+    }
+
+    public long estimate(long key) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, table[index(row, key)]);
+        }
+        return min;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * 合并相同尺寸的 sketch，结果与把两边的数据加到同一个 sketch 中完全一致
+     */
+    public void merge(CountMinSketch other) {
+        if (other.depth != depth || other.width != width) {
+            throw new IllegalArgumentException("CountMinSketch 尺寸不一致");
+        }
+        for (int i = 0; i < table.length; i++) {
+            table[i] += other.table[i];
+        }
+        total += other.total;
+    }
+}
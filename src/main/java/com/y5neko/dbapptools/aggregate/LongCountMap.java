@@ -0,0 +1,233 @@
+package com.y5neko.dbapptools.aggregate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * long 键 -> long 计数的开放寻址哈希表（线性探测），不装箱，不是线程安全的
+ * 键 0 单独保存，数组中 0 表示空槽；负载因子 0.5，删除时向前移动后续元素而不是留墓碑
+ */
+public final class LongCountMap {
+
+    /**
+     * 遍历回调
+     */
+    public interface Visitor {
+        void visit(long key, long value);
+    }
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size = 0;
+    private boolean hasZero = false;
+    private long zeroValue = 0;
+
+    public LongCountMap() {
+        this(16);
+    }
+
+    public LongCountMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    public int size() {
+        return size + (hasZero ? 1 : 0);
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) {
+            return hasZero;
+        }
+        return keys[indexOf(key)] == key;
+    }
+
+    public long get(long key) {
+        return getOrDefault(key, 0);
+    }
+
+    public long getOrDefault(long key, long defaultValue) {
+        if (key == 0) {
+            return hasZero ? zeroValue : defaultValue;
+        }
+        int i = indexOf(key);
+        return keys[i] == key ? values[i] : defaultValue;
+    }
+
+    /**
+     * 键所在的槽，或键不存在时应当插入的空槽
+     */
+    private int indexOf(long key) {
+        int i = mix(key) & mask;
+        while (keys[i] != 0 && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    public void put(long key, long value) {
+        if (key == 0) {
+            hasZero = true;
+            zeroValue = value;
+            return;
+        }
+        int i = indexOf(key);
+        if (keys[i] == key) {
+            values[i] = value;
+            return;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    /**
+     * 累加，返回累加后的值
+     */
+    public long add(long key, long delta) {
+        if (key == 0) {
+            hasZero = true;
+            return zeroValue += delta;
+        }
+        int i = indexOf(key);
+        if (keys[i] == key) {
+            return values[i] += delta;
+        }
+        keys[i] = key;
+        values[i] = delta;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return delta;
+    }
+
+    public void remove(long key) {
+        if (key == 0) {
+            hasZero = false;
+            zeroValue = 0;
+            return;
+        }
+        int i = indexOf(key);
+        if (keys[i] != key) {
+            return;
+        }
+        // 把后面同一探测链上的元素前移填补空位
+        int gap = i;
+        int j = (i + 1) & mask;
+        while (keys[j] != 0) {
+            int home = mix(keys[j]) & mask;
+            // home 不在 (gap, j] 之间时，元素可以移到 gap
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+            j = (j + 1) & mask;
+        }
+        keys[gap] = 0;
+        values[gap] = 0;
+        size--;
+    }
+
+    /**
+     * 删除值小于 threshold 的所有元素，重建一次表，比逐个 remove 移动探测链快
+     * @return 删除的元素数
+     */
+    public int removeValuesBelow(long threshold) {
+        int before = size();
+        if (hasZero && zeroValue < threshold) {
+            hasZero = false;
+            zeroValue = 0;
+        }
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[oldKeys.length];
+        values = new long[oldValues.length];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != 0 && oldValues[i] >= threshold) {
+                int j = indexOf(key);
+                keys[j] = key;
+                values[j] = oldValues[i];
+                size++;
+            }
+        }
+        return before - size();
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != 0) {
+                int j = indexOf(key);
+                keys[j] = key;
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    public void forEach(Visitor visitor) {
+        if (hasZero) {
+            visitor.visit(0, zeroValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    public void addAll(LongCountMap other) {
+        other.forEach(this::add);
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, 0);
+        size = 0;
+        hasZero = false;
+        zeroValue = 0;
+    }
+
+    /**
+     * 计数最大的 n 个键，按计数降序，计数相同时键小的优先（与遍历顺序无关，合并后的表与单线程统计结果一致）；
+     * 只保留 n 个元素的堆，不对整个表排序
+     */
+    public List<CountEntry> top(int n) {
+        Comparator<CountEntry> worstFirst = CountEntry.BY_COUNT_DESC.reversed();
+        PriorityQueue<CountEntry> heap = new PriorityQueue<>(Math.max(1, n), worstFirst);
+        forEach((key, value) -> {
+            if (heap.size() < n) {
+                heap.add(new CountEntry(key, value, 0));
+            } else if (n > 0) {
+                CountEntry worst = heap.peek();
+                if (value > worst.count || (value == worst.count && key < worst.key)) {
+                    heap.poll();
+                    heap.add(new CountEntry(key, value, 0));
+                }
+            }
+        });
+        List<CountEntry> list = new ArrayList<>(heap);
+        list.sort(CountEntry.BY_COUNT_DESC);
+        return list;
+    }
+}
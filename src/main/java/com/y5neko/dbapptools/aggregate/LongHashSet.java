@@ -0,0 +1,98 @@
+package com.y5neko.dbapptools.aggregate;
+
+import java.util.Arrays;
+
+/**
+ * long 集合，开放寻址（线性探测），不装箱，不是线程安全的
+ * 与 LongCountMap 相同，键 0 单独保存，负载因子 0.5；只增不删，每个元素约占 16~32 字节
+ */
+public final class LongHashSet {
+
+    private long[] keys;
+    private int mask;
+    private int size = 0;
+    private boolean hasZero = false;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size + (hasZero ? 1 : 0);
+    }
+
+    public boolean contains(long key) {
+        if (key == 0) {
+            return hasZero;
+        }
+        int i = LongCountMap.mix(key) & mask;
+        long k;
+        while ((k = keys[i]) != 0) {
+            if (k == key) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return 集合中原来没有该键时返回 true
+     */
+    public boolean add(long key) {
+        if (key == 0) {
+            if (hasZero) {
+                return false;
+            }
+            hasZero = true;
+            return true;
+        }
+        int i = LongCountMap.mix(key) & mask;
+        long k;
+        while ((k = keys[i]) != 0) {
+            if (k == key) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        keys = new long[capacity];
+        mask = capacity - 1;
+        for (long key : oldKeys) {
+            if (key != 0) {
+                int i = LongCountMap.mix(key) & mask;
+                while (keys[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+        hasZero = false;
+    }
+
+    /**
+     * 占用的堆内存（字节），不含对象头
+     */
+    public long getMemoryBytes() {
+        return (long) keys.length * 8;
+    }
+}
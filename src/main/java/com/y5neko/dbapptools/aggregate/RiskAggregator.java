@@ -0,0 +1,268 @@
+package com.y5neko.dbapptools.aggregate;
+
+import com.y5neko.dbapptools.model.DictionaryRemapper;
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.model.StringDictionary;
+import com.y5neko.dbapptools.network.RiskRecordSink;
+import com.y5neko.dbapptools.network.TimeRange;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 告警流式统计
+ * 记录到达时一次性更新全部统计，查询进行中随时可以取 summary，不需要再扫描一遍。
+ * <ul>
+ *     <li>攻击 IP、目标 IP：Space-Saving 只保留固定数量的计数器，配合 Count-Min Sketch 收紧估计值</li>
+ *     <li>规则、CVE、每分钟数量：基本类型哈希表精确计数，规模只与规则/CVE 种类数和查询分钟数有关</li>
+ *     <li>等级：按 0~3 计数</li>
+ * </ul>
+ * 线程安全，多个网络线程可以同时推送；并行统计时各线程用各自的实例，最后 merge。
+ * CVE 和非 IPv4 地址按统计自己的字典计数，来自其他字典的记录在 add 时转换编号
+ */
+public class RiskAggregator implements RiskRecordSink<RiskEvent> {
+
+    public static final int DEFAULT_HEAVY_HITTER_CAPACITY = 1024;
+    public static final int DEFAULT_TOP_N = 10;
+
+    private static final DateTimeFormatter MINUTE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private long total = 0;
+    private final long[] grades = new long[4];
+    private final SpaceSaving attackers;
+    private final SpaceSaving targets;
+    private final CountMinSketch attackerSketch = new CountMinSketch();
+    private final CountMinSketch targetSketch = new CountMinSketch();
+    private final LongCountMap rules = new LongCountMap();
+    private final LongCountMap cves = new LongCountMap();
+    // 分钟（毫秒时间戳 / 60000）-> 数量
+    private final LongCountMap minutes = new LongCountMap(1024);
+
+    private final StringDictionary dictionary;
+    // 只在持有锁时使用
+    private final DictionaryRemapper remapper;
+
+    public RiskAggregator() {
+        this(new StringDictionary());
+    }
+
+    /**
+     * @param dictionary 与推送的记录使用同一个字典时不需要转换编号
+     */
+    public RiskAggregator(StringDictionary dictionary) {
+        this(dictionary, DEFAULT_HEAVY_HITTER_CAPACITY);
+    }
+
+    /**
+     * @param heavyHitterCapacity 攻击 IP/目标 IP 各保留的计数器数量
+     */
+    public RiskAggregator(StringDictionary dictionary, int heavyHitterCapacity) {
+        this.dictionary = dictionary;
+        this.remapper = new DictionaryRemapper(dictionary);
+        attackers = new SpaceSaving(heavyHitterCapacity);
+        targets = new SpaceSaving(heavyHitterCapacity);
+    }
+
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * 攻击 IP 为空时以源 IP 作为攻击方
+     */
+    static long attackerOf(RiskEvent event) {
+        return event.getAttackerIp() != RiskEvent.NO_IP ? event.getAttackerIp() : event.getSip();
+    }
+
+    public synchronized void add(RiskEvent event) {
+        StringDictionary from = event.getDictionary();
+        accumulate(event.getTime(), event.getGrade(), remapper.ip(from, attackerOf(event)), remapper.ip(from, event.getDip()),
+                event.getRuleId(), remapper.code(from, event.getCve()));
+    }
+
+    /**
+     * 按字段累加，扫描本地存储时可以不创建 RiskEvent
+     * @param cve 本统计字典中的编号，非 IPv4 地址同样使用本统计字典的编号
+     */
+    public synchronized void add(long time, byte grade, long attackerIp, long dip, int ruleId, int cve) {
+        accumulate(time, grade, attackerIp, dip, ruleId, cve);
+    }
+
+    /**
+     * 不加锁的累加，只能由独占该实例的线程调用（并行扫描时每个任务各自一个实例）
+     */
+    void accumulate(long time, byte grade, long attackerIp, long dip, int ruleId, int cve) {
+        total++;
+        if (grade >= 0 && grade < grades.length) {
+            grades[grade]++;
+        }
+        if (attackerIp != RiskEvent.NO_IP) {
+            attackers.offer(attackerIp);
+            attackerSketch.add(attackerIp, 1);
+        }
+        if (dip != RiskEvent.NO_IP) {
+            targets.offer(dip);
+            targetSketch.add(dip, 1);
+        }
+        rules.add(ruleId, 1);
+        if (cve != 0) {
+            cves.add(cve, 1);
+        }
+        minutes.add(Math.floorDiv(time, 60_000L), 1);
+    }
+
+    @Override
+    public void onRecord(TimeRange range, RiskEvent record) {
+        add(record);
+    }
+
+    /**
+     * 合并另一个统计，other 在合并期间不能再被修改
+     * Space-Saving 和 Count-Min 的键无法再转换，两者必须使用同一个字典
+     */
+    public synchronized void merge(RiskAggregator other) {
+        if (other.dictionary != dictionary) {
+            throw new IllegalArgumentException("只能合并使用同一个字典的统计");
+        }
+        total += other.total;
+        for (int i = 0; i < grades.length; i++) {
+            grades[i] += other.grades[i];
+        }
+        attackers.merge(other.attackers);
+        targets.merge(other.targets);
+        attackerSketch.merge(other.attackerSketch);
+        targetSketch.merge(other.targetSketch);
+        rules.addAll(other.rules);
+        cves.addAll(other.cves);
+        minutes.addAll(other.minutes);
+    }
+
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /**
+     * 当前统计结果的快照
+     */
+    public synchronized Summary summary(int topN) {
+        long[] minuteKeys = new long[minutes.size()];
+        int[] n = {0};
+        minutes.forEach((key, value) -> minuteKeys[n[0]++] = key);
+        Arrays.sort(minuteKeys);
+        long[] minuteCounts = new long[minuteKeys.length];
+        for (int i = 0; i < minuteKeys.length; i++) {
+            minuteCounts[i] = minutes.get(minuteKeys[i]);
+        }
+        return new Summary(dictionary, total, grades.clone(), tighten(attackers.top(topN), attackerSketch),
+                tighten(targets.top(topN), targetSketch), rules.top(topN), cves.top(topN), minuteKeys, minuteCounts);
+    }
+
+    /**
+     * Space-Saving 与 Count-Min 的估计值都不小于真实值，取两者较小的一个
+     */
+    private static List<CountEntry> tighten(List<CountEntry> entries, CountMinSketch sketch) {
+        for (int i = 0; i < entries.size(); i++) {
+            CountEntry e = entries.get(i);
+            long estimate = sketch.estimate(e.key);
+            if (estimate < e.count) {
+                long lower = e.count - e.error;
+                entries.set(i, new CountEntry(e.key, estimate, Math.max(0, estimate - lower)));
+            }
+        }
+        entries.sort(CountEntry.BY_COUNT_DESC);
+        return entries;
+    }
+
+    /**
+     * 统计快照，不再随新记录变化
+     */
+    public static final class Summary {
+        // 解码 CVE 和非 IPv4 地址
+        public final StringDictionary dictionary;
+        public final long total;
+        // 下标为等级 0~3
+        public final long[] grades;
+        // 键为 RiskEvent 中压缩的 IP
+        public final List<CountEntry> topAttackers;
+        public final List<CountEntry> topTargets;
+        // 键为规则 ID
+        public final List<CountEntry> topRules;
+        // 键为 dictionary 中的编号
+        public final List<CountEntry> topCves;
+        // 按时间升序的分钟（毫秒时间戳 / 60000）及对应数量
+        public final long[] minutes;
+        public final long[] minuteCounts;
+
+        Summary(StringDictionary dictionary, long total, long[] grades, List<CountEntry> topAttackers, List<CountEntry> topTargets,
+                List<CountEntry> topRules, List<CountEntry> topCves, long[] minutes, long[] minuteCounts) {
+            this.dictionary = dictionary;
+            this.total = total;
+            this.grades = grades;
+            this.topAttackers = Collections.unmodifiableList(topAttackers);
+            this.topTargets = Collections.unmodifiableList(topTargets);
+            this.topRules = Collections.unmodifiableList(topRules);
+            this.topCves = Collections.unmodifiableList(topCves);
+            this.minutes = minutes;
+            this.minuteCounts = minuteCounts;
+        }
+
+        /**
+         * 数量最多的一分钟的下标，没有记录时为 -1
+         */
+        public int peakMinuteIndex() {
+            int peak = -1;
+            for (int i = 0; i < minuteCounts.length; i++) {
+                if (peak < 0 || minuteCounts[i] > minuteCounts[peak]) {
+                    peak = i;
+                }
+            }
+            return peak;
+        }
+
+        public static String formatMinute(long minute) {
+            return MINUTE_FORMATTER.format(Instant.ofEpochMilli(minute * 60_000L).atZone(ZoneId.systemDefault()));
+        }
+
+        /**
+         * 多行文本报告
+         */
+        public String format() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("统计: 共 ").append(total).append(" 条，高 ").append(grades[RiskEvent.GRADE_HIGH])
+                    .append(" / 中 ").append(grades[RiskEvent.GRADE_MEDIUM])
+                    .append(" / 低 ").append(grades[RiskEvent.GRADE_LOW])
+                    .append(" / 未知 ").append(grades[RiskEvent.GRADE_UNKNOWN]);
+            appendIps(sb, "攻击IP", topAttackers);
+            appendIps(sb, "目标IP", topTargets);
+            sb.append("\n规则 Top ").append(topRules.size()).append(":");
+            for (CountEntry e : topRules) {
+                sb.append("\n  ").append(e.key).append("  ").append(e.count);
+            }
+            sb.append("\nCVE Top ").append(topCves.size()).append(":");
+            for (CountEntry e : topCves) {
+                sb.append("\n  ").append(dictionary.decode((int) e.key)).append("  ").append(e.count);
+            }
+            int peak = peakMinuteIndex();
+            if (peak >= 0) {
+                sb.append("\n按分钟: ").append(minutes.length).append(" 分钟有告警，峰值 ")
+                        .append(formatMinute(minutes[peak])).append(" ").append(minuteCounts[peak]).append(" 条");
+            }
+            return sb.toString();
+        }
+
+        private void appendIps(StringBuilder sb, String title, List<CountEntry> entries) {
+            sb.append("\n").append(title).append(" Top ").append(entries.size()).append(":");
+            for (CountEntry e : entries) {
+                sb.append("\n  ").append(RiskEvent.ipToString(dictionary, e.key)).append("  ").append(e.count);
+                if (e.error > 0) {
+                    // 估计值，真实值在 [count - error, count] 之间
+                    sb.append("（误差 ≤ ").append(e.error).append("）");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.y5neko.dbapptools.aggregate;
+
+import com.y5neko.dbapptools.model.DictionaryRemapper;
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.model.StringDictionary;
+import com.y5neko.dbapptools.network.TimeRange;
+import com.y5neko.dbapptools.store.EventStore;
+import com.y5neko.dbapptools.store.ScanFilter;
+import com.y5neko.dbapptools.store.SegmentReader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 本地存储的并行统计
+ * 按小时分区拆分为 fork/join 任务，每个任务在自己的 RiskAggregator 上不加锁地累加，
+ * 子任务完成后两两合并。内层循环直接读取内存映射中的字段，不创建 RiskEvent，
+ * 存储字典到结果字典的编号转换在任务内缓存（DictionaryRemapper），不会每行都经过字典的锁。
+ * 攻击 IP/目标 IP 的 Top N 由 Space-Saving 合并得到，与单线程统计相比估计值可能略有差异，误差仍在 error 范围内
+ */
+public final class SegmentAggregation {
+
+    // 每个工作线程大约分到的任务数，越多负载越均衡，合并开销也越大
+    private static final int TASKS_PER_THREAD = 8;
+
+    private SegmentAggregation() {}
+
+    /**
+     * 使用公共 ForkJoinPool 统计 [start, end] 内通过 filter 的记录
+     * @param dictionary 结果使用的字典，要合并到的 RiskAggregator 的字典
+     */
+    public static RiskAggregator aggregate(EventStore store, LocalDateTime start, LocalDateTime end, ScanFilter filter,
+                                           StringDictionary dictionary) throws IOException {
+        return aggregate(store, start, end, filter, dictionary, ForkJoinPool.commonPool());
+    }
+
+    public static RiskAggregator aggregate(EventStore store, LocalDateTime start, LocalDateTime end, ScanFilter filter,
+                                           StringDictionary dictionary, ForkJoinPool pool) throws IOException {
+        List<TimeRange> hours = EventStore.hourPartitions(start, end);
+        int leafHours = Math.max(1, hours.size() / (pool.getParallelism() * TASKS_PER_THREAD));
+        try {
+            return pool.invoke(new HourTask(store, filter, dictionary, hours.toArray(new TimeRange[0]), 0, hours.size(),
+                    leafHours));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 统计 hours[from, to)，超过 leafHours 个分区时一分为二
+     */
+    private static final class HourTask extends RecursiveTask<RiskAggregator> {
+        private static final long serialVersionUID = 1L;
+
+        private final EventStore store;
+        private final ScanFilter filter;
+        private final StringDictionary dictionary;
+        private final TimeRange[] hours;
+        private final int from;
+        private final int to;
+        private final int leafHours;
+
+        HourTask(EventStore store, ScanFilter filter, StringDictionary dictionary, TimeRange[] hours, int from, int to,
+                 int leafHours) {
+            this.store = store;
+            this.filter = filter;
+            this.dictionary = dictionary;
+            this.hours = hours;
+            this.from = from;
+            this.to = to;
+            this.leafHours = leafHours;
+        }
+
+        @Override
+        protected RiskAggregator compute() {
+            if (to - from <= leafHours) {
+                return scanLeaf();
+            }
+            int mid = (from + to) >>> 1;
+            HourTask left = new HourTask(store, filter, dictionary, hours, from, mid, leafHours);
+            HourTask right = new HourTask(store, filter, dictionary, hours, mid, to, leafHours);
+            left.fork();
+            RiskAggregator result = right.compute();
+            result.merge(left.join());
+            return result;
+        }
+
+        private RiskAggregator scanLeaf() {
+            RiskAggregator aggregator = new RiskAggregator(dictionary);
+            StringDictionary storeDictionary = store.getDictionary();
+            DictionaryRemapper codes = new DictionaryRemapper(dictionary);
+            SegmentReader.RowVisitor visitor = row -> {
+                long attacker = row.getStoreAttackerIp();
+                if (attacker == RiskEvent.NO_IP) {
+                    attacker = row.getStoreSip();
+                }
+                aggregator.accumulate(row.getTime(), row.getGrade(), codes.ip(storeDictionary, attacker),
+                        codes.ip(storeDictionary, row.getStoreDip()), row.getRuleId(), codes.code(storeDictionary, row.getStoreCve()));
+            };
+            try {
+                for (int i = from; i < to; i++) {
+                    store.scanHour(hours[i], filter, visitor);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return aggregator;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.y5neko.dbapptools.aggregate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Space-Saving heavy hitter 统计，只保留 capacity 个计数器，内存与不同键的数量无关
+ * 计数器满时新键替换计数最小的计数器并继承其计数（记为误差），因此每个键的估计值不小于真实值，
+ * 真实次数超过 总数 / capacity 的键一定在结果中。计数器按计数组织成小顶堆，替换和更新都是 O(log capacity)。
+ * 不是线程安全的
+ */
+public final class SpaceSaving {
+
+    private final int capacity;
+    private final long[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    // 小顶堆，元素为计数器下标
+    private final int[] heap;
+    // 计数器下标 -> 在堆中的位置
+    private final int[] heapPos;
+    // 键 -> 计数器下标
+    private final LongCountMap index;
+    private int size = 0;
+
+    public SpaceSaving(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity 必须大于 0");
+        }
+        this.capacity = capacity;
+        keys = new long[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        heap = new int[capacity];
+        heapPos = new int[capacity];
+        index = new LongCountMap(capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void offer(long key) {
+        offer(key, 1, 0);
+    }
+
+    private void offer(long key, long weight, long error) {
+        int slot = (int) index.getOrDefault(key, -1);
+        if (slot >= 0) {
+            counts[slot] += weight;
+            errors[slot] += error;
+            siftDown(heapPos[slot]);
+            return;
+        }
+        if (size < capacity) {
+            slot = size++;
+            keys[slot] = key;
+            counts[slot] = weight;
+            errors[slot] = error;
+            index.put(key, slot);
+            heap[slot] = slot;
+            heapPos[slot] = slot;
+            siftUp(slot);
+            return;
+        }
+        // 替换计数最小的计数器
+        slot = heap[0];
+        index.remove(keys[slot]);
+        errors[slot] = counts[slot] + error;
+        counts[slot] += weight;
+        keys[slot] = key;
+        index.put(key, slot);
+        siftDown(0);
+    }
+
+    /**
+     * 当前最小计数，计数器未满时为 0；不在结果中的键的真实次数不超过该值
+     */
+    public long minCount() {
+        return size < capacity ? 0 : counts[heap[0]];
+    }
+
+    /**
+     * 估计值，不在计数器中的键返回 minCount
+     */
+    public long estimate(long key) {
+        int slot = (int) index.getOrDefault(key, -1);
+        return slot >= 0 ? counts[slot] : minCount();
+    }
+
+    /**
+     * 合并另一个统计（可合并摘要）：一方没有的键按该方的 minCount 计入计数和误差，合并后保留计数最大的 capacity 个
+     */
+    public void merge(SpaceSaving other) {
+        long thisMin = minCount();
+        long otherMin = other.minCount();
+        List<CountEntry> merged = new ArrayList<>(size + other.size);
+        for (int i = 0; i < size; i++) {
+            int otherSlot = (int) other.index.getOrDefault(keys[i], -1);
+            if (otherSlot >= 0) {
+                merged.add(new CountEntry(keys[i], counts[i] + other.counts[otherSlot], errors[i] + other.errors[otherSlot]));
+            } else {
+                merged.add(new CountEntry(keys[i], counts[i] + otherMin, errors[i] + otherMin));
+            }
+        }
+        for (int i = 0; i < other.size; i++) {
+            if (!index.containsKey(other.keys[i])) {
+                merged.add(new CountEntry(other.keys[i], other.counts[i] + thisMin, other.errors[i] + thisMin));
+            }
+        }
+        merged.sort(CountEntry.BY_COUNT_DESC);
+        index.clear();
+        size = 0;
+        for (int i = 0; i < merged.size() && i < capacity; i++) {
+            CountEntry e = merged.get(i);
+            offer(e.key, e.count, e.error);
+        }
+    }
+
+    /**
+     * 计数最大的 n 个键，按计数降序
+     */
+    public List<CountEntry> top(int n) {
+        List<CountEntry> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(new CountEntry(keys[i], counts[i], errors[i]));
+        }
+        list.sort(CountEntry.BY_COUNT_DESC);
+        return list.size() > n ? new ArrayList<>(list.subList(0, n)) : list;
+    }
+
+    private boolean less(int a, int b) {
+        return counts[heap[a]] < counts[heap[b]];
+    }
+
+    private void swap(int a, int b) {
+        int t = heap[a];
+        heap[a] = heap[b];
+        heap[b] = t;
+        heapPos[heap[a]] = a;
+        heapPos[heap[b]] = b;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!less(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                break;
+            }
+            int smallest = left + 1 < size && less(left + 1, left) ? left + 1 : left;
+            if (!less(smallest, i)) {
+                break;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+}
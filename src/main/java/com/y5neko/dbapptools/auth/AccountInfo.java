@@ -1,10 +1,18 @@
 package com.y5neko.dbapptools.auth;
 
+/**
+ * 一台明御设备的账号配置
+ * name 为设备名称，多台设备时用来区分结果；concurrency 为这台设备的并发请求数，0 表示使用查询设置中的并发数；
+ * enabled 为 false 的设备不参与“全部设备”查询
+ */
 public class AccountInfo {
+    private String name;
     private String username;
     private String password;
     private String jwtToken;
     private String loginUrl;
+    private int concurrency = 0;
+    private boolean enabled = true;
 
     public AccountInfo() {}
 
@@ -15,6 +23,38 @@ public class AccountInfo {
         this.loginUrl = loginUrl;
     }
 
+    public AccountInfo(String name, String username, String password, String jwtToken, String loginUrl) {
+        this(username, password, jwtToken, loginUrl);
+        this.name = name;
+    }
+
+    /**
+     * 设备名称，未设置时取地址中的主机和端口
+     */
+    public String getName() {
+        if (name != null && !name.trim().isEmpty()) {
+            return name.trim();
+        }
+        return defaultName(loginUrl);
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public static String defaultName(String loginUrl) {
+        if (loginUrl == null || loginUrl.trim().isEmpty()) {
+            return "默认";
+        }
+        String s = loginUrl.trim();
+        int scheme = s.indexOf("://");
+        if (scheme >= 0) {
+            s = s.substring(scheme + 3);
+        }
+        int slash = s.indexOf('/');
+        return slash >= 0 ? s.substring(0, slash) : s;
+    }
+
     public String getUsername() {
         return username;
     }
@@ -46,4 +86,32 @@ public class AccountInfo {
     public void setLoginUrl(String loginUrl) {
         this.loginUrl = loginUrl;
     }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public AccountInfo copy() {
+        AccountInfo copy = new AccountInfo(name, username, password, jwtToken, loginUrl);
+        copy.concurrency = concurrency;
+        copy.enabled = enabled;
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
 }
@@ -1,6 +1,7 @@
 package com.y5neko.dbapptools.auth;
 
 import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
 import com.alibaba.fastjson2.JSONObject;
 import com.y5neko.dbapptools.config.GlobalConfig;
 import com.y5neko.dbapptools.utils.LogUtils;
@@ -8,49 +9,212 @@ import com.y5neko.dbapptools.utils.LogUtils;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * 设备账号的保存与读取，一个文件保存多台设备：
+ * <pre>
+ * {"current": "设备名称", "accounts": [{"name": ..., "username": ..., "password": ..., "jwtToken": ..., "loginUrl": ...,
+ *   "concurrency": 0, "enabled": true}, ...]}
+ * </pre>
+ * 旧版本只保存一个账号对象，读取时作为唯一的设备，下次保存时改写为新格式。
+ * 设备按名称区分，未设置名称时取地址中的主机和端口。读写都是整个文件，方法之间加锁；
+ * 写入先写临时文件再原子替换，读到的文件总是完整的。文件存在但无法解析时拒绝保存，避免用只含一台设备的内容覆盖其他设备
+ */
 public class AccountStorage {
 
     private static final File ACCOUNT_FILE = new File(GlobalConfig.ACCOUNT_FILE);
 
-    public static void saveAccount(AccountInfo account) {
-        try {
-            JSONObject json = new JSONObject();
-            json.put("username", account.getUsername());
-            json.put("password", account.getPassword());
-            json.put("jwtToken", account.getJwtToken());
-            json.put("loginUrl", account.getLoginUrl());
+    /**
+     * 保存账号并设为当前设备，同名设备已存在时原位置替换
+     * @return 是否已保存，账号文件无法解析或写入失败时为 false
+     */
+    public static synchronized boolean saveAccount(AccountInfo account) {
+        Profiles profiles = read();
+        if (profiles.unreadable) {
+            return false;
+        }
+        String name = account.getName();
+        AccountInfo saved = account.copy();
+        saved.setName(name);
+        AccountInfo existing = find(profiles.accounts, name);
+        if (existing != null) {
+            profiles.accounts.set(profiles.accounts.indexOf(existing), saved);
+        } else {
+            profiles.accounts.add(saved);
+        }
+        profiles.current = name;
+        return write(profiles);
+    }
 
-            String jsonStr = json.toJSONString();
-            if (!ACCOUNT_FILE.getParentFile().exists()) {
-                ACCOUNT_FILE.getParentFile().mkdirs();
+    /**
+     * 当前设备，没有保存过账号时返回 null
+     */
+    public static synchronized AccountInfo loadAccount() {
+        Profiles profiles = read();
+        AccountInfo current = find(profiles.accounts, profiles.current);
+        if (current == null && !profiles.accounts.isEmpty()) {
+            current = profiles.accounts.get(0);
+        }
+        return current;
+    }
+
+    /**
+     * 按名称读取设备，不存在时返回 null
+     */
+    public static synchronized AccountInfo loadAccount(String name) {
+        return find(read().accounts, name);
+    }
+
+    /**
+     * 全部设备，按保存顺序
+     */
+    public static synchronized List<AccountInfo> loadAccounts() {
+        return read().accounts;
+    }
+
+    /**
+     * 只更新令牌，不改变当前设备；用于重新登录
+     * @return 是否已保存
+     */
+    public static synchronized boolean saveToken(String name, String jwtToken) {
+        Profiles profiles = read();
+        AccountInfo existing = find(profiles.accounts, name);
+        if (existing == null) {
+            return false;
+        }
+        existing.setJwtToken(jwtToken);
+        return write(profiles);
+    }
+
+    public static synchronized boolean setCurrent(String name) {
+        Profiles profiles = read();
+        if (find(profiles.accounts, name) == null) {
+            return false;
+        }
+        profiles.current = name;
+        return write(profiles);
+    }
+
+    public static synchronized boolean removeAccount(String name) {
+        Profiles profiles = read();
+        AccountInfo existing = find(profiles.accounts, name);
+        if (existing == null) {
+            return false;
+        }
+        profiles.accounts.remove(existing);
+        return write(profiles);
+    }
+
+    private static AccountInfo find(List<AccountInfo> accounts, String name) {
+        if (name == null) {
+            return null;
+        }
+        for (AccountInfo account : accounts) {
+            if (name.equals(account.getName())) {
+                return account;
             }
-            Files.write(ACCOUNT_FILE.toPath(), jsonStr.getBytes(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (IOException e) {
-            LogUtils.error(AccountStorage.class, "保存账号信息失败: " + e.getMessage());
         }
+        return null;
+    }
+
+    private static final class Profiles {
+        String current;
+        final List<AccountInfo> accounts = new ArrayList<>();
+        // 文件存在但无法解析，内容不可信，不能据此写回
+        boolean unreadable = false;
     }
 
-    public static AccountInfo loadAccount() {
+    private static Profiles read() {
+        Profiles profiles = new Profiles();
         try {
             if (!ACCOUNT_FILE.exists()) {
-                return null;
+                return profiles;
             }
             byte[] bytes = Files.readAllBytes(ACCOUNT_FILE.toPath());
-            String jsonStr = new String(bytes);
-            JSONObject json = JSON.parseObject(jsonStr);
+            JSONObject json = JSON.parseObject(new String(bytes));
+            if (json == null) {
+                return profiles;
+            }
+            JSONArray accounts = json.getJSONArray("accounts");
+            if (accounts == null) {
+                // 旧格式：只有一个账号
+                AccountInfo account = parseAccount(json);
+                profiles.accounts.add(account);
+                profiles.current = account.getName();
+                return profiles;
+            }
+            for (int i = 0; i < accounts.size(); i++) {
+                AccountInfo account = parseAccount(accounts.getJSONObject(i));
+                // 名称重复时只保留第一个
+                if (find(profiles.accounts, account.getName()) == null) {
+                    profiles.accounts.add(account);
+                }
+            }
+            profiles.current = json.getString("current");
+        } catch (Exception e) {
+            LogUtils.error(AccountStorage.class, "加载账号信息失败，修复或删除 " + ACCOUNT_FILE + " 之前不会保存账号: " + e.getMessage());
+            profiles.accounts.clear();
+            profiles.current = null;
+            profiles.unreadable = true;
+        }
+        return profiles;
+    }
 
-            AccountInfo account = new AccountInfo();
-            account.setUsername(json.getString("username"));
-            account.setPassword(json.getString("password"));
-            account.setJwtToken(json.getString("jwtToken"));
-            account.setLoginUrl(json.getString("loginUrl"));
+    private static AccountInfo parseAccount(JSONObject json) {
+        AccountInfo account = new AccountInfo();
+        account.setUsername(json.getString("username"));
+        account.setPassword(json.getString("password"));
+        account.setJwtToken(json.getString("jwtToken"));
+        account.setLoginUrl(json.getString("loginUrl"));
+        account.setName(json.getString("name"));
+        account.setConcurrency(json.getIntValue("concurrency", 0));
+        account.setEnabled(json.getBooleanValue("enabled", true));
+        return account;
+    }
+
+    private static boolean write(Profiles profiles) {
+        if (profiles.unreadable) {
+            return false;
+        }
+        Path tmp = null;
+        try {
+            JSONArray accounts = new JSONArray();
+            for (AccountInfo account : profiles.accounts) {
+                JSONObject json = new JSONObject();
+                json.put("name", account.getName());
+                json.put("username", account.getUsername());
+                json.put("password", account.getPassword());
+                json.put("jwtToken", account.getJwtToken());
+                json.put("loginUrl", account.getLoginUrl());
+                json.put("concurrency", account.getConcurrency());
+                json.put("enabled", account.isEnabled());
+                accounts.add(json);
+            }
+            JSONObject root = new JSONObject();
+            root.put("current", profiles.current);
+            root.put("accounts", accounts);
 
-            return account;
+            String jsonStr = root.toJSONString();
+            if (!ACCOUNT_FILE.getParentFile().exists()) {
+                ACCOUNT_FILE.getParentFile().mkdirs();
+            }
+            // 同目录的临时文件写完后原子替换，中途中断或同时读取都不会看到写了一半的文件
+            tmp = Files.createTempFile(ACCOUNT_FILE.getAbsoluteFile().getParentFile().toPath(), ACCOUNT_FILE.getName() + ".", ".tmp");
+            Files.write(tmp, jsonStr.getBytes());
+            Files.move(tmp, ACCOUNT_FILE.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
         } catch (IOException e) {
-            LogUtils.error(AccountStorage.class, "加载账号信息失败: " + e.getMessage());
-            return null;
+            LogUtils.error(AccountStorage.class, "保存账号信息失败: " + e.getMessage());
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ignored) {}
+            }
+            return false;
         }
     }
 }
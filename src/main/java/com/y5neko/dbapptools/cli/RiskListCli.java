@@ -0,0 +1,1005 @@
+package com.y5neko.dbapptools.cli;
+
+import com.alibaba.fastjson2.JSONObject;
+import com.y5neko.dbapptools.aggregate.RiskAggregator;
+import com.y5neko.dbapptools.auth.AccountInfo;
+import com.y5neko.dbapptools.auth.AccountStorage;
+import com.y5neko.dbapptools.config.GlobalConfig;
+import com.y5neko.dbapptools.export.CsvExporter;
+import com.y5neko.dbapptools.export.RiskEventExporter;
+import com.y5neko.dbapptools.model.DictionaryRemapper;
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.network.*;
+import com.y5neko.dbapptools.store.EventStore;
+import com.y5neko.dbapptools.store.ScanFilter;
+import com.y5neko.dbapptools.store.SliceTotalCache;
+import com.y5neko.dbapptools.utils.JwtUtils;
+import com.y5neko.dbapptools.utils.MiscUtils;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 命令行批量查询，不依赖 JavaFX，适合 cron 或跳板机上使用
+ * 结果写到标准输出（或 --output 指定的文件），进度和汇总写到标准错误，方便接管道
+ * 退出码: 0 全部成功，1 有时间段最终失败，2 参数或账号错误
+ */
+public class RiskListCli {
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_FAILED_SLICES = 1;
+    private static final int EXIT_USAGE = 2;
+
+    private static final String USAGE = String.join("\n",
+            "用法: java -jar dbapp-apt-analyzer.jar cli [选项]",
+            "",
+            "  -s, --start <时间>      开始时间，yyyy-MM-dd HH:mm:ss 或 yyyy-MM-dd，默认今天 00:00:00",
+            "  -e, --end <时间>        结束时间，只写日期时为当天 23:59:59，默认今天 23:59:59",
+            "  -g, --grades <等级>     攻击等级，逗号分隔: high,medium,low 或 3,2,1，默认全部",
+            "  -c, --concurrency <n>   最大并发请求数，默认 " + QueryScheduler.DEFAULT_MAX_IN_FLIGHT,
+            "      --retries <n>       失败重试次数，默认 " + RetryPolicy.DEFAULT_MAX_RETRIES,
+            "      --rate <n>          每秒请求数，0 不限速，默认 " + (int) RateLimiter.DEFAULT_PERMITS_PER_SECOND,
+            "      --burst <n>         突发请求数，默认 " + RateLimiter.DEFAULT_BURST,
+            "      --adaptive [n]      自适应拆分，n 为拆分阈值，默认 " + GlobalConfig.LIMIT,
+            "      --detail            获取告警明细，默认只统计每个时间段的 total",
+            "      --dedup <方式>      明细按告警 ID 去重: exact（默认，精确）、bloom（省内存，适合按月拉取）、off",
+            "      --no-cache          统计模式下不使用时间段 total 缓存",
+            "      --checkpoint        记录检查点（数据目录 journal 下），被中断或有时间段失败时，用相同参数再次运行",
+            "                          只请求未完成的时间段，已完成的结果从检查点重放；全部成功后删除检查点",
+            "      --follow [n]        持续跟踪新告警，每 n 秒查询一次，默认 " + RiskTailFollower.DEFAULT_INTERVAL_SECONDS,
+            "                          从 --start 开始（未指定时从当前时间开始），忽略 --end，Ctrl+C 结束",
+            "      --overlap <n>       跟踪时相邻窗口重叠的秒数，默认 " + RiskTailFollower.DEFAULT_OVERLAP_SECONDS,
+            "      --search <条件>     只在本地缓存中检索明细（不请求设备，不需要登录），条件为空格或逗号分隔的 字段=值，",
+            "                          字段: ip、sip、dip、attacker、rule、cve、domain，例如 \"attacker=1.2.3.4 rule=10001\"",
+            "      --stats [n]         明细统计（攻击IP/目标IP/规则/CVE Top n、等级、按分钟），结束时写到标准错误，默认 n = " + RiskAggregator.DEFAULT_TOP_N,
+            "  -f, --format <格式>     输出格式: text、csv、json（每行一个 JSON），默认 text；",
+            "                          明细还支持 rcol（按列压缩的二进制格式）",
+            "  -o, --output <文件>     输出到文件，默认标准输出",
+            "  -a, --appliance <名称>  查询的设备，多个用逗号分隔，all 为全部启用的设备；默认为图形界面中当前的设备",
+            "                          多台设备并行查询，每台使用各自的并发数（未设置时为 -c），结果合并输出并标记设备",
+            "      --login             重新登录（使用已保存的账号密码，验证码需手动输入）",
+            "                          查询过程中 Token 即将过期或失效时会暂停并自动重新登录，之后从失败的时间段继续",
+            "      --captcha-cmd <命令> 重新登录时用外部程序识别验证码: 命令后追加图片路径执行，取标准输出第一行为验证码；",
+            "                          默认把图片保存到数据目录，在终端手动输入",
+            "  -h, --help              显示帮助");
+
+    private enum Format {
+        TEXT, CSV, JSON, RCOL
+    }
+
+    // 参数
+    private LocalDateTime start = LocalDate.now().atStartOfDay();
+    private boolean startGiven = false;
+    private LocalDateTime end = LocalDate.now().atTime(23, 59, 59);
+    private Object attackGrades = null;
+    private int concurrency = QueryScheduler.DEFAULT_MAX_IN_FLIGHT;
+    private int retries = RetryPolicy.DEFAULT_MAX_RETRIES;
+    private int rate = (int) RateLimiter.DEFAULT_PERMITS_PER_SECOND;
+    private int burst = RateLimiter.DEFAULT_BURST;
+    private int adaptiveThreshold = 0;
+    private boolean detail = false;
+    private boolean useCache = true;
+    private boolean checkpoint = false;
+    private Format format = Format.TEXT;
+    private String output = null;
+    private boolean login = false;
+    private int followInterval = 0;
+    private int overlap = RiskTailFollower.DEFAULT_OVERLAP_SECONDS;
+    // 明细统计 Top n，0 表示不统计
+    private int statsTopN = 0;
+    // 本地检索条件，null 表示请求设备
+    private String search = null;
+    private RecordDeduplicator.Mode dedupMode = RecordDeduplicator.Mode.EXACT;
+    // 设备名称，逗号分隔或 all，null 表示当前设备
+    private String appliance = null;
+    // 验证码识别命令，null 表示在终端手动输入
+    private String captchaCmd = null;
+    // 设备名称 -> 令牌，首次登录和查询中的重新登录共用
+    private final Map<String, TokenManager> tokenManagers = new HashMap<>();
+    private BufferedReader stdin;
+    private final RiskAggregator aggregator = new RiskAggregator();
+
+    private final PrintStream err = new PrintStream(new FileOutputStream(FileDescriptor.err), true);
+    // 输出已关闭，跟踪模式下 Ctrl+C 的关闭钩子等它再退出，保证导出文件完整
+    private final CountDownLatch outputClosed = new CountDownLatch(1);
+
+    public static void main(String[] args) {
+        System.exit(new RiskListCli().run(args));
+    }
+
+    int run(String[] args) {
+        try {
+            if (!parseArgs(args)) {
+                err.println(USAGE);
+                return EXIT_OK;
+            }
+        } catch (IllegalArgumentException e) {
+            err.println("参数错误: " + e.getMessage());
+            err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        MiscUtils.initDir(GlobalConfig.DIR);
+
+        List<AccountInfo> accounts = resolveAccounts();
+        if (accounts == null) {
+            return EXIT_USAGE;
+        }
+        if (accounts.size() > 1 && followInterval > 0) {
+            err.println("错误: --follow 只支持单台设备");
+            return EXIT_USAGE;
+        }
+        for (AccountInfo account : accounts) {
+            if (search == null && (login || !isTokenValid(account.getJwtToken()))) {
+                if (!login) {
+                    err.println("设备 " + account.getName() + " 的 JWT Token 不存在或已过期，尝试重新登录");
+                }
+                String token = relogin(account);
+                if (token == null) {
+                    return EXIT_USAGE;
+                }
+                account.setJwtToken(token);
+            }
+        }
+
+        try {
+            return writeResults(accounts);
+        } finally {
+            outputClosed.countDown();
+        }
+    }
+
+    /**
+     * 按 --appliance 选出要查询的设备，出错时输出原因并返回 null
+     */
+    private List<AccountInfo> resolveAccounts() {
+        List<AccountInfo> accounts = new ArrayList<>();
+        if (appliance == null) {
+            AccountInfo account = AccountStorage.loadAccount();
+            if (account != null) {
+                accounts.add(account);
+            }
+        } else if (appliance.equalsIgnoreCase("all")) {
+            for (AccountInfo account : AccountStorage.loadAccounts()) {
+                if (account.isEnabled()) {
+                    accounts.add(account);
+                }
+            }
+        } else {
+            for (String name : appliance.split(",")) {
+                if (name.trim().isEmpty()) {
+                    continue;
+                }
+                AccountInfo account = AccountStorage.loadAccount(name.trim());
+                if (account == null) {
+                    err.println("错误: 未找到设备 " + name.trim() + "，已保存的设备: " + AccountStorage.loadAccounts());
+                    return null;
+                }
+                accounts.add(account);
+            }
+        }
+        if (accounts.isEmpty()) {
+            err.println("错误: 未找到账号信息，请先在图形界面中登录一次");
+            return null;
+        }
+        for (AccountInfo account : accounts) {
+            if (account.getLoginUrl() == null || account.getLoginUrl().isEmpty()) {
+                err.println("错误: 设备 " + account.getName() + " 的登录地址为空");
+                return null;
+            }
+        }
+        return accounts;
+    }
+
+    private int writeResults(List<AccountInfo> accounts) {
+        try {
+            // 明细边获取边写出，导出器只保留固定大小的缓冲区
+            if (detail && format != Format.TEXT) {
+                RiskEventExporter exporter = openExporter();
+                int code;
+                try (RiskEventExporter e = exporter) {
+                    code = query(accounts, null, e);
+                }
+                // 列式格式在关闭时才写出最后一个行组，字节数在关闭后统计
+                err.println("已导出 " + exporter.getRowCount() + " 条，" + exporter.getBytesWritten() + " 字节");
+                return code;
+            }
+            try (Writer writer = openOutput()) {
+                return query(accounts, writer, null);
+            }
+        } catch (IOException e) {
+            err.println("写入结果失败: " + e.getMessage());
+            return EXIT_USAGE;
+        }
+    }
+
+    private boolean parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-h":
+                case "--help":
+                    return false;
+                case "-s":
+                case "--start":
+                    start = parseTime(value(args, ++i, arg), false);
+                    startGiven = true;
+                    break;
+                case "-e":
+                case "--end":
+                    end = parseTime(value(args, ++i, arg), true);
+                    break;
+                case "-g":
+                case "--grades":
+                    attackGrades = parseGrades(value(args, ++i, arg));
+                    break;
+                case "-c":
+                case "--concurrency":
+                    concurrency = parseInt(value(args, ++i, arg), 1, 64, arg);
+                    break;
+                case "--retries":
+                    retries = parseInt(value(args, ++i, arg), 0, 10, arg);
+                    break;
+                case "--rate":
+                    rate = parseInt(value(args, ++i, arg), 0, 1000, arg);
+                    break;
+                case "--burst":
+                    burst = parseInt(value(args, ++i, arg), 1, 1000, arg);
+                    break;
+                case "--adaptive":
+                    adaptiveThreshold = GlobalConfig.LIMIT;
+                    if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                        adaptiveThreshold = parseInt(args[++i], 1, Integer.MAX_VALUE, arg);
+                    }
+                    break;
+                case "--detail":
+                    detail = true;
+                    break;
+                case "--dedup":
+                    String dedupName = value(args, ++i, arg);
+                    if (dedupName.equalsIgnoreCase("off")) {
+                        dedupMode = null;
+                    } else {
+                        try {
+                            dedupMode = RecordDeduplicator.Mode.valueOf(dedupName.toUpperCase(Locale.ROOT));
+                        } catch (IllegalArgumentException e) {
+                            throw new IllegalArgumentException("不支持的去重方式 " + dedupName);
+                        }
+                    }
+                    break;
+                case "--no-cache":
+                    useCache = false;
+                    break;
+                case "--checkpoint":
+                    checkpoint = true;
+                    break;
+                case "--follow":
+                    followInterval = RiskTailFollower.DEFAULT_INTERVAL_SECONDS;
+                    if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                        followInterval = parseInt(args[++i], 1, 86400, arg);
+                    }
+                    detail = true;
+                    break;
+                case "--search":
+                    search = value(args, ++i, arg);
+                    ScanFilter.parse(search);
+                    detail = true;
+                    break;
+                case "--stats":
+                    statsTopN = RiskAggregator.DEFAULT_TOP_N;
+                    if (i + 1 < args.length && args[i + 1].matches("\\d+")) {
+                        statsTopN = parseInt(args[++i], 1, 1000, arg);
+                    }
+                    break;
+                case "--overlap":
+                    overlap = parseInt(value(args, ++i, arg), 0, 86400, arg);
+                    break;
+                case "-f":
+                case "--format":
+                    String formatName = value(args, ++i, arg);
+                    try {
+                        format = formatName.equalsIgnoreCase("jsonl") ? Format.JSON
+                                : Format.valueOf(formatName.toUpperCase(Locale.ROOT));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException("不支持的输出格式 " + formatName);
+                    }
+                    break;
+                case "-o":
+                case "--output":
+                    output = value(args, ++i, arg);
+                    break;
+                case "-a":
+                case "--appliance":
+                    appliance = value(args, ++i, arg);
+                    break;
+                case "--login":
+                    login = true;
+                    break;
+                case "--captcha-cmd":
+                    captchaCmd = value(args, ++i, arg);
+                    if (captchaCmd.trim().isEmpty()) {
+                        throw new IllegalArgumentException("--captcha-cmd 不能为空");
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知参数 " + arg);
+            }
+        }
+        if (end.isBefore(start) && followInterval == 0) {
+            throw new IllegalArgumentException("结束时间不能早于开始时间");
+        }
+        if (detail && adaptiveThreshold > 0) {
+            throw new IllegalArgumentException("--detail/--follow 暂不支持与 --adaptive 同时使用");
+        }
+        if (search != null && followInterval > 0) {
+            throw new IllegalArgumentException("--search 不能与 --follow 同时使用");
+        }
+        if (statsTopN > 0 && !detail) {
+            throw new IllegalArgumentException("--stats 需要 --detail 或 --follow");
+        }
+        if (checkpoint && (followInterval > 0 || search != null)) {
+            throw new IllegalArgumentException("--checkpoint 不能与 --follow/--search 同时使用");
+        }
+        if (format == Format.RCOL && !detail) {
+            throw new IllegalArgumentException("rcol 格式只用于 --detail");
+        }
+        return true;
+    }
+
+    private static String value(String[] args, int i, String name) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(name + " 缺少参数值");
+        }
+        return args[i];
+    }
+
+    private static int parseInt(String value, int min, int max, String name) {
+        try {
+            int n = Integer.parseInt(value.trim());
+            if (n < min || n > max) {
+                throw new IllegalArgumentException(name + " 取值范围 " + min + " ~ " + max);
+            }
+            return n;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " 不是整数: " + value);
+        }
+    }
+
+    private static LocalDateTime parseTime(String value, boolean endOfDay) {
+        String text = value.trim().replace('T', ' ');
+        try {
+            if (text.length() == 10) {
+                LocalDate date = LocalDate.parse(text);
+                return endOfDay ? date.atTime(23, 59, 59) : date.atStartOfDay();
+            }
+            return LocalDateTime.parse(text, DATE_TIME_FORMATTER);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("时间格式错误: " + value);
+        }
+    }
+
+    /**
+     * 与界面一致，全选或全不选时返回 null
+     */
+    private static Object parseGrades(String value) {
+        Set<Integer> grades = new TreeSet<>(Collections.reverseOrder());
+        for (String part : value.split(",")) {
+            String p = part.trim().toLowerCase(Locale.ROOT);
+            switch (p) {
+                case "3":
+                case "high":
+                case "高":
+                    grades.add(3);
+                    break;
+                case "2":
+                case "medium":
+                case "中":
+                    grades.add(2);
+                    break;
+                case "1":
+                case "low":
+                case "低":
+                    grades.add(1);
+                    break;
+                case "":
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知攻击等级 " + part);
+            }
+        }
+        if (grades.isEmpty() || grades.size() == 3) {
+            return null;
+        }
+        return new ArrayList<>(grades);
+    }
+
+    private static boolean isTokenValid(String token) {
+        if (token == null || token.isEmpty()) {
+            return false;
+        }
+        try {
+            return !JwtUtils.isExpired(JwtUtils.parse(token));
+        } catch (Exception e) {
+            // 无法解析时交给设备判断
+            return true;
+        }
+    }
+
+    /**
+     * 使用已保存的账号密码重新登录，验证码由 solveCaptcha 提供
+     * @return 新的 Token，失败返回 null
+     */
+    private String relogin(AccountInfo account) {
+        if (account.getUsername() == null || account.getPassword() == null) {
+            err.println("错误: 没有保存的用户名和密码，请先在图形界面中登录");
+            return null;
+        }
+        try {
+            return tokensOf(account).refresh(null).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            // 失败原因已由 onRefreshFailed 输出
+            return null;
+        }
+    }
+
+    /**
+     * 每台设备一个 TokenManager，重新登录成功后保存新 Token
+     */
+    private synchronized TokenManager tokensOf(AccountInfo account) {
+        return tokenManagers.computeIfAbsent(account.getName(), name ->
+                new TokenManager(name, account.getLoginUrl(), account.getUsername(), account.getPassword(),
+                        account.getJwtToken(), this::solveCaptcha)
+                        .listener(new TokenManager.RefreshListener() {
+                            @Override
+                            public void onRefreshed(String token) {
+                                account.setJwtToken(token);
+                                AccountStorage.saveToken(name, token);
+                                err.println("[" + name + "] 登录成功，JWT Token已保存");
+                            }
+
+                            @Override
+                            public void onRefreshFailed(String error) {
+                                err.println("[" + name + "] 登录失败: " + error);
+                            }
+                        }));
+    }
+
+    /**
+     * 验证码图片保存到数据目录，交给 --captcha-cmd 识别或由用户在终端输入
+     * 多台设备同时重新登录时依次提示，避免终端输入错位
+     */
+    private synchronized String solveCaptcha(String appliance, byte[] image) throws Exception {
+        File file = new File(GlobalConfig.DIR[0], "captcha.png");
+        Files.write(file.toPath(), image);
+        if (captchaCmd != null) {
+            return runCaptchaCommand(file);
+        }
+        err.print("[" + appliance + "] 验证码图片已保存到 " + file.getAbsolutePath() + "，请输入验证码（直接回车放弃）: ");
+        if (stdin == null) {
+            stdin = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        }
+        return stdin.readLine();
+    }
+
+    private String runCaptchaCommand(File image) throws Exception {
+        List<String> command = new ArrayList<>(Arrays.asList(captchaCmd.trim().split("\\s+")));
+        command.add(image.getAbsolutePath());
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String code;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            code = reader.readLine();
+        }
+        if (!process.waitFor(60, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            throw new IOException("验证码识别命令超时");
+        }
+        if (process.exitValue() != 0) {
+            throw new IOException("验证码识别命令退出码 " + process.exitValue());
+        }
+        return code;
+    }
+
+    private Writer openOutput() throws IOException {
+        OutputStream out = output == null ? new FileOutputStream(FileDescriptor.out) : new FileOutputStream(output);
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    private RiskEventExporter openExporter() throws IOException {
+        RiskEventExporter.Format exportFormat = format == Format.CSV ? RiskEventExporter.Format.CSV
+                : format == Format.JSON ? RiskEventExporter.Format.JSONL : RiskEventExporter.Format.RCOL;
+        if (output == null) {
+            return RiskEventExporter.create(exportFormat, Channels.newChannel(new FileOutputStream(FileDescriptor.out)));
+        }
+        return RiskEventExporter.create(exportFormat, Paths.get(output));
+    }
+
+    /**
+     * @param writer 统计结果和文本格式明细的输出，使用 exporter 时为 null
+     * @param exporter 明细导出器，不导出时为 null
+     */
+    private int query(List<AccountInfo> accounts, Writer writer, RiskEventExporter exporter) throws IOException {
+        if (search != null) {
+            return searchLocal(accounts, writer, exporter);
+        }
+        HttpClientManager.getRateLimiter().setRate(rate, burst);
+        int maxConcurrency = 0;
+        for (AccountInfo account : accounts) {
+            maxConcurrency = Math.max(maxConcurrency, concurrencyOf(account));
+        }
+        HttpClientManager.setMaxRequestsPerHost(maxConcurrency);
+        if (accounts.size() > 1) {
+            return fanOut(accounts, writer, exporter);
+        }
+        AccountInfo account = accounts.get(0);
+        if (followInterval > 0) {
+            return follow(account, writer, exporter);
+        }
+
+        RiskQueryEngine.QueryRequest request = newRequest(account);
+
+        // 统计结果按时间排序后输出，明细边获取边输出
+        IOException[] writeError = {null};
+        if (writer != null && !detail) {
+            writeHeader(writer, false);
+        }
+        RiskQueryEngine.RunningQuery running = new RiskQueryEngine().start(request, new RiskQueryEngine.QueryListener() {
+            @Override
+            public void onStarted(List<TimeRange> slices, int skippedHours) {
+                err.println("拆分为 " + slices.size() + " 个时间段，最大并发 " + request.getConcurrency() + "，开始请求...");
+            }
+
+            @Override
+            public void onSliceFailed(TimeRange range, String error) {
+                err.println("时间段 " + range + " 请求失败: " + error);
+            }
+
+            @Override
+            public void onRecord(TimeRange range, RiskEvent event) {
+                writeEvent(range, event, writer, exporter, writeError);
+            }
+
+            @Override
+            public void onResumed(int completedSlices, long replayedRecords, File journal) {
+                err.println("从检查点 " + journal + " 继续: 跳过已完成的 " + completedSlices + " 个时间段"
+                        + (detail ? "，重放明细 " + replayedRecords + " 条" : "") + "（删除该文件可重新开始）");
+            }
+
+            @Override
+            public void onReloginStarted(String reason) {
+                err.println(reason + "，暂停请求并重新登录");
+            }
+
+            @Override
+            public void onReloginFinished(String error) {
+                err.println(error == null ? "继续请求" : "重新登录失败，因 Token 失效而失败的时间段不再重试");
+            }
+        });
+        Thread hook = new Thread(running::cancel, "cli-cancel");
+        Runtime.getRuntime().addShutdownHook(hook);
+        RiskQueryEngine.QueryResult result;
+        try {
+            result = running.getFuture().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running.cancel();
+            return EXIT_FAILED_SLICES;
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        }
+
+        if (!detail) {
+            for (Map.Entry<TimeRange, Integer> entry : result.sliceTotals.entrySet()) {
+                writeTotal(writer, null, entry.getKey(), entry.getValue());
+            }
+        }
+        if (writer != null) {
+            writer.flush();
+        }
+        if (writeError[0] != null) {
+            throw writeError[0];
+        }
+
+        if (detail) {
+            err.println("共获取告警明细 " + result.recordCount + " 条，耗时 " + result.elapsedMillis + "ms");
+            if (result.deduplicator != null) {
+                err.println(result.deduplicator.summary());
+            }
+        } else {
+            err.println("累计 total = " + result.total + "，耗时 " + result.elapsedMillis + "ms");
+        }
+        err.println("连接统计: " + HttpClientManager.getPoolStats());
+        printStats();
+        if (!result.failedSlices.isEmpty()) {
+            err.println("注意: 以下 " + result.failedSlices.size() + " 个时间段重试后仍失败，未计入结果:");
+            for (Map.Entry<TimeRange, String> entry : result.failedSlices.entrySet()) {
+                err.println(entry.getKey() + "  " + entry.getValue());
+            }
+            printCheckpointHint();
+            return EXIT_FAILED_SLICES;
+        }
+        return EXIT_OK;
+    }
+
+    private RiskQueryEngine.QueryRequest newRequest(AccountInfo account) {
+        TokenManager tokens = tokensOf(account);
+        RiskQueryEngine.QueryRequest request = new RiskQueryEngine.QueryRequest(account.getLoginUrl(), tokens.getToken(), start, end)
+                .tokens(tokens)
+                .grades(attackGrades)
+                .concurrency(concurrencyOf(account))
+                .retry(new RetryPolicy(retries))
+                .dedup(dedupMode);
+        if (checkpoint) {
+            request.checkpoint();
+        }
+        if (detail) {
+            request.detail();
+        } else {
+            request.adaptive(adaptiveThreshold);
+            if (useCache) {
+                request.cache(SliceTotalCache.getDefault());
+            }
+        }
+        return request;
+    }
+
+    private void printCheckpointHint() {
+        if (checkpoint) {
+            err.println("检查点已保留，用相同参数再次运行时只请求失败和未完成的时间段");
+        }
+    }
+
+    /**
+     * 设备自己设置了并发数时优先使用，否则为 -c
+     */
+    private int concurrencyOf(AccountInfo account) {
+        return account.getConcurrency() > 0 ? Math.min(account.getConcurrency(), 64) : concurrency;
+    }
+
+    /**
+     * 明细写到导出器或文本输出，统计同时累加
+     */
+    private void writeEvent(TimeRange range, RiskEvent event, Writer writer, RiskEventExporter exporter,
+                            IOException[] writeError) {
+        if (statsTopN > 0) {
+            aggregator.add(event);
+        }
+        if (exporter != null) {
+            exporter.onRecord(range, event);
+            return;
+        }
+        synchronized (writer) {
+            try {
+                writer.write(event.toString());
+                writer.write('\n');
+            } catch (IOException e) {
+                writeError[0] = e;
+            }
+        }
+    }
+
+    /**
+     * 多台设备并行查询，明细合并输出，统计结果按设备、时间排序输出
+     */
+    private int fanOut(List<AccountInfo> accounts, Writer writer, RiskEventExporter exporter) throws IOException {
+        Map<String, RiskQueryEngine.QueryRequest> requests = new LinkedHashMap<>();
+        for (AccountInfo account : accounts) {
+            requests.put(account.getName(), newRequest(account));
+        }
+        IOException[] writeError = {null};
+        if (writer != null && !detail) {
+            writeHeader(writer, true);
+        }
+        ApplianceFanOut.RunningFanOut running = new ApplianceFanOut(new RiskQueryEngine()).start(requests,
+                new ApplianceFanOut.FanOutListener() {
+                    @Override
+                    public void onStarted(String appliance, List<TimeRange> slices, int skippedHours) {
+                        err.println("[" + appliance + "] 拆分为 " + slices.size() + " 个时间段，最大并发 "
+                                + requests.get(appliance).getConcurrency() + "，开始请求...");
+                    }
+
+                    @Override
+                    public void onSliceFailed(String appliance, TimeRange range, String error) {
+                        err.println("[" + appliance + "] 时间段 " + range + " 请求失败: " + error);
+                    }
+
+                    @Override
+                    public void onRecord(String appliance, TimeRange range, RiskEvent event) {
+                        writeEvent(range, event, writer, exporter, writeError);
+                    }
+
+                    @Override
+                    public void onResumed(String appliance, int completedSlices, long replayedRecords, File journal) {
+                        err.println("[" + appliance + "] 从检查点 " + journal + " 继续: 跳过已完成的 " + completedSlices
+                                + " 个时间段" + (detail ? "，重放明细 " + replayedRecords + " 条" : ""));
+                    }
+
+                    @Override
+                    public void onReloginStarted(String appliance, String reason) {
+                        err.println("[" + appliance + "] " + reason + "，暂停请求并重新登录");
+                    }
+
+                    @Override
+                    public void onReloginFinished(String appliance, String error) {
+                        err.println("[" + appliance + "] " + (error == null ? "继续请求"
+                                : "重新登录失败，因 Token 失效而失败的时间段不再重试"));
+                    }
+
+                    @Override
+                    public void onApplianceFinished(String appliance, RiskQueryEngine.QueryResult result) {
+                        err.println("[" + appliance + "] " + (detail ? "获取告警明细 " + result.recordCount + " 条"
+                                : "total = " + result.total) + "，耗时 " + result.elapsedMillis + "ms"
+                                + (result.failedSlices.isEmpty() ? "" : "，失败 " + result.failedSlices.size() + " 个时间段"));
+                    }
+                });
+        Thread hook = new Thread(running::cancel, "cli-cancel");
+        Runtime.getRuntime().addShutdownHook(hook);
+        ApplianceFanOut.FanOutResult result;
+        try {
+            result = running.getFuture().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running.cancel();
+            return EXIT_FAILED_SLICES;
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        }
+
+        if (!detail) {
+            for (Map.Entry<String, RiskQueryEngine.QueryResult> entry : result.results.entrySet()) {
+                for (Map.Entry<TimeRange, Integer> slice : entry.getValue().sliceTotals.entrySet()) {
+                    writeTotal(writer, entry.getKey(), slice.getKey(), slice.getValue());
+                }
+            }
+        }
+        if (writer != null) {
+            writer.flush();
+        }
+        if (writeError[0] != null) {
+            throw writeError[0];
+        }
+
+        err.println(result.results.size() + " 台设备" + (detail ? "共获取告警明细 " + result.recordCount + " 条"
+                : "累计 total = " + result.total) + "，耗时 " + result.elapsedMillis + "ms");
+        for (Map.Entry<String, RiskQueryEngine.QueryResult> entry : result.results.entrySet()) {
+            if (entry.getValue().deduplicator != null && entry.getValue().deduplicator.getDuplicateCount() > 0) {
+                err.println("[" + entry.getKey() + "] " + entry.getValue().deduplicator.summary());
+            }
+        }
+        err.println("连接统计: " + HttpClientManager.getPoolStats());
+        printStats();
+        if (result.failedSliceCount > 0) {
+            err.println("注意: 以下 " + result.failedSliceCount + " 个时间段重试后仍失败，未计入结果:");
+            for (Map.Entry<String, RiskQueryEngine.QueryResult> entry : result.results.entrySet()) {
+                for (Map.Entry<TimeRange, String> failed : entry.getValue().failedSlices.entrySet()) {
+                    err.println("[" + entry.getKey() + "] " + failed.getKey() + "  " + failed.getValue());
+                }
+            }
+            printCheckpointHint();
+            return EXIT_FAILED_SLICES;
+        }
+        return EXIT_OK;
+    }
+
+    /**
+     * 在本地缓存中检索，走倒排索引，只包含已经缓存过的小时
+     */
+    private int searchLocal(List<AccountInfo> accounts, Writer writer, RiskEventExporter exporter) throws IOException {
+        for (AccountInfo account : accounts) {
+            // 多台设备时记录标记来源设备
+            searchLocal(account, accounts.size() > 1 ? account.getName() : null, writer, exporter);
+        }
+        printStats();
+        return EXIT_OK;
+    }
+
+    private void searchLocal(AccountInfo account, String appliance, Writer writer, RiskEventExporter exporter)
+            throws IOException {
+        String baseUrl = account.getLoginUrl();
+        if (baseUrl.endsWith("/")) {
+            baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
+        }
+        EventStore store = EventStore.open(baseUrl);
+        ScanFilter filter = ScanFilter.parse(search)
+                .time(start.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(),
+                        end.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli())
+                .grades(gradeMask(attackGrades));
+        IOException[] writeError = {null};
+        // 存储的记录先转换到统计的字典，设备名称不能编入存储目录的字典
+        DictionaryRemapper remapper = new DictionaryRemapper(aggregator.getDictionary());
+        long begin = System.currentTimeMillis();
+        long matched = store.scan(start, end, filter, row -> {
+            if (writeError[0] != null) {
+                return;
+            }
+            RiskEvent event = remapper.remap(row.toEvent()).withAppliance(appliance);
+            if (statsTopN > 0) {
+                aggregator.add(event);
+            }
+            if (exporter != null) {
+                exporter.onRecord(null, event);
+                return;
+            }
+            try {
+                writer.write(event.toString());
+                writer.write('\n');
+            } catch (IOException e) {
+                writeError[0] = e;
+            }
+        });
+        if (writer != null) {
+            writer.flush();
+        }
+        if (writeError[0] != null) {
+            throw writeError[0];
+        }
+        err.println("本地检索 " + store.getDir() + " 命中 " + matched + " 条，耗时 " + (System.currentTimeMillis() - begin) + "ms");
+    }
+
+    /**
+     * 按 parseGrades 的结果筛选本地记录，null（全部）时包括未知等级
+     */
+    private static boolean[] gradeMask(Object grades) {
+        boolean[] mask = new boolean[4];
+        if (grades == null) {
+            Arrays.fill(mask, true);
+            return mask;
+        }
+        for (Object grade : (List<?>) grades) {
+            mask[(Integer) grade] = true;
+        }
+        return mask;
+    }
+
+    /**
+     * 持续跟踪新告警直到 Ctrl+C 或写出失败
+     */
+    private int follow(AccountInfo account, Writer writer, RiskEventExporter exporter) throws IOException {
+        LocalDateTime since = startGiven ? start : LocalDateTime.now();
+        RiskTailFollower tail = new RiskTailFollower(new RiskQueryEngine(), account.getLoginUrl(), account.getJwtToken(), since)
+                .tokens(tokensOf(account))
+                .grades(attackGrades)
+                .retry(new RetryPolicy(retries))
+                .interval(followInterval)
+                .overlap(overlap);
+        IOException[] writeError = {null};
+        Thread hook = new Thread(() -> {
+            tail.stop();
+            try {
+                outputClosed.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "cli-follow-stop");
+        Runtime.getRuntime().addShutdownHook(hook);
+
+        err.println("开始跟踪 " + since.format(DATE_TIME_FORMATTER) + " 之后的新告警，每 " + followInterval + " 秒查询一次，Ctrl+C 结束");
+        tail.start(new RiskTailFollower.TailListener() {
+            @Override
+            public void onRecord(RiskEvent event) {
+                if (statsTopN > 0) {
+                    aggregator.add(event);
+                }
+                if (exporter != null) {
+                    exporter.onRecord(null, event);
+                    return;
+                }
+                synchronized (writer) {
+                    try {
+                        writer.write(event.toString());
+                        writer.write('\n');
+                    } catch (IOException e) {
+                        writeError[0] = e;
+                        tail.stop();
+                    }
+                }
+            }
+
+            @Override
+            public void onTick(TimeRange window, int newRecords, long elapsedMillis) {
+                if (newRecords > 0) {
+                    err.println("跟踪 " + window + " 新增 " + newRecords + " 条，耗时 " + elapsedMillis + "ms");
+                }
+                try {
+                    if (exporter != null) {
+                        exporter.flush();
+                    } else {
+                        synchronized (writer) {
+                            writer.flush();
+                        }
+                    }
+                } catch (IOException e) {
+                    // 例如下游管道已关闭
+                    writeError[0] = e;
+                    tail.stop();
+                }
+            }
+
+            @Override
+            public void onTickFailed(TimeRange window, String error) {
+                err.println("跟踪 " + window + " 请求失败，下个周期重试: " + error);
+            }
+
+            @Override
+            public void onRelogin(String error) {
+                err.println(error == null ? "已重新登录，继续跟踪" : "重新登录失败，下个周期重试");
+            }
+        });
+        try {
+            while (!tail.awaitTermination(1, TimeUnit.SECONDS)) {
+                // 等待关闭钩子或写出失败时停止
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            tail.stop();
+        }
+        if (writer != null) {
+            writer.flush();
+        }
+        err.println("已停止跟踪，共 " + tail.getTickCount() + " 个周期，新增告警 " + tail.getRecordCount() + " 条");
+        printStats();
+        if (writeError[0] != null) {
+            Runtime.getRuntime().removeShutdownHook(hook);
+            throw writeError[0];
+        }
+        return EXIT_OK;
+    }
+
+    private void printStats() {
+        if (statsTopN > 0) {
+            err.println(aggregator.summary(statsTopN).format());
+        }
+    }
+
+    private void writeHeader(Writer writer, boolean withAppliance) throws IOException {
+        if (format == Format.CSV) {
+            writer.write(withAppliance ? "appliance,start,end,total\n" : "start,end,total\n");
+        }
+    }
+
+    /**
+     * @param applianceName 多台设备时为设备名称，单台设备时为 null
+     */
+    private void writeTotal(Writer writer, String applianceName, TimeRange range, int total) throws IOException {
+        String startText = range.start.format(DATE_TIME_FORMATTER);
+        String endText = range.end.format(DATE_TIME_FORMATTER);
+        switch (format) {
+            case CSV:
+                writer.write((applianceName != null ? CsvExporter.escape(applianceName) + "," : "")
+                        + startText + "," + endText + "," + total + "\n");
+                break;
+            case JSON:
+                JSONObject json = new JSONObject();
+                if (applianceName != null) {
+                    json.put("appliance", applianceName);
+                }
+                json.put("start", startText);
+                json.put("end", endText);
+                json.put("total", total);
+                writer.write(json.toString());
+                writer.write('\n');
+                break;
+            default:
+                writer.write((applianceName != null ? applianceName + "\t" : "")
+                        + startText + " ~ " + endText + "\t" + total + "\n");
+        }
+    }
+}
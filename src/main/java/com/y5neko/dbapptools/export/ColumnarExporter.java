@@ -0,0 +1,262 @@
+package com.y5neko.dbapptools.export;
+
+import com.y5neko.dbapptools.model.DictionaryRemapper;
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.model.StringDictionary;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * 压缩列式导出（.rcol），思路与 Parquet 相同：按行组缓冲，行组内按列编码后分别压缩
+ * 同一列的值相近（时间递增、IP 和规则大量重复），按列压缩比按行压缩小得多；只缓冲一个行组，内存占用固定。
+ * <p>
+ * 文件格式，整数均为大端序：
+ * <pre>
+ * 文件头   int 魔数 "RCOL"，byte 版本号
+ * 行组     int 行数（大于 0），字符串表块，然后按 COLUMNS 的顺序每列一个块
+ * 结束标记 int 0
+ * 文件尾   long 总行数，int 行组数，每个行组起始偏移 long，int 文件尾长度，int 魔数
+ * 块       int 原始长度，int 压缩后长度，deflate 数据
+ * </pre>
+ * 块内编码：id、time 为与上一行之差的 zigzag varint；grade 每行 1 字节；ruleid 为 zigzag varint；
+ * IP 为 zigzag varint，非 IPv4 地址为 (1 << 32) | 字符串表编号，没有 IP 为 -1；
+ * eventtype/apptype/cve/domain/appliance 为字符串表编号的 varint，0 表示空。
+ * 字符串表只包含本行组用到的字符串：varint 个数，之后每个字符串为 varint 字节数 + UTF-8，编号从 1 开始。
+ * 版本 1 没有 appliance 列
+ */
+public class ColumnarExporter extends RiskEventExporter {
+
+    public static final int MAGIC = 0x52434f4c; // "RCOL"
+    public static final byte VERSION = 2;
+    public static final int ROW_GROUP_SIZE = 64 * 1024;
+
+    public static final String[] COLUMNS = {
+            "id", "time", "grade", "sip", "dip", "attackerip", "ruleid", "eventtype", "apptype", "cve", "domain", "appliance"
+    };
+
+    private final int rowGroupSize;
+    // 当前行组，字符串和非 IPv4 地址保存为行组字典的编号，与字符串表的编号一致
+    private final long[] id;
+    private final long[] time;
+    private final long[] sip;
+    private final long[] dip;
+    private final long[] attackerIp;
+    private final int[] ruleId;
+    private final int[] eventType;
+    private final int[] appType;
+    private final int[] cve;
+    private final int[] domain;
+    private final int[] appliance;
+    private final byte[] grade;
+    private int rows = 0;
+
+    // 行组字典，写出一个行组后换新的；记录所在字典 -> 行组字典的转换
+    private StringDictionary local = new StringDictionary();
+    private DictionaryRemapper remapper = new DictionaryRemapper(local);
+
+    private final ByteArray block = new ByteArray();
+    private final ByteArray compressed = new ByteArray();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final List<Long> rowGroupOffsets = new ArrayList<>();
+    private long totalRows = 0;
+
+    public ColumnarExporter(WritableByteChannel channel) throws IOException {
+        this(channel, ROW_GROUP_SIZE);
+    }
+
+    public ColumnarExporter(WritableByteChannel channel, int rowGroupSize) throws IOException {
+        super(channel);
+        this.rowGroupSize = rowGroupSize;
+        id = new long[rowGroupSize];
+        time = new long[rowGroupSize];
+        sip = new long[rowGroupSize];
+        dip = new long[rowGroupSize];
+        attackerIp = new long[rowGroupSize];
+        ruleId = new int[rowGroupSize];
+        eventType = new int[rowGroupSize];
+        appType = new int[rowGroupSize];
+        cve = new int[rowGroupSize];
+        domain = new int[rowGroupSize];
+        appliance = new int[rowGroupSize];
+        grade = new byte[rowGroupSize];
+        out.writeInt(MAGIC);
+        out.write(VERSION);
+    }
+
+    @Override
+    protected void writeEvent(RiskEvent event) throws IOException {
+        StringDictionary from = event.getDictionary();
+        int i = rows;
+        id[i] = event.getId();
+        time[i] = event.getTime();
+        grade[i] = event.getGrade();
+        sip[i] = remapper.ip(from, event.getSip());
+        dip[i] = remapper.ip(from, event.getDip());
+        attackerIp[i] = remapper.ip(from, event.getAttackerIp());
+        ruleId[i] = event.getRuleId();
+        eventType[i] = remapper.code(from, event.getEventType());
+        appType[i] = remapper.code(from, event.getAppType());
+        cve[i] = remapper.code(from, event.getCve());
+        domain[i] = remapper.code(from, event.getDomain());
+        appliance[i] = remapper.code(from, event.getAppliance());
+        rows++;
+        if (rows == rowGroupSize) {
+            writeRowGroup();
+        }
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        if (rows > 0) {
+            writeRowGroup();
+        }
+        out.writeInt(0);
+        long footerStart = out.position();
+        out.writeLong(totalRows);
+        out.writeInt(rowGroupOffsets.size());
+        for (long offset : rowGroupOffsets) {
+            out.writeLong(offset);
+        }
+        out.writeInt((int) (out.position() - footerStart));
+        out.writeInt(MAGIC);
+        deflater.end();
+    }
+
+    private void writeRowGroup() throws IOException {
+        rowGroupOffsets.add(out.position());
+        out.writeInt(rows);
+
+        // 字符串表在列之前，列块暂存后再写出
+        List<byte[]> columnBlocks = new ArrayList<>(COLUMNS.length);
+        columnBlocks.add(encodeDelta(id));
+        columnBlocks.add(encodeDelta(time));
+        block.reset();
+        block.write(grade, 0, rows);
+        columnBlocks.add(block.toByteArray());
+        columnBlocks.add(encodeIp(sip));
+        columnBlocks.add(encodeIp(dip));
+        columnBlocks.add(encodeIp(attackerIp));
+        block.reset();
+        for (int i = 0; i < rows; i++) {
+            block.writeVarLong(zigzag(ruleId[i]));
+        }
+        columnBlocks.add(block.toByteArray());
+        columnBlocks.add(encodeString(eventType));
+        columnBlocks.add(encodeString(appType));
+        columnBlocks.add(encodeString(cve));
+        columnBlocks.add(encodeString(domain));
+        columnBlocks.add(encodeString(appliance));
+
+        block.reset();
+        int strings = local.size() - 1;
+        block.writeVarLong(strings);
+        for (int code = 1; code <= strings; code++) {
+            byte[] bytes = local.decode(code).getBytes(StandardCharsets.UTF_8);
+            block.writeVarLong(bytes.length);
+            block.write(bytes, 0, bytes.length);
+        }
+        writeBlock(block.buf, block.size);
+        for (byte[] b : columnBlocks) {
+            writeBlock(b, b.length);
+        }
+        totalRows += rows;
+        rows = 0;
+        local = new StringDictionary();
+        remapper = new DictionaryRemapper(local);
+    }
+
+    private byte[] encodeDelta(long[] values) {
+        block.reset();
+        long previous = 0;
+        for (int i = 0; i < rows; i++) {
+            block.writeVarLong(zigzag(values[i] - previous));
+            previous = values[i];
+        }
+        return block.toByteArray();
+    }
+
+    private byte[] encodeIp(long[] values) {
+        block.reset();
+        for (int i = 0; i < rows; i++) {
+            block.writeVarLong(zigzag(values[i]));
+        }
+        return block.toByteArray();
+    }
+
+    private byte[] encodeString(int[] codes) {
+        block.reset();
+        for (int i = 0; i < rows; i++) {
+            block.writeVarLong(codes[i]);
+        }
+        return block.toByteArray();
+    }
+
+    private void writeBlock(byte[] data, int length) throws IOException {
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+        compressed.reset();
+        while (!deflater.finished()) {
+            compressed.ensure(8192);
+            int n = deflater.deflate(compressed.buf, compressed.size, compressed.buf.length - compressed.size);
+            compressed.size += n;
+        }
+        out.writeInt(length);
+        out.writeInt(compressed.size);
+        out.write(compressed.buf, 0, compressed.size);
+    }
+
+    static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * 可复用的字节数组，容量只增不减，最大为一个行组的一列
+     */
+    static final class ByteArray {
+        byte[] buf = new byte[64 * 1024];
+        int size = 0;
+
+        void reset() {
+            size = 0;
+        }
+
+        void ensure(int bytes) {
+            if (buf.length - size < bytes) {
+                byte[] grown = new byte[Math.max(buf.length * 2, size + bytes)];
+                System.arraycopy(buf, 0, grown, 0, size);
+                buf = grown;
+            }
+        }
+
+        void write(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buf, size, length);
+            size += length;
+        }
+
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7fL) != 0) {
+                buf[size++] = (byte) ((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            buf[size++] = (byte) v;
+        }
+
+        byte[] toByteArray() {
+            byte[] copy = new byte[size];
+            System.arraycopy(buf, 0, copy, 0, size);
+            return copy;
+        }
+    }
+}
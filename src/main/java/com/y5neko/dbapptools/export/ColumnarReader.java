@@ -0,0 +1,152 @@
+package com.y5neko.dbapptools.export;
+
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.model.StringDictionary;
+import com.y5neko.dbapptools.utils.IpUtils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 读取 ColumnarExporter 导出的 .rcol 文件，逐个行组解码，同一时间只有一个行组在内存中
+ * 每次读取新建一个字典，各行组的字符串重新编码到其中，读出的 RiskEvent 与导出前一致
+ */
+public class ColumnarReader {
+
+    private ColumnarReader() {
+    }
+
+    /**
+     * @return 读取的行数
+     */
+    public static long read(Path file, Consumer<RiskEvent> consumer) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 * 1024))) {
+            if (in.readInt() != ColumnarExporter.MAGIC) {
+                throw new IOException("不是 rcol 文件: " + file);
+            }
+            byte version = in.readByte();
+            if (version < 1 || version > ColumnarExporter.VERSION) {
+                throw new IOException("不支持的 rcol 版本: " + version);
+            }
+            StringDictionary dictionary = new StringDictionary();
+            Inflater inflater = new Inflater();
+            try {
+                long total = 0;
+                int rows;
+                while ((rows = in.readInt()) > 0) {
+                    readRowGroup(in, inflater, version, rows, dictionary, consumer);
+                    total += rows;
+                }
+                long expected = in.readLong();
+                if (expected != total) {
+                    throw new IOException("rcol 文件尾记录 " + expected + " 行，实际读取 " + total + " 行");
+                }
+                return total;
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    private static void readRowGroup(DataInputStream in, Inflater inflater, byte version, int rows,
+                                     StringDictionary dictionary, Consumer<RiskEvent> consumer) throws IOException {
+        Cursor strings = new Cursor(readBlock(in, inflater));
+        int count = (int) strings.readVarLong();
+        // 行组内编号 -> 本次读取的字典编号
+        int[] codes = new int[count + 1];
+        for (int i = 1; i <= count; i++) {
+            int length = (int) strings.readVarLong();
+            codes[i] = dictionary.encode(new String(strings.buf, strings.pos, length, StandardCharsets.UTF_8));
+            strings.pos += length;
+        }
+
+        Cursor id = new Cursor(readBlock(in, inflater));
+        Cursor time = new Cursor(readBlock(in, inflater));
+        byte[] grade = readBlock(in, inflater);
+        Cursor sip = new Cursor(readBlock(in, inflater));
+        Cursor dip = new Cursor(readBlock(in, inflater));
+        Cursor attackerIp = new Cursor(readBlock(in, inflater));
+        Cursor ruleId = new Cursor(readBlock(in, inflater));
+        Cursor eventType = new Cursor(readBlock(in, inflater));
+        Cursor appType = new Cursor(readBlock(in, inflater));
+        Cursor cve = new Cursor(readBlock(in, inflater));
+        Cursor domain = new Cursor(readBlock(in, inflater));
+        // 版本 1 没有 appliance 列
+        Cursor appliance = version >= 2 ? new Cursor(readBlock(in, inflater)) : null;
+
+        long lastId = 0;
+        long lastTime = 0;
+        for (int i = 0; i < rows; i++) {
+            lastId += ColumnarExporter.unzigzag(id.readVarLong());
+            lastTime += ColumnarExporter.unzigzag(time.readVarLong());
+            consumer.accept(new RiskEvent(dictionary, lastId, lastTime, grade[i],
+                    ip(sip, codes), ip(dip, codes), ip(attackerIp, codes),
+                    (int) ColumnarExporter.unzigzag(ruleId.readVarLong()),
+                    codes[(int) eventType.readVarLong()], codes[(int) appType.readVarLong()],
+                    codes[(int) cve.readVarLong()], codes[(int) domain.readVarLong()],
+                    appliance != null ? codes[(int) appliance.readVarLong()] : StringDictionary.NONE));
+        }
+    }
+
+    private static long ip(Cursor column, int[] codes) {
+        long ip = ColumnarExporter.unzigzag(column.readVarLong());
+        if (ip != RiskEvent.NO_IP && !IpUtils.isIpv4(ip)) {
+            return IpUtils.NON_IPV4_FLAG | codes[(int) (ip & 0xffffffffL)];
+        }
+        return ip;
+    }
+
+    private static byte[] readBlock(DataInputStream in, Inflater inflater) throws IOException {
+        int length = in.readInt();
+        int compressedLength = in.readInt();
+        byte[] compressed = new byte[compressedLength];
+        in.readFully(compressed);
+        byte[] data = new byte[length];
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int read = inflater.inflate(data, n, length - n);
+                if (read == 0 && inflater.needsInput()) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != length) {
+                throw new IOException("rcol 数据块不完整");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("rcol 数据块解压失败", e);
+        }
+        return data;
+    }
+
+    private static final class Cursor {
+        final byte[] buf;
+        int pos = 0;
+
+        Cursor(byte[] buf) {
+            this.buf = buf;
+        }
+
+        long readVarLong() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                v |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while (b < 0);
+            return v;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.y5neko.dbapptools.export;
+
+import com.y5neko.dbapptools.model.RiskEvent;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * CSV 导出，第一行为表头，字符串字段按 RFC 4180 转义
+ */
+public class CsvExporter extends RiskEventExporter {
+
+    public static final String HEADER = "id,time,grade,sip,dip,attackerip,ruleid,eventtype,apptype,cve,domain,appliance";
+
+    private final TimeText timeText = new TimeText();
+
+    public CsvExporter(WritableByteChannel channel) throws IOException {
+        super(channel);
+        out.writeUtf8(HEADER);
+        out.write('\n');
+    }
+
+    @Override
+    protected void writeEvent(RiskEvent event) throws IOException {
+        out.writeDecimal(event.getId());
+        out.write(',');
+        out.writeUtf8(timeText.format(event.getTime()));
+        out.write(',');
+        out.writeDecimal(event.getGrade());
+        out.write(',');
+        writeField(event.getSipString());
+        out.write(',');
+        writeField(event.getDipString());
+        out.write(',');
+        writeField(event.getAttackerIpString());
+        out.write(',');
+        out.writeDecimal(event.getRuleId());
+        out.write(',');
+        writeField(event.getEventTypeName());
+        out.write(',');
+        writeField(event.getAppTypeName());
+        out.write(',');
+        writeField(event.getCveName());
+        out.write(',');
+        writeField(event.getDomainName());
+        out.write(',');
+        writeField(event.getApplianceName());
+        out.write('\n');
+    }
+
+    private void writeField(String value) throws IOException {
+        if (value != null) {
+            out.writeUtf8(escape(value));
+        }
+    }
+
+    /**
+     * 含逗号、引号或换行时加引号，null 输出为空
+     */
+    public static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
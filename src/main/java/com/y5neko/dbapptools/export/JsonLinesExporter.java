@@ -0,0 +1,83 @@
+package com.y5neko.dbapptools.export;
+
+import com.y5neko.dbapptools.model.RiskEvent;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * 每行一个 JSON 对象，字段与 CSV 表头一致，值为 null 的字段省略
+ * 字段固定，直接按顺序写出，不为每条记录构造 JSONObject
+ */
+public class JsonLinesExporter extends RiskEventExporter {
+
+    private final TimeText timeText = new TimeText();
+
+    public JsonLinesExporter(WritableByteChannel channel) {
+        super(channel);
+    }
+
+    @Override
+    protected void writeEvent(RiskEvent event) throws IOException {
+        out.writeUtf8("{\"id\":");
+        out.writeDecimal(event.getId());
+        out.writeUtf8(",\"time\":\"");
+        out.writeUtf8(timeText.format(event.getTime()));
+        out.writeUtf8("\",\"grade\":");
+        out.writeDecimal(event.getGrade());
+        writeString("sip", event.getSipString());
+        writeString("dip", event.getDipString());
+        writeString("attackerip", event.getAttackerIpString());
+        out.writeUtf8(",\"ruleid\":");
+        out.writeDecimal(event.getRuleId());
+        writeString("eventtype", event.getEventTypeName());
+        writeString("apptype", event.getAppTypeName());
+        writeString("cve", event.getCveName());
+        writeString("domain", event.getDomainName());
+        writeString("appliance", event.getApplianceName());
+        out.writeUtf8("}\n");
+    }
+
+    private void writeString(String name, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        out.writeUtf8(",\"");
+        out.writeUtf8(name);
+        out.writeUtf8("\":\"");
+        int length = value.length();
+        // 不需要转义的连续字符整段写出
+        int run = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escaped;
+            switch (c) {
+                case '"':
+                    escaped = "\\\"";
+                    break;
+                case '\\':
+                    escaped = "\\\\";
+                    break;
+                case '\n':
+                    escaped = "\\n";
+                    break;
+                case '\r':
+                    escaped = "\\r";
+                    break;
+                case '\t':
+                    escaped = "\\t";
+                    break;
+                default:
+                    if (c >= 0x20) {
+                        continue;
+                    }
+                    escaped = String.format("\\u%04x", (int) c);
+            }
+            out.writeUtf8(value, run, i);
+            out.writeUtf8(escaped);
+            run = i + 1;
+        }
+        out.writeUtf8(value, run, length);
+        out.write('"');
+    }
+}
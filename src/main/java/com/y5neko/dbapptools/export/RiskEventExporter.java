@@ -0,0 +1,148 @@
+package com.y5neko.dbapptools.export;
+
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.network.RiskRecordSink;
+import com.y5neko.dbapptools.network.TimeRange;
+import com.y5neko.dbapptools.utils.LogUtils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 告警明细导出器，边获取边写出
+ * 作为 RiskRecordSink 直接挂在分页获取的回调上，记录逐条编码进 ChannelWriter 的固定缓冲区，
+ * 不在内存中保留已写出的记录，导出几百万行时内存占用不变。线程安全
+ */
+public abstract class RiskEventExporter implements RiskRecordSink<RiskEvent>, AutoCloseable {
+
+    /**
+     * 导出格式
+     */
+    public enum Format {
+        CSV("csv"),
+        // 每行一个 JSON
+        JSONL("jsonl"),
+        // 压缩列式格式，见 ColumnarExporter
+        RCOL("rcol");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    protected final ChannelWriter out;
+    private long rowCount = 0;
+    private IOException failure = null;
+    private boolean closed = false;
+
+    protected RiskEventExporter(WritableByteChannel channel) {
+        this.out = new ChannelWriter(channel);
+    }
+
+    public static RiskEventExporter create(Format format, WritableByteChannel channel) throws IOException {
+        switch (format) {
+            case CSV:
+                return new CsvExporter(channel);
+            case JSONL:
+                return new JsonLinesExporter(channel);
+            default:
+                return new ColumnarExporter(channel);
+        }
+    }
+
+    /**
+     * 创建（或覆盖）文件并导出
+     */
+    public static RiskEventExporter create(Format format, Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            return create(format, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 写出一条记录
+     */
+    public synchronized void export(RiskEvent event) throws IOException {
+        if (closed) {
+            throw new IOException("导出器已关闭");
+        }
+        writeEvent(event);
+        rowCount++;
+    }
+
+    /**
+     * 回调中不能抛出异常，第一次写入失败后记录异常并忽略后续记录，在 close 时抛出
+     */
+    @Override
+    public void onRecord(TimeRange range, RiskEvent record) {
+        synchronized (this) {
+            if (failure != null) {
+                return;
+            }
+            try {
+                export(record);
+            } catch (IOException e) {
+                failure = e;
+                LogUtils.error(RiskEventExporter.class, "导出失败，后续记录不再写入", e);
+            }
+        }
+    }
+
+    /**
+     * 把缓冲区中的数据写入通道，持续跟踪时每个周期调用一次，让下游尽快读到新记录
+     * 列式格式只有写满的行组才会写出，未满的行组仍在内存中
+     */
+    public synchronized void flush() throws IOException {
+        if (!closed && failure == null) {
+            out.flush();
+        }
+    }
+
+    public synchronized long getRowCount() {
+        return rowCount;
+    }
+
+    public synchronized long getBytesWritten() {
+        return out.position();
+    }
+
+    protected abstract void writeEvent(RiskEvent event) throws IOException;
+
+    /**
+     * 写出缓冲的数据和文件尾，关闭前调用一次
+     */
+    protected void finish() throws IOException {
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (failure == null) {
+                finish();
+            }
+        } finally {
+            out.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
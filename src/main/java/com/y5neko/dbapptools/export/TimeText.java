@@ -0,0 +1,26 @@
+package com.y5neko.dbapptools.export;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 毫秒时间戳转 yyyy-MM-dd HH:mm:ss，同一秒内的记录复用上一次的结果
+ * 分页结果按时间聚集，大部分记录都能命中，不是线程安全的
+ */
+final class TimeText {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private long lastSecond = Long.MIN_VALUE;
+    private String lastText;
+
+    String format(long millis) {
+        long second = Math.floorDiv(millis, 1000L);
+        if (second != lastSecond) {
+            lastText = FORMATTER.format(Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault()));
+            lastSecond = second;
+        }
+        return lastText;
+    }
+}
@@ -0,0 +1,68 @@
+package com.y5neko.dbapptools.model;
+
+import com.y5neko.dbapptools.utils.IpUtils;
+
+import java.util.Arrays;
+
+/**
+ * 把其他字典中的编号转换为 target 中的编号，按来源编号缓存结果，重复的字符串不会每次都经过两个字典的锁
+ * 只缓存最近一个来源字典，来源变化时清空，不会让已经不用的字典一直被引用。不是线程安全的，由调用方加锁或每个线程一个实例
+ */
+public final class DictionaryRemapper {
+
+    private final StringDictionary target;
+    private StringDictionary source;
+    // 下标为来源编号，0 表示尚未转换（NONE 本身不需要转换）
+    private int[] codes = new int[64];
+
+    public DictionaryRemapper(StringDictionary target) {
+        this.target = target;
+    }
+
+    public StringDictionary getTarget() {
+        return target;
+    }
+
+    public int code(StringDictionary from, int code) {
+        if (code <= StringDictionary.NONE || from == target) {
+            return code <= StringDictionary.NONE ? StringDictionary.NONE : code;
+        }
+        if (from != source) {
+            source = from;
+            Arrays.fill(codes, 0);
+        }
+        if (code >= codes.length) {
+            codes = Arrays.copyOf(codes, Math.max(codes.length * 2, code + 1));
+        }
+        int mapped = codes[code];
+        if (mapped == 0) {
+            mapped = target.encode(from.decode(code));
+            codes[code] = mapped;
+        }
+        return mapped;
+    }
+
+    /**
+     * IPv4 地址原样返回，非 IPv4 地址转换其中的字典编号
+     */
+    public long ip(StringDictionary from, long ip) {
+        if (ip == RiskEvent.NO_IP || IpUtils.isIpv4(ip) || from == target) {
+            return ip;
+        }
+        return IpUtils.NON_IPV4_FLAG | code(from, (int) (ip & 0xffffffffL));
+    }
+
+    /**
+     * 已经属于 target 时原样返回，否则创建 target 中的等价记录
+     */
+    public RiskEvent remap(RiskEvent event) {
+        StringDictionary from = event.getDictionary();
+        if (from == target) {
+            return event;
+        }
+        return new RiskEvent(target, event.getId(), event.getTime(), event.getGrade(),
+                ip(from, event.getSip()), ip(from, event.getDip()), ip(from, event.getAttackerIp()), event.getRuleId(),
+                code(from, event.getEventType()), code(from, event.getAppType()), code(from, event.getCve()),
+                code(from, event.getDomain()), code(from, event.getAppliance()));
+    }
+}
@@ -0,0 +1,215 @@
+package com.y5neko.dbapptools.model;
+
+import com.y5neko.dbapptools.utils.IpUtils;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * 告警记录
+ * 字段全部为基本类型：时间为毫秒时间戳，等级为 byte，IP 压缩为 long，事件类型/应用类型/CVE/域名/来源设备为字典编号。
+ * 字典由记录所属的结果集（一次查询、一个结果表格或一个存储目录）提供，记录只保存引用，结果集不再使用时字典随之回收；
+ * 不同字典的编号不能直接比较，合并时用 DictionaryRemapper 转换。
+ * <p>
+ * 内存占用（64 位 JVM，压缩指针）：对象头 12 字节 + 5 个 long 40 字节 + 6 个 int 24 字节 + 字典引用 4 字节 + 1 个 byte，
+ * 对齐后 88 字节；同一条记录用 JSONObject 保存时，约 40 个字段的 Map 节点加上各个值的 String/Integer 通常在 3~4KB，
+ * 即 RiskEvent 只有 JSONObject 形式的 2%~3%
+ */
+public final class RiskEvent {
+
+    public static final long NO_IP = -1L;
+
+    public static final byte GRADE_UNKNOWN = 0;
+    public static final byte GRADE_LOW = 1;
+    public static final byte GRADE_MEDIUM = 2;
+    public static final byte GRADE_HIGH = 3;
+
+    private final long id;
+    private final long time;
+    private final long sip;
+    private final long dip;
+    private final long attackerIp;
+    private final int ruleId;
+    private final int eventType;
+    private final int appType;
+    private final int cve;
+    private final int domain;
+    // 多台设备合并查询时的来源设备名称，单台设备时为 NONE
+    private final int appliance;
+    private final byte grade;
+    private final StringDictionary dictionary;
+
+    public RiskEvent(StringDictionary dictionary, long id, long time, byte grade, long sip, long dip, long attackerIp,
+                     int ruleId, int eventType, int appType, int cve, int domain) {
+        this(dictionary, id, time, grade, sip, dip, attackerIp, ruleId, eventType, appType, cve, domain, StringDictionary.NONE);
+    }
+
+    /**
+     * @param dictionary 字符串字段和非 IPv4 地址所在的字典
+     */
+    public RiskEvent(StringDictionary dictionary, long id, long time, byte grade, long sip, long dip, long attackerIp,
+                     int ruleId, int eventType, int appType, int cve, int domain, int appliance) {
+        this.dictionary = dictionary;
+        this.id = id;
+        this.time = time;
+        this.grade = grade;
+        this.sip = sip;
+        this.dip = dip;
+        this.attackerIp = attackerIp;
+        this.ruleId = ruleId;
+        this.eventType = eventType;
+        this.appType = appType;
+        this.cve = cve;
+        this.domain = domain;
+        this.appliance = appliance;
+    }
+
+    /**
+     * 标记来源设备，返回新的对象；设备名称编入本记录的字典
+     */
+    public RiskEvent withAppliance(String name) {
+        int code = dictionary.encode(name);
+        if (code == this.appliance) {
+            return this;
+        }
+        return new RiskEvent(dictionary, id, time, grade, sip, dip, attackerIp, ruleId, eventType, appType, cve, domain, code);
+    }
+
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * 告警时间，毫秒时间戳
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public LocalDateTime getDateTime() {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+    }
+
+    public byte getGrade() {
+        return grade;
+    }
+
+    public long getSip() {
+        return sip;
+    }
+
+    public long getDip() {
+        return dip;
+    }
+
+    public long getAttackerIp() {
+        return attackerIp;
+    }
+
+    public int getRuleId() {
+        return ruleId;
+    }
+
+    public int getEventType() {
+        return eventType;
+    }
+
+    public int getAppType() {
+        return appType;
+    }
+
+    public int getCve() {
+        return cve;
+    }
+
+    public int getDomain() {
+        return domain;
+    }
+
+    public int getAppliance() {
+        return appliance;
+    }
+
+    public String getSipString() {
+        return ipToString(dictionary, sip);
+    }
+
+    public String getDipString() {
+        return ipToString(dictionary, dip);
+    }
+
+    public String getAttackerIpString() {
+        return ipToString(dictionary, attackerIp);
+    }
+
+    public String getEventTypeName() {
+        return dictionary.decode(eventType);
+    }
+
+    public String getAppTypeName() {
+        return dictionary.decode(appType);
+    }
+
+    public String getCveName() {
+        return dictionary.decode(cve);
+    }
+
+    public String getDomainName() {
+        return dictionary.decode(domain);
+    }
+
+    public String getApplianceName() {
+        return dictionary.decode(appliance);
+    }
+
+    /**
+     * IPv4 直接压缩，其他格式的地址放入字典后带标记位保存
+     */
+    public static long packIp(StringDictionary dictionary, String ip) {
+        if (ip == null || ip.isEmpty()) {
+            return NO_IP;
+        }
+        long packed = IpUtils.parseIpv4(ip);
+        if (packed >= 0) {
+            return packed;
+        }
+        return IpUtils.NON_IPV4_FLAG | dictionary.encode(ip);
+    }
+
+    public static String ipToString(StringDictionary dictionary, long packed) {
+        if (packed == NO_IP) {
+            return null;
+        }
+        if (IpUtils.isIpv4(packed)) {
+            return IpUtils.formatIpv4(packed);
+        }
+        return dictionary.decode((int) (packed & 0xffffffffL));
+    }
+
+    public static String gradeName(byte grade) {
+        switch (grade) {
+            case GRADE_HIGH:
+                return "高";
+            case GRADE_MEDIUM:
+                return "中";
+            case GRADE_LOW:
+                return "低";
+            default:
+                return "未知";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RiskEvent{id=" + id + ", time=" + getDateTime() + ", grade=" + gradeName(grade)
+                + ", sip=" + getSipString() + ", dip=" + getDipString() + ", attackerIp=" + getAttackerIpString()
+                + ", ruleId=" + ruleId + ", eventType=" + getEventTypeName() + ", appType=" + getAppTypeName()
+                + ", cve=" + getCveName() + ", domain=" + getDomainName()
+                + (appliance != StringDictionary.NONE ? ", appliance=" + getApplianceName() : "") + "}";
+    }
+}
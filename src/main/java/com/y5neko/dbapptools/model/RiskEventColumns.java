@@ -0,0 +1,209 @@
+package com.y5neko.dbapptools.model;
+
+/**
+ * 按列保存的告警记录集合
+ * 每个字段一组基本类型数组，按固定大小的块增长（扩容不拷贝已有数据），一行 65 字节且不产生任何对象，
+ * 100 万行约 65MB；需要展示某一行时再通过 get 临时创建 RiskEvent。
+ * <p>
+ * 追加可以在任意线程进行（内部加锁），读取不加锁：只要行号小于 size() 返回的值，读到的就是完整写入的数据。
+ * 集合有自己的字典，来自其他字典的记录追加时转换编号；集合被丢弃时字典一起回收
+ */
+public final class RiskEventColumns {
+
+    /**
+     * 可排序的列
+     */
+    public enum SortKey {
+        TIME, GRADE, SIP, DIP, RULE, APPLIANCE
+    }
+
+    private static final int CHUNK_SHIFT = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final class Chunk {
+        final long[] id = new long[CHUNK_SIZE];
+        final long[] time = new long[CHUNK_SIZE];
+        final long[] sip = new long[CHUNK_SIZE];
+        final long[] dip = new long[CHUNK_SIZE];
+        final long[] attackerIp = new long[CHUNK_SIZE];
+        final int[] ruleId = new int[CHUNK_SIZE];
+        final int[] eventType = new int[CHUNK_SIZE];
+        final int[] appType = new int[CHUNK_SIZE];
+        final int[] cve = new int[CHUNK_SIZE];
+        final int[] domain = new int[CHUNK_SIZE];
+        final int[] appliance = new int[CHUNK_SIZE];
+        final byte[] grade = new byte[CHUNK_SIZE];
+    }
+
+    private final StringDictionary dictionary;
+    // 只在 add 中（持有锁时）使用
+    private final DictionaryRemapper remapper;
+    private volatile Chunk[] chunks = new Chunk[16];
+    // 写入数据后再更新，读线程通过它看到完整的行
+    private volatile int size = 0;
+
+    public RiskEventColumns() {
+        this(new StringDictionary());
+    }
+
+    public RiskEventColumns(StringDictionary dictionary) {
+        this.dictionary = dictionary;
+        this.remapper = new DictionaryRemapper(dictionary);
+    }
+
+    /**
+     * 集合中字符串字段的字典，向集合写入的查询使用同一个字典时追加不需要转换
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public synchronized void add(RiskEvent event) {
+        event = remapper.remap(event);
+        int row = size;
+        int c = row >>> CHUNK_SHIFT;
+        Chunk[] cs = chunks;
+        if (c == cs.length) {
+            Chunk[] grown = new Chunk[cs.length * 2];
+            System.arraycopy(cs, 0, grown, 0, cs.length);
+            cs = grown;
+        }
+        Chunk chunk = cs[c];
+        if (chunk == null) {
+            chunk = new Chunk();
+            cs[c] = chunk;
+        }
+        chunks = cs;
+        int i = row & CHUNK_MASK;
+        chunk.id[i] = event.getId();
+        chunk.time[i] = event.getTime();
+        chunk.sip[i] = event.getSip();
+        chunk.dip[i] = event.getDip();
+        chunk.attackerIp[i] = event.getAttackerIp();
+        chunk.ruleId[i] = event.getRuleId();
+        chunk.eventType[i] = event.getEventType();
+        chunk.appType[i] = event.getAppType();
+        chunk.cve[i] = event.getCve();
+        chunk.domain[i] = event.getDomain();
+        chunk.appliance[i] = event.getAppliance();
+        chunk.grade[i] = event.getGrade();
+        size = row + 1;
+    }
+
+    private Chunk chunk(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row: " + row + ", size: " + size);
+        }
+        return chunks[row >>> CHUNK_SHIFT];
+    }
+
+    /**
+     * 按行号创建 RiskEvent
+     */
+    public RiskEvent get(int row) {
+        Chunk c = chunk(row);
+        int i = row & CHUNK_MASK;
+        return new RiskEvent(dictionary, c.id[i], c.time[i], c.grade[i], c.sip[i], c.dip[i], c.attackerIp[i],
+                c.ruleId[i], c.eventType[i], c.appType[i], c.cve[i], c.domain[i], c.appliance[i]);
+    }
+
+    public long getTime(int row) {
+        return chunk(row).time[row & CHUNK_MASK];
+    }
+
+    public byte getGrade(int row) {
+        return chunk(row).grade[row & CHUNK_MASK];
+    }
+
+    public long getSip(int row) {
+        return chunk(row).sip[row & CHUNK_MASK];
+    }
+
+    public long getDip(int row) {
+        return chunk(row).dip[row & CHUNK_MASK];
+    }
+
+    public int getRuleId(int row) {
+        return chunk(row).ruleId[row & CHUNK_MASK];
+    }
+
+    private long key(SortKey key, Chunk c, int i) {
+        switch (key) {
+            case TIME:
+                return c.time[i];
+            case GRADE:
+                return c.grade[i];
+            case SIP:
+                return c.sip[i];
+            case DIP:
+                return c.dip[i];
+            case APPLIANCE:
+                return c.appliance[i];
+            default:
+                return c.ruleId[i];
+        }
+    }
+
+    /**
+     * 对前 count 行按指定列排序，返回排序后的行号，相同值保持原有顺序
+     * 排序键先取到 long 数组中，整个过程只对基本类型数组操作，100 万行约需 8MB 键 + 8MB 行号的临时空间
+     * IP 按压缩后的数值排序，IPv4 即按地址大小，非 IPv4 地址排在 IPv4 之后，没有 IP 的排在最前
+     */
+    public int[] sortedOrder(SortKey key, boolean ascending, int count) {
+        if (count > size) {
+            throw new IndexOutOfBoundsException("count: " + count + ", size: " + size);
+        }
+        Chunk[] cs = chunks;
+        long[] keys = new long[count];
+        int[] order = new int[count];
+        for (int row = 0; row < count; row++) {
+            keys[row] = key(key, cs[row >>> CHUNK_SHIFT], row & CHUNK_MASK);
+            order[row] = row;
+        }
+        mergeSort(order, new int[count], keys, 0, count, ascending);
+        return order;
+    }
+
+    private static void mergeSort(int[] a, int[] tmp, long[] keys, int from, int to, boolean ascending) {
+        if (to - from < 32) {
+            // 小区间插入排序
+            for (int i = from + 1; i < to; i++) {
+                int v = a[i];
+                int j = i - 1;
+                while (j >= from && outOfOrder(keys[a[j]], keys[v], ascending)) {
+                    a[j + 1] = a[j];
+                    j--;
+                }
+                a[j + 1] = v;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(a, tmp, keys, from, mid, ascending);
+        mergeSort(a, tmp, keys, mid, to, ascending);
+        if (!outOfOrder(keys[a[mid - 1]], keys[a[mid]], ascending)) {
+            return;
+        }
+        System.arraycopy(a, from, tmp, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            // 只有右侧严格靠前时才先取右侧，保证稳定
+            a[k++] = outOfOrder(keys[tmp[i]], keys[tmp[j]], ascending) ? tmp[j++] : tmp[i++];
+        }
+        while (i < mid) {
+            a[k++] = tmp[i++];
+        }
+        while (j < to) {
+            a[k++] = tmp[j++];
+        }
+    }
+
+    private static boolean outOfOrder(long left, long right, boolean ascending) {
+        return ascending ? left > right : left < right;
+    }
+}
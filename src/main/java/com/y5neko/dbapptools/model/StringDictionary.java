@@ -0,0 +1,65 @@
+package com.y5neko.dbapptools.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 字符串字典编码，低基数字段（事件类型、应用类型、CVE 等）只保存一份字符串，记录中存 int 编号
+ * 编号 0 保留给 null/空字符串，其余按首次出现顺序递增，线程安全。
+ * 字典只增不减，按结果集划分（一次查询、一个结果表格、一个存储目录各一个），随结果集一起被回收；
+ * 不同字典之间的编号互不相关，需要合并时用 DictionaryRemapper 转换
+ */
+public class StringDictionary {
+
+    public static final int NONE = 0;
+
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    public StringDictionary() {
+        values.add(null);
+    }
+
+    public int encode(String value) {
+        if (value == null || value.isEmpty()) {
+            return NONE;
+        }
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        synchronized (values) {
+            code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                values.add(value);
+                codes.put(value, code);
+            }
+            return code;
+        }
+    }
+
+    /**
+     * 只查询不新增，不存在时返回 -1
+     */
+    public int lookup(String value) {
+        if (value == null || value.isEmpty()) {
+            return NONE;
+        }
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    public String decode(int code) {
+        synchronized (values) {
+            return code > 0 && code < values.size() ? values.get(code) : null;
+        }
+    }
+
+    public int size() {
+        synchronized (values) {
+            return values.size();
+        }
+    }
+}
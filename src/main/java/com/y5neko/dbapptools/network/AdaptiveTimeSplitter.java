@@ -0,0 +1,162 @@
+package com.y5neko.dbapptools.network;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * 按结果密度自适应拆分时间段
+ * 先按较大的窗口查询，total 达到阈值的窗口对半拆分后重新查询，直到足够小；
+ * 查询结束后相邻的空时间段会被合并，这样夜间等空闲时段只需要很少的请求
+ */
+public class AdaptiveTimeSplitter {
+
+    public static final Duration DEFAULT_INITIAL_WINDOW = Duration.ofDays(1);
+    public static final Duration DEFAULT_MIN_WINDOW = Duration.ofMinutes(1);
+
+    private final int threshold;
+    private final Duration initialWindow;
+    private final Duration minWindow;
+
+    // 不再拆分的叶子时间段及其 total
+    private final List<SliceTotal> leaves = new ArrayList<>();
+    private int requestCount = 0;
+    private int splitCount = 0;
+    private int oversizedCount = 0;
+
+    public AdaptiveTimeSplitter(int threshold) {
+        this(threshold, DEFAULT_INITIAL_WINDOW, DEFAULT_MIN_WINDOW);
+    }
+
+    public AdaptiveTimeSplitter(int threshold, Duration initialWindow, Duration minWindow) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("threshold 必须大于 0");
+        }
+        this.threshold = threshold;
+        this.initialWindow = initialWindow;
+        this.minWindow = minWindow;
+    }
+
+    /**
+     * 按初始窗口切分整个查询范围
+     */
+    public List<TimeRange> initialWindows(LocalDateTime start, LocalDateTime end) {
+        List<TimeRange> list = new ArrayList<>();
+        LocalDateTime curStart = start;
+        while (curStart.isBefore(end)) {
+            LocalDateTime curEnd = curStart.plus(initialWindow);
+            if (curEnd.isAfter(end)) {
+                curEnd = end;
+            }
+            list.add(new TimeRange(curStart, curEnd));
+            curStart = curEnd;
+        }
+        return list;
+    }
+
+    /**
+     * 某个时间段查询到 total 后调用
+     * @return 需要重新查询的子时间段；为空表示该时间段已经是叶子，total 计入结果
+     */
+    public synchronized List<TimeRange> onTotal(TimeRange range, int total) {
+        requestCount++;
+        if (total >= threshold) {
+            if (canSplit(range)) {
+                splitCount++;
+                return bisect(range);
+            }
+            // 已经到最小窗口仍然超过阈值，只能原样保留
+            oversizedCount++;
+        }
+        leaves.add(new SliceTotal(range, total));
+        return Collections.emptyList();
+    }
+
+    private boolean canSplit(TimeRange range) {
+        return Duration.between(range.start, range.end).compareTo(minWindow.multipliedBy(2)) >= 0;
+    }
+
+    private List<TimeRange> bisect(TimeRange range) {
+        long seconds = Duration.between(range.start, range.end).getSeconds();
+        LocalDateTime mid = range.start.plusSeconds(seconds / 2).truncatedTo(ChronoUnit.SECONDS);
+        return Arrays.asList(new TimeRange(range.start, mid), new TimeRange(mid, range.end));
+    }
+
+    /**
+     * 按时间排序的叶子时间段，相邻的空时间段合并为一段
+     */
+    public synchronized List<SliceTotal> getSlices() {
+        List<SliceTotal> sorted = new ArrayList<>(leaves);
+        sorted.sort(Comparator.comparing(s -> s.range.start));
+
+        List<SliceTotal> merged = new ArrayList<>();
+        for (SliceTotal slice : sorted) {
+            SliceTotal last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && last.total == 0 && slice.total == 0 && !last.range.end.isBefore(slice.range.start)) {
+                merged.set(merged.size() - 1, new SliceTotal(new TimeRange(last.range.start, slice.range.end), 0));
+            } else {
+                merged.add(slice);
+            }
+        }
+        return merged;
+    }
+
+    public synchronized long getTotal() {
+        long sum = 0;
+        for (SliceTotal slice : leaves) {
+            sum += slice.total;
+        }
+        return sum;
+    }
+
+    public synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized int getSplitCount() {
+        return splitCount;
+    }
+
+    /**
+     * 已达到最小窗口但 total 仍超过阈值的时间段数量
+     */
+    public synchronized int getOversizedCount() {
+        return oversizedCount;
+    }
+
+    /**
+     * 与按小时拆分相比节省的请求数（可能为负）
+     */
+    public synchronized int getSavedRequests(LocalDateTime start, LocalDateTime end) {
+        return countHourlySlices(start, end) - requestCount;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * 按小时拆分时需要的请求数
+     */
+    public static int countHourlySlices(LocalDateTime start, LocalDateTime end) {
+        if (!start.isBefore(end)) {
+            return 0;
+        }
+        long seconds = Duration.between(start, end).getSeconds();
+        return (int) ((seconds + 3599) / 3600);
+    }
+
+    /**
+     * 时间段及其 total
+     */
+    public static final class SliceTotal {
+        public final TimeRange range;
+        public final int total;
+
+        public SliceTotal(TimeRange range, int total) {
+            this.range = range;
+            this.total = total;
+        }
+    }
+}
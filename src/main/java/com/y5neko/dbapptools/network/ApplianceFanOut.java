@@ -0,0 +1,209 @@
+package com.y5neko.dbapptools.network;
+
+import com.y5neko.dbapptools.model.RiskEvent;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多台设备并行查询，结果合并
+ * 每台设备一个独立的 RiskQueryEngine 查询，使用各自的地址、令牌、调度器和并发数；去重和本地存储也按设备分开，
+ * 不同设备的告警 ID 互不相关。明细记录标记来源设备（RiskEvent.getAppliance）后推送给同一个监听器，
+ * 调用方写入同一张表格或同一个导出文件即得到合并结果。
+ * <p>
+ * OkHttp 的 maxRequestsPerHost 和 RateLimiter 都按主机计算，设备之间不占用彼此的并发和限速配额，
+ * 但所有设备共用 Dispatcher 的总上限 HttpClientManager.MAX_REQUESTS
+ */
+public final class ApplianceFanOut {
+
+    /**
+     * 进度回调，与 QueryListener 相同但带设备名称；不同设备的回调可能同时发生
+     */
+    public interface FanOutListener {
+        default void onStarted(String appliance, List<TimeRange> slices, int skippedHours) {}
+
+        default void onSliceDone(String appliance, TimeRange range, int total) {}
+
+        default void onSliceSplit(String appliance, TimeRange range, int total, List<TimeRange> children) {}
+
+        default void onSliceFailed(String appliance, TimeRange range, String error) {}
+
+        /**
+         * 明细记录，event 已标记来源设备
+         */
+        default void onRecord(String appliance, TimeRange range, RiskEvent event) {}
+
+        /**
+         * 该设备暂停并重新登录，其他设备不受影响
+         */
+        default void onReloginStarted(String appliance, String reason) {}
+
+        default void onReloginFinished(String appliance, String error) {}
+
+        /**
+         * 该设备从检查点续查，每台设备有各自的检查点
+         */
+        default void onResumed(String appliance, int completedSlices, long replayedRecords, File journal) {}
+
+        /**
+         * 一台设备的查询结束，其他设备可能仍在进行
+         */
+        default void onApplianceFinished(String appliance, RiskQueryEngine.QueryResult result) {}
+    }
+
+    private final RiskQueryEngine engine;
+
+    public ApplianceFanOut(RiskQueryEngine engine) {
+        this.engine = Objects.requireNonNull(engine, "engine == null");
+    }
+
+    /**
+     * 同时开始所有设备的查询，立即返回
+     * @param requests 设备名称 -> 查询参数
+     */
+    public RunningFanOut start(Map<String, RiskQueryEngine.QueryRequest> requests, FanOutListener listener) {
+        if (requests.isEmpty()) {
+            throw new IllegalArgumentException("没有可查询的设备");
+        }
+        FanOutListener l = listener != null ? listener : new FanOutListener() {};
+        return new RunningFanOut(requests, l);
+    }
+
+    /**
+     * 进行中的多设备查询
+     */
+    public final class RunningFanOut {
+        private final Map<String, RiskQueryEngine.RunningQuery> queries = new LinkedHashMap<>();
+        private final CompletableFuture<FanOutResult> future;
+        private final long beginNanos = System.nanoTime();
+
+        RunningFanOut(Map<String, RiskQueryEngine.QueryRequest> requests, FanOutListener listener) {
+            List<CompletableFuture<RiskQueryEngine.QueryResult>> futures = new ArrayList<>();
+            for (Map.Entry<String, RiskQueryEngine.QueryRequest> entry : requests.entrySet()) {
+                String appliance = entry.getKey();
+                RiskQueryEngine.RunningQuery query = engine.start(entry.getValue(), new RiskQueryEngine.QueryListener() {
+                    @Override
+                    public void onStarted(List<TimeRange> slices, int skippedHours) {
+                        listener.onStarted(appliance, slices, skippedHours);
+                    }
+
+                    @Override
+                    public void onSliceDone(TimeRange range, int total) {
+                        listener.onSliceDone(appliance, range, total);
+                    }
+
+                    @Override
+                    public void onSliceSplit(TimeRange range, int total, List<TimeRange> children) {
+                        listener.onSliceSplit(appliance, range, total, children);
+                    }
+
+                    @Override
+                    public void onSliceFailed(TimeRange range, String error) {
+                        listener.onSliceFailed(appliance, range, error);
+                    }
+
+                    @Override
+                    public void onRecord(TimeRange range, RiskEvent event) {
+                        listener.onRecord(appliance, range, event.withAppliance(appliance));
+                    }
+
+                    @Override
+                    public void onReloginStarted(String reason) {
+                        listener.onReloginStarted(appliance, reason);
+                    }
+
+                    @Override
+                    public void onReloginFinished(String error) {
+                        listener.onReloginFinished(appliance, error);
+                    }
+
+                    @Override
+                    public void onResumed(int completedSlices, long replayedRecords, File journal) {
+                        listener.onResumed(appliance, completedSlices, replayedRecords, journal);
+                    }
+                });
+                queries.put(appliance, query);
+                futures.add(query.getFuture().thenApply(result -> {
+                    listener.onApplianceFinished(appliance, result);
+                    return result;
+                }));
+            }
+            future = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> buildResult());
+        }
+
+        private FanOutResult buildResult() {
+            Map<String, RiskQueryEngine.QueryResult> results = new LinkedHashMap<>();
+            for (Map.Entry<String, RiskQueryEngine.RunningQuery> entry : queries.entrySet()) {
+                results.put(entry.getKey(), entry.getValue().getFuture().join());
+            }
+            return new FanOutResult(results, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beginNanos));
+        }
+
+        /**
+         * 所有设备结束（包括被取消）时完成
+         */
+        public CompletableFuture<FanOutResult> getFuture() {
+            return future;
+        }
+
+        public void cancel() {
+            for (RiskQueryEngine.RunningQuery query : queries.values()) {
+                query.cancel();
+            }
+        }
+
+        /**
+         * 设备名称 -> 查询，按开始顺序
+         */
+        public Map<String, RiskQueryEngine.RunningQuery> getQueries() {
+            return Collections.unmodifiableMap(queries);
+        }
+
+        public long getRecordCount() {
+            long n = 0;
+            for (RiskQueryEngine.RunningQuery query : queries.values()) {
+                n += query.getRecordCount();
+            }
+            return n;
+        }
+    }
+
+    /**
+     * 多设备查询结果
+     */
+    public static final class FanOutResult {
+        // 设备名称 -> 该设备的结果，按开始顺序
+        public final Map<String, RiskQueryEngine.QueryResult> results;
+        // 各设备 total 之和
+        public final long total;
+        public final long recordCount;
+        public final boolean cancelled;
+        public final int failedSliceCount;
+        public final long elapsedMillis;
+
+        FanOutResult(Map<String, RiskQueryEngine.QueryResult> results, long elapsedMillis) {
+            this.results = Collections.unmodifiableMap(results);
+            long sumTotal = 0;
+            long sumRecords = 0;
+            boolean anyCancelled = false;
+            int failed = 0;
+            for (RiskQueryEngine.QueryResult result : results.values()) {
+                sumTotal += result.total;
+                sumRecords += result.recordCount;
+                anyCancelled |= result.cancelled;
+                failed += result.failedSlices.size();
+            }
+            this.total = sumTotal;
+            this.recordCount = sumRecords;
+            this.cancelled = anyCancelled;
+            this.failedSliceCount = failed;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public boolean isSuccess() {
+            return !cancelled && failedSliceCount == 0;
+        }
+    }
+}
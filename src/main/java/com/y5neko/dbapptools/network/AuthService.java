@@ -1,28 +1,22 @@
 package com.y5neko.dbapptools.network;
 
+import com.alibaba.fastjson2.JSONObject;
 import com.y5neko.dbapptools.config.GlobalConfig;
+import com.y5neko.dbapptools.utils.AESCTRUtils;
 import com.y5neko.dbapptools.utils.LogUtils;
+import com.y5neko.dbapptools.utils.MiscUtils;
 import okhttp3.*;
 import org.jetbrains.annotations.NotNull;
 
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509TrustManager;
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
 
 public class AuthService {
 
     private final OkHttpClient httpClient;
 
     public AuthService() {
-        // 用跳过证书校验的 OkHttpClient
-        httpClient = getUnsafeOkHttpClient()
-                .newBuilder()
-                .connectTimeout(10, TimeUnit.SECONDS)
-                .readTimeout(30, TimeUnit.SECONDS)
-                .build();
+        // 与告警查询共用连接池和限速，登录建立的连接后续查询可以直接复用
+        httpClient = HttpClientManager.getInstance();
     }
 
     public interface LoginCallback {
@@ -30,6 +24,30 @@ public class AuthService {
         void onFailure(String error);
     }
 
+    /**
+     * 使用明文密码登录，按前端的方式基于时间戳生成密钥加密密码
+     */
+    public void loginWithPassword(String baseUrl, String username, String password, String captcha, int loginType,
+                                  String hash, LoginCallback callback) {
+        String timestamp = MiscUtils.getTimestamp();
+        String times = MiscUtils.getTimes(timestamp);
+        String aesKey = MiscUtils.getAESKeyByTimestamp(timestamp);
+        String encryptedPwdBase64 = AESCTRUtils.quickUse(password, aesKey, "DbappAPTLoginSpe");
+        loginWithUrl(baseUrl, username, encryptedPwdBase64, captcha, loginType, hash, times, callback);
+    }
+
+    /**
+     * 从登录响应中取出 JWT Token，登录失败时返回 null
+     */
+    public static String extractToken(String response) {
+        try {
+            String jwtToken = JSONObject.parseObject(response).getString("token");
+            return jwtToken != null && jwtToken.startsWith("eyJ") ? jwtToken : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     // 动态传入登录地址
     public void loginWithUrl(String baseUrl, String username, String encryptedPassword, String captcha,
                              int loginType, String hash, String times, LoginCallback callback) {
@@ -79,28 +97,4 @@ public class AuthService {
         });
     }
 
-    private OkHttpClient getUnsafeOkHttpClient() {
-        try {
-            final TrustManager[] trustAllCerts = new TrustManager[]{
-                    new X509TrustManager() {
-                        public void checkClientTrusted(java.security.cert.X509Certificate[] chain, String authType) {}
-                        public void checkServerTrusted(java.security.cert.X509Certificate[] chain, String authType) {}
-                        public java.security.cert.X509Certificate[] getAcceptedIssuers() { return new java.security.cert.X509Certificate[]{}; }
-                    }
-            };
-
-            final SSLContext sslContext = SSLContext.getInstance("SSL");
-            sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
-            final SSLSocketFactory sslSocketFactory = sslContext.getSocketFactory();
-
-            return new OkHttpClient.Builder()
-                    .sslSocketFactory(sslSocketFactory, (X509TrustManager) trustAllCerts[0])
-                    .hostnameVerifier((hostname, session) -> true)
-                    .build();
-        } catch (Exception e) {
-            LogUtils.error(AuthService.class, "创建不安全的 OkHttpClient 失败: " + e.getMessage());
-            throw new RuntimeException(e);
-        }
-    }
-
 }
@@ -0,0 +1,73 @@
+package com.y5neko.dbapptools.network;
+
+import okhttp3.*;
+import okio.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.zip.Inflater;
+
+/**
+ * 响应压缩协商
+ * 请求头声明支持 gzip 和 deflate，响应按 Content-Encoding 包装成流式解压的 Source，
+ * 解压在读取响应体时边读边做，配合 RiskListResponseReader 流式解析不需要先解压到内存。
+ * 自行设置 Accept-Encoding 后 OkHttp 不再自动解压 gzip，所以两种编码都在这里处理
+ */
+public class CompressionInterceptor implements Interceptor {
+
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    @NotNull
+    @Override
+    public Response intercept(@NotNull Chain chain) throws IOException {
+        Request request = chain.request();
+        // 调用方自己指定了编码时不处理
+        if (request.header("Accept-Encoding") != null || request.header("Range") != null) {
+            return chain.proceed(request);
+        }
+        Response response = chain.proceed(request.newBuilder().header("Accept-Encoding", ACCEPT_ENCODING).build());
+        ResponseBody body = response.body();
+        String encoding = response.header("Content-Encoding");
+        if (body == null || encoding == null || !hasBody(response)) {
+            return response;
+        }
+
+        Source decoded;
+        if ("gzip".equalsIgnoreCase(encoding)) {
+            decoded = new GzipSource(body.source());
+        } else if ("deflate".equalsIgnoreCase(encoding)) {
+            decoded = inflate(body.source());
+        } else {
+            return response;
+        }
+        Headers headers = response.headers().newBuilder()
+                .removeAll("Content-Encoding")
+                .removeAll("Content-Length")
+                .build();
+        return response.newBuilder()
+                .headers(headers)
+                .body(ResponseBody.create(Okio.buffer(decoded), body.contentType(), -1L))
+                .build();
+    }
+
+    /**
+     * HTTP 的 deflate 按规范是 zlib 格式，但有些服务端直接发送裸 deflate 数据，根据首字节判断
+     */
+    private static Source inflate(BufferedSource source) throws IOException {
+        boolean zlib = false;
+        if (source.request(2)) {
+            int cmf = source.getBuffer().getByte(0) & 0xff;
+            int flg = source.getBuffer().getByte(1) & 0xff;
+            zlib = (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+        }
+        return new InflaterSource(source, new Inflater(!zlib));
+    }
+
+    private static boolean hasBody(Response response) {
+        if ("HEAD".equals(response.request().method())) {
+            return false;
+        }
+        int code = response.code();
+        return !(code < 200 && code >= 100) && code != 204 && code != 304;
+    }
+}
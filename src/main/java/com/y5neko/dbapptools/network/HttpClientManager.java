@@ -1,13 +1,37 @@
 package com.y5neko.dbapptools.network;
 
-import okhttp3.OkHttpClient;
+import okhttp3.*;
+import org.jetbrains.annotations.NotNull;
 
 import javax.net.ssl.*;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
 import java.security.cert.CertificateException;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 全局唯一的 OkHttpClient
+ * 登录、验证码和告警查询共用同一个连接池和 Dispatcher，登录时建立的 TLS 连接可以直接被后续查询复用。
+ * 设备协商 HTTP/2 时同一个连接上多路复用，否则按 HTTP/1.1 保持长连接
+ */
 public class HttpClientManager {
 
+    // 连接池中最多保留的空闲连接数，需要大于常用的并发数，否则高并发查询结束后连接会被关掉重建
+    public static final int MAX_IDLE_CONNECTIONS = 32;
+    // 空闲连接保留时间，设备端一般 60s 以上才会主动断开
+    public static final long KEEP_ALIVE_SECONDS = 55;
+    public static final int MAX_REQUESTS = 64;
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 64;
+
+    // 所有经过 HttpClientManager 的请求共用，按设备限速
+    private static final RateLimiter rateLimiter = new RateLimiter(RateLimiter.DEFAULT_PERMITS_PER_SECOND, RateLimiter.DEFAULT_BURST);
+
+    private static final ConnectionStats connectionStats = new ConnectionStats();
+
+    private static final ConnectionPool connectionPool = new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+
     private static final OkHttpClient instance = createUnsafeClient();
 
     private static OkHttpClient createUnsafeClient() {
@@ -24,7 +48,19 @@ public class HttpClientManager {
             sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
             final SSLSocketFactory sslSocketFactory = sslContext.getSocketFactory();
 
+            // 并发由 QueryScheduler 控制，这里放开 OkHttp 默认的单主机 5 个请求限制
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(MAX_REQUESTS);
+            dispatcher.setMaxRequestsPerHost(DEFAULT_MAX_REQUESTS_PER_HOST);
+
             return new OkHttpClient.Builder()
+                    .dispatcher(dispatcher)
+                    .connectionPool(connectionPool)
+                    // TLS 握手时通过 ALPN 协商，设备不支持 h2 时自动使用 HTTP/1.1
+                    .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                    .eventListener(connectionStats)
+                    .addInterceptor(rateLimiter)
+                    .addInterceptor(new CompressionInterceptor())
                     .sslSocketFactory(sslSocketFactory, (X509TrustManager)trustAllCerts[0])
                     .hostnameVerifier((hostname, session) -> true)
                     .connectTimeout(10, TimeUnit.SECONDS)
@@ -38,4 +74,133 @@ public class HttpClientManager {
     public static OkHttpClient getInstance() {
         return instance;
     }
+
+    /**
+     * 需要不同超时等设置时从这里派生，派生的客户端仍然共用连接池、Dispatcher 和限速
+     */
+    public static OkHttpClient.Builder newBuilder() {
+        return instance.newBuilder();
+    }
+
+    public static RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * 单个设备同时在途的请求上限
+     */
+    public static void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        instance.dispatcher().setMaxRequestsPerHost(Math.min(maxRequestsPerHost, MAX_REQUESTS));
+    }
+
+    public static PoolStats getPoolStats() {
+        return new PoolStats(connectionPool.connectionCount(), connectionPool.idleConnectionCount(),
+                connectionStats.calls.get(), connectionStats.connects.get(), connectionStats.acquired.get(),
+                connectionStats.http2Acquired.get(), connectionStats.connectFailed.get(),
+                connectionStats.bytesSent.get(), connectionStats.bytesReceived.get());
+    }
+
+    public static void resetPoolStats() {
+        connectionStats.reset();
+    }
+
+    /**
+     * 统计连接的新建与复用，所有请求共用一个实例
+     */
+    private static class ConnectionStats extends EventListener {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong connects = new AtomicLong();
+        final AtomicLong connectFailed = new AtomicLong();
+        final AtomicLong acquired = new AtomicLong();
+        final AtomicLong http2Acquired = new AtomicLong();
+        // 实际收发的请求体/响应体字节数，响应为压缩前的大小
+        final AtomicLong bytesSent = new AtomicLong();
+        final AtomicLong bytesReceived = new AtomicLong();
+
+        void reset() {
+            calls.set(0);
+            connects.set(0);
+            connectFailed.set(0);
+            acquired.set(0);
+            http2Acquired.set(0);
+            bytesSent.set(0);
+            bytesReceived.set(0);
+        }
+
+        @Override
+        public void callStart(@NotNull Call call) {
+            calls.incrementAndGet();
+        }
+
+        @Override
+        public void connectStart(@NotNull Call call, @NotNull InetSocketAddress inetSocketAddress, @NotNull Proxy proxy) {
+            connects.incrementAndGet();
+        }
+
+        @Override
+        public void connectFailed(@NotNull Call call, @NotNull InetSocketAddress inetSocketAddress, @NotNull Proxy proxy,
+                                  Protocol protocol, @NotNull java.io.IOException ioe) {
+            connectFailed.incrementAndGet();
+        }
+
+        @Override
+        public void requestBodyEnd(@NotNull Call call, long byteCount) {
+            bytesSent.addAndGet(byteCount);
+        }
+
+        @Override
+        public void responseBodyEnd(@NotNull Call call, long byteCount) {
+            bytesReceived.addAndGet(byteCount);
+        }
+
+        @Override
+        public void connectionAcquired(@NotNull Call call, @NotNull Connection connection) {
+            acquired.incrementAndGet();
+            if (connection.protocol() == Protocol.HTTP_2) {
+                http2Acquired.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 连接池统计快照
+     */
+    public static final class PoolStats {
+        public final int connectionCount;
+        public final int idleConnectionCount;
+        public final long calls;
+        public final long newConnections;
+        public final long acquiredConnections;
+        public final long http2Acquired;
+        public final long failedConnections;
+        public final long bytesSent;
+        public final long bytesReceived;
+
+        PoolStats(int connectionCount, int idleConnectionCount, long calls, long newConnections, long acquiredConnections,
+                  long http2Acquired, long failedConnections, long bytesSent, long bytesReceived) {
+            this.connectionCount = connectionCount;
+            this.idleConnectionCount = idleConnectionCount;
+            this.calls = calls;
+            this.newConnections = newConnections;
+            this.acquiredConnections = acquiredConnections;
+            this.http2Acquired = http2Acquired;
+            this.failedConnections = failedConnections;
+            this.bytesSent = bytesSent;
+            this.bytesReceived = bytesReceived;
+        }
+
+        /**
+         * 复用已有连接的次数
+         */
+        public long getReusedConnections() {
+            return Math.max(0, acquiredConnections - (newConnections - failedConnections));
+        }
+
+        @Override
+        public String toString() {
+            return "请求 " + calls + " 次，新建连接 " + newConnections + " 个，复用 " + getReusedConnections()
+                    + " 次，HTTP/2 " + http2Acquired + " 次，连接池当前 " + connectionCount + " 个（空闲 "
+                    + idleConnectionCount + "），发送 " + bytesSent / 1024 + " KB，接收 " + bytesReceived / 1024 + " KB";
+        }
+    }
 }
@@ -0,0 +1,314 @@
+package com.y5neko.dbapptools.network;
+
+import com.y5neko.dbapptools.utils.LogUtils;
+import okhttp3.Call;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 时间段查询调度器
+ * 所有时间段先进入工作队列，同时在途的请求数不超过 maxInFlight，某个时间段完成后再补发下一个，
+ * 避免一次性把几百个请求全部塞给 OkHttp 导致设备端超时
+ */
+public class QueryScheduler {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 5;
+
+    public enum SliceState {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED
+    }
+
+    /**
+     * 负责真正发起单个时间段的请求，结束时必须调用 handle.complete 或 handle.fail
+     */
+    public interface SliceExecutor {
+        void execute(TimeRange range, SliceHandle handle);
+    }
+
+    public interface SchedulerListener {
+        void onSliceDone(TimeRange range, int total);
+
+        void onSliceFailed(TimeRange range, String error);
+
+        /**
+         * 队列清空且没有在途请求时回调一次（包括被取消的情况）
+         */
+        void onAllFinished(QueryScheduler scheduler);
+    }
+
+    private final int maxInFlight;
+    private final SliceExecutor executor;
+    private final SchedulerListener listener;
+
+    private final Deque<TimeRange> queue = new ArrayDeque<>();
+    private final Map<TimeRange, SliceState> states = new LinkedHashMap<>();
+    private final Map<TimeRange, SliceHandle> running = new HashMap<>();
+    // 最终失败的时间段及最后一次的错误信息
+    private final Map<TimeRange, String> errors = new LinkedHashMap<>();
+
+    // 保证同一时间只有一个线程在派发，执行器同步完成（如命中缓存）时不会递归加深调用栈
+    private final AtomicInteger dispatchWip = new AtomicInteger();
+
+    private boolean started = false;
+    // 暂停期间不派发新的时间段，也不会结束，用于重新登录
+    private boolean paused = false;
+    private boolean cancelled = false;
+    private boolean finished = false;
+
+    public QueryScheduler(int maxInFlight, SliceExecutor executor, SchedulerListener listener) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight 必须大于 0");
+        }
+        this.maxInFlight = maxInFlight;
+        this.executor = Objects.requireNonNull(executor, "executor == null");
+        this.listener = Objects.requireNonNull(listener, "listener == null");
+    }
+
+    /**
+     * 放入初始时间段并开始调度
+     */
+    public void start(Collection<TimeRange> ranges) {
+        synchronized (this) {
+            if (started) {
+                throw new IllegalStateException("调度器已经启动");
+            }
+            started = true;
+            for (TimeRange range : ranges) {
+                // 启动前已被取消（例如续查时还在重放检查点），直接结束
+                if (cancelled) {
+                    states.put(range, SliceState.CANCELLED);
+                } else {
+                    enqueueLocked(range);
+                }
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * 调度过程中追加时间段
+     */
+    public void submit(TimeRange range) {
+        synchronized (this) {
+            if (cancelled || finished) {
+                return;
+            }
+            enqueueLocked(range);
+        }
+        dispatch();
+    }
+
+    /**
+     * 取消排队中的时间段，并中断所有在途请求
+     */
+    public void cancel() {
+        List<SliceHandle> toCancel;
+        synchronized (this) {
+            if (cancelled || finished) {
+                return;
+            }
+            cancelled = true;
+            paused = false;
+            for (TimeRange range : queue) {
+                states.put(range, SliceState.CANCELLED);
+            }
+            queue.clear();
+            toCancel = new ArrayList<>(running.values());
+        }
+        for (SliceHandle handle : toCancel) {
+            handle.cancelCall();
+        }
+        checkFinished();
+    }
+
+    /**
+     * 暂停派发，在途请求不受影响；暂停期间即使队列为空也不会结束，调用方可以继续 submit
+     */
+    public void pause() {
+        synchronized (this) {
+            if (!cancelled && !finished) {
+                paused = true;
+            }
+        }
+    }
+
+    /**
+     * 恢复派发
+     */
+    public void resume() {
+        synchronized (this) {
+            if (!paused) {
+                return;
+            }
+            paused = false;
+        }
+        dispatch();
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    public synchronized int getInFlightCount() {
+        return running.size();
+    }
+
+    public synchronized int getCount(SliceState state) {
+        int count = 0;
+        for (SliceState s : states.values()) {
+            if (s == state) count++;
+        }
+        return count;
+    }
+
+    /**
+     * 各时间段当前状态的快照，按提交顺序排列
+     */
+    public synchronized Map<TimeRange, SliceState> getSliceStates() {
+        return new LinkedHashMap<>(states);
+    }
+
+    /**
+     * 最终失败的时间段（不含被取消的），按失败顺序排列
+     */
+    public synchronized Map<TimeRange, String> getFailedSlices() {
+        return new LinkedHashMap<>(errors);
+    }
+
+    private void enqueueLocked(TimeRange range) {
+        SliceState old = states.get(range);
+        if (old == SliceState.QUEUED || old == SliceState.RUNNING) {
+            return;
+        }
+        states.put(range, SliceState.QUEUED);
+        errors.remove(range);
+        queue.addLast(range);
+    }
+
+    private void dispatch() {
+        if (dispatchWip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            dispatchOnce();
+        } while (dispatchWip.decrementAndGet() != 0);
+    }
+
+    private void dispatchOnce() {
+        List<SliceHandle> toStart = new ArrayList<>();
+        synchronized (this) {
+            while (!cancelled && !paused && running.size() < maxInFlight && !queue.isEmpty()) {
+                TimeRange range = queue.pollFirst();
+                SliceHandle handle = new SliceHandle(range);
+                running.put(range, handle);
+                states.put(range, SliceState.RUNNING);
+                toStart.add(handle);
+            }
+        }
+        // 在锁外发起请求，避免回调线程与调度线程互相等待
+        for (SliceHandle handle : toStart) {
+            try {
+                executor.execute(handle.range, handle);
+            } catch (Exception e) {
+                LogUtils.error(QueryScheduler.class, "时间段 " + handle.range + " 发起请求异常", e);
+                handle.fail("发起请求异常: " + e.getMessage());
+            }
+        }
+        checkFinished();
+    }
+
+    private void onHandleDone(SliceHandle handle, SliceState state, int total, String error) {
+        synchronized (this) {
+            running.remove(handle.range);
+            if (state == SliceState.FAILED && cancelled) {
+                state = SliceState.CANCELLED;
+            }
+            states.put(handle.range, state);
+            if (state == SliceState.FAILED) {
+                errors.put(handle.range, error);
+            }
+        }
+        // 先通知监听器，监听器可能会在回调中追加新的时间段
+        if (state == SliceState.DONE) {
+            listener.onSliceDone(handle.range, total);
+        } else if (state == SliceState.FAILED) {
+            listener.onSliceFailed(handle.range, error);
+        }
+        dispatch();
+    }
+
+    private void checkFinished() {
+        synchronized (this) {
+            if (finished || !started || paused || !running.isEmpty() || !queue.isEmpty()) {
+                return;
+            }
+            finished = true;
+        }
+        listener.onAllFinished(this);
+    }
+
+    /**
+     * 单个时间段的执行句柄，complete/fail 只会生效一次
+     */
+    public final class SliceHandle {
+        private final TimeRange range;
+        private volatile Call call;
+        private boolean done = false;
+
+        private SliceHandle(TimeRange range) {
+            this.range = range;
+        }
+
+        public TimeRange getRange() {
+            return range;
+        }
+
+        /**
+         * 绑定实际发出的请求，取消调度时会一并取消
+         */
+        public void bind(Call call) {
+            this.call = call;
+            if (isCancelled()) {
+                call.cancel();
+            }
+        }
+
+        public void complete(int total) {
+            if (markDone()) {
+                onHandleDone(this, SliceState.DONE, total, null);
+            }
+        }
+
+        public void fail(String error) {
+            if (markDone()) {
+                onHandleDone(this, SliceState.FAILED, 0, error);
+            }
+        }
+
+        private synchronized boolean markDone() {
+            if (done) return false;
+            done = true;
+            return true;
+        }
+
+        private void cancelCall() {
+            Call c = call;
+            if (c != null) {
+                c.cancel();
+            }
+        }
+    }
+}
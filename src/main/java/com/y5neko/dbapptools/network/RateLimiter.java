@@ -0,0 +1,201 @@
+package com.y5neko.dbapptools.network;
+
+import com.y5neko.dbapptools.utils.LogUtils;
+import okhttp3.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按设备限速的令牌桶
+ * 以 scheme://host:port 区分设备，每个设备一个桶，速率和突发容量全局配置。
+ * 设备出现 429/503 或平均响应时间超过阈值时速率减半，之后每个正常响应缓慢加回（AIMD），不超过配置的速率。
+ * 作为 OkHttp 应用拦截器使用，在发出请求前等待令牌
+ */
+public class RateLimiter implements Interceptor {
+
+    public static final double DEFAULT_PERMITS_PER_SECOND = 10;
+    public static final int DEFAULT_BURST = 10;
+    public static final long DEFAULT_LATENCY_THRESHOLD_MILLIS = 3000;
+
+    // 自适应降速的下限
+    private static final double MIN_PERMITS_PER_SECOND = 0.5;
+    // 两次降速之间至少间隔，避免同一批在途请求把速率连续减半
+    private static final long DECREASE_COOLDOWN_NANOS = TimeUnit.SECONDS.toNanos(2);
+    // 响应时间的指数平均系数
+    private static final double LATENCY_ALPHA = 0.2;
+    // 等待令牌时检查取消状态的间隔
+    private static final long MAX_SLEEP_MILLIS = 200;
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    private volatile double permitsPerSecond;
+    private volatile int burst;
+    private volatile long latencyThresholdMillis = DEFAULT_LATENCY_THRESHOLD_MILLIS;
+
+    public RateLimiter(double permitsPerSecond, int burst) {
+        setRate(permitsPerSecond, burst);
+    }
+
+    /**
+     * 修改配置，已有的桶同时重置为新速率
+     * @param permitsPerSecond 每秒请求数，小于等于 0 表示不限速
+     */
+    public void setRate(double permitsPerSecond, int burst) {
+        if (burst <= 0) {
+            throw new IllegalArgumentException("burst 必须大于 0");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        for (TokenBucket bucket : buckets.values()) {
+            bucket.reset();
+        }
+    }
+
+    public void setLatencyThresholdMillis(long latencyThresholdMillis) {
+        this.latencyThresholdMillis = latencyThresholdMillis;
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * @return 设备当前（自适应调整后）的速率，没有请求过返回配置速率
+     */
+    public double getCurrentRate(String baseUrl) {
+        HttpUrl url = HttpUrl.parse(baseUrl);
+        TokenBucket bucket = url == null ? null : buckets.get(key(url));
+        return bucket == null ? permitsPerSecond : bucket.getRate();
+    }
+
+    @NotNull
+    @Override
+    public Response intercept(@NotNull Chain chain) throws IOException {
+        if (permitsPerSecond <= 0) {
+            return chain.proceed(chain.request());
+        }
+        TokenBucket bucket = buckets.computeIfAbsent(key(chain.request().url()), TokenBucket::new);
+        bucket.acquire(chain.call());
+
+        long begin = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (InterruptedIOException e) {
+            // 超时同样说明设备负载高
+            bucket.onOverload("超时");
+            throw e;
+        }
+        bucket.onResponse(response.code(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+        return response;
+    }
+
+    private static String key(HttpUrl url) {
+        return url.scheme() + "://" + url.host() + ":" + url.port();
+    }
+
+    private class TokenBucket {
+        private final String key;
+        private double rate;
+        private double tokens;
+        private long lastRefillNanos;
+        private long lastDecreaseNanos;
+        private double avgLatencyMillis = -1;
+
+        TokenBucket(String key) {
+            this.key = key;
+            reset();
+        }
+
+        synchronized void reset() {
+            rate = permitsPerSecond;
+            tokens = burst;
+            lastRefillNanos = System.nanoTime();
+            lastDecreaseNanos = lastRefillNanos - DECREASE_COOLDOWN_NANOS;
+        }
+
+        synchronized double getRate() {
+            return rate;
+        }
+
+        /**
+         * 取一个令牌，不足时等待；请求被取消时抛出 IOException
+         */
+        void acquire(Call call) throws IOException {
+            while (true) {
+                long waitMillis;
+                synchronized (this) {
+                    // 等待期间限速被关闭
+                    if (permitsPerSecond <= 0) {
+                        return;
+                    }
+                    refill();
+                    if (tokens >= 1) {
+                        tokens -= 1;
+                        return;
+                    }
+                    waitMillis = (long) Math.ceil((1 - tokens) * 1000 / rate);
+                }
+                if (call.isCanceled()) {
+                    throw new IOException("Canceled");
+                }
+                try {
+                    Thread.sleep(Math.max(1, Math.min(waitMillis, MAX_SLEEP_MILLIS)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("等待限速令牌时被中断");
+                }
+            }
+        }
+
+        void onResponse(int code, long latencyMillis) {
+            boolean slow;
+            synchronized (this) {
+                avgLatencyMillis = avgLatencyMillis < 0 ? latencyMillis
+                        : avgLatencyMillis + LATENCY_ALPHA * (latencyMillis - avgLatencyMillis);
+                slow = avgLatencyMillis > latencyThresholdMillis;
+            }
+            if (code == 429 || code == 503) {
+                onOverload("HTTP " + code);
+            } else if (slow) {
+                onOverload("平均响应时间 " + (long) avgLatencyMillis + "ms");
+            } else {
+                synchronized (this) {
+                    // 加性恢复：每个正常响应加回配置速率的 5%
+                    rate = Math.min(permitsPerSecond, rate + permitsPerSecond * 0.05);
+                }
+            }
+        }
+
+        void onOverload(String reason) {
+            double newRate;
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (now - lastDecreaseNanos < DECREASE_COOLDOWN_NANOS) {
+                    return;
+                }
+                lastDecreaseNanos = now;
+                refill();
+                rate = Math.max(MIN_PERMITS_PER_SECOND, rate / 2);
+                tokens = Math.min(tokens, 1);
+                newRate = rate;
+            }
+            LogUtils.warn(RateLimiter.class, "设备 " + key + " " + reason + "，限速降至 " + String.format("%.1f", newRate) + " 次/秒");
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefillNanos) * rate / 1e9);
+            lastRefillNanos = now;
+        }
+    }
+}
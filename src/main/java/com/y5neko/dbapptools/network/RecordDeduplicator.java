@@ -0,0 +1,228 @@
+package com.y5neko.dbapptools.network;
+
+import com.y5neko.dbapptools.aggregate.BloomFilter;
+import com.y5neko.dbapptools.aggregate.LongHashSet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按告警 ID 去重
+ * 相邻时间段共用边界时刻、翻页期间有新告警入库导致 offset 偏移、页请求在解析到一半时失败重试，都会让同一条告警出现多次。
+ * 按 ID 的哈希分成若干段，每段各自加锁，多个网络线程同时推送时很少互相等待。两种模式：
+ * <ul>
+ *     <li>EXACT：基本类型哈希集合，结果精确，每个 ID 约 16~32 字节</li>
+ *     <li>BLOOM：可扩展 Bloom Filter，每个 ID 约 4~8 字节，适合按月拉取；每层满后追加一层容量翻倍、误判率减半的过滤器，
+ *     总误判率不超过设定值的 2 倍。误判会把一条新告警当成重复丢弃，丢弃数量的期望值见 getExpectedFalseDrops</li>
+ * </ul>
+ * ID 为 0（响应中没有 ID）的记录不参与去重
+ */
+public final class RecordDeduplicator {
+
+    public enum Mode {
+        EXACT, BLOOM
+    }
+
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 1e-6;
+    // Bloom 模式第一层的容量，之后按需翻倍
+    public static final long DEFAULT_BLOOM_INITIAL_CAPACITY = 1 << 20;
+
+    private static final int STRIPES = 16;
+
+    private final Mode mode;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final AtomicLong unique = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    private RecordDeduplicator(Mode mode, long initialCapacity, double falsePositiveRate) {
+        this.mode = mode;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = mode == Mode.EXACT ? new ExactStripe()
+                    : new BloomStripe(Math.max(1024, initialCapacity / STRIPES), falsePositiveRate);
+        }
+    }
+
+    public static RecordDeduplicator exact() {
+        return new RecordDeduplicator(Mode.EXACT, 0, 0);
+    }
+
+    public static RecordDeduplicator bloom() {
+        return bloom(DEFAULT_BLOOM_INITIAL_CAPACITY, DEFAULT_FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     * @param initialCapacity 第一层的总容量，按预计记录数设置可以少扩几层
+     * @param falsePositiveRate 第一层的误判率
+     */
+    public static RecordDeduplicator bloom(long initialCapacity, double falsePositiveRate) {
+        return new RecordDeduplicator(Mode.BLOOM, initialCapacity, falsePositiveRate);
+    }
+
+    public static RecordDeduplicator create(Mode mode) {
+        return mode == Mode.EXACT ? exact() : bloom();
+    }
+
+    /**
+     * @return 第一次出现（或没有 ID）时返回 true，重复时返回 false
+     */
+    public boolean firstSeen(long id) {
+        if (id == 0) {
+            unique.incrementAndGet();
+            return true;
+        }
+        long h = id * 0x9E3779B97F4A7C15L;
+        Stripe stripe = stripes[(int) (h >>> 60)];
+        boolean first;
+        synchronized (stripe) {
+            first = stripe.add(id);
+        }
+        (first ? unique : duplicates).incrementAndGet();
+        return first;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getUniqueCount() {
+        return unique.get();
+    }
+
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    /**
+     * Bloom 模式下被误判为重复而丢弃的记录数的期望值，EXACT 模式为 0
+     */
+    public double getExpectedFalseDrops() {
+        double drops = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                drops += stripe.expectedFalseDrops();
+            }
+        }
+        return drops;
+    }
+
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                bytes += stripe.memoryBytes();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 一行文字说明，查询结束时输出
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("去重(").append(mode).append("): 重复记录 ").append(getDuplicateCount()).append(" 条，占用内存 ")
+                .append(getMemoryBytes() / 1024).append(" KB");
+        if (mode == Mode.BLOOM) {
+            sb.append("，误判丢弃的期望值 ").append(String.format("%.4f", getExpectedFalseDrops())).append(" 条");
+        }
+        return sb.toString();
+    }
+
+    private interface Stripe {
+        boolean add(long id);
+
+        double expectedFalseDrops();
+
+        long memoryBytes();
+    }
+
+    private static final class ExactStripe implements Stripe {
+        private final LongHashSet ids = new LongHashSet(1024);
+
+        @Override
+        public boolean add(long id) {
+            return ids.add(id);
+        }
+
+        @Override
+        public double expectedFalseDrops() {
+            return 0;
+        }
+
+        @Override
+        public long memoryBytes() {
+            return ids.getMemoryBytes();
+        }
+    }
+
+    /**
+     * 可扩展 Bloom Filter（Almeida 等），只向最新一层加入，查询时检查所有层
+     */
+    private static final class BloomStripe implements Stripe {
+        private final List<BloomFilter> layers = new ArrayList<>();
+        private long nextCapacity;
+        private double nextRate;
+        // 每条新记录加入前，被误判为已存在的概率之和；误判率变化很慢，每 RATE_SAMPLE 条计算一次
+        private static final int RATE_SAMPLE = 1024;
+        private double expectedFalseDrops = 0;
+        private int unsampled = 0;
+
+        BloomStripe(long capacity, double falsePositiveRate) {
+            this.nextCapacity = capacity;
+            this.nextRate = falsePositiveRate;
+            addLayer();
+        }
+
+        private void addLayer() {
+            layers.add(new BloomFilter(nextCapacity, nextRate));
+            nextCapacity *= 2;
+            nextRate /= 2;
+        }
+
+        @Override
+        public boolean add(long id) {
+            for (BloomFilter layer : layers) {
+                if (layer.mightContain(id)) {
+                    return false;
+                }
+            }
+            BloomFilter current = layers.get(layers.size() - 1);
+            if (current.isFull()) {
+                addLayer();
+                current = layers.get(layers.size() - 1);
+            }
+            if (++unsampled == RATE_SAMPLE) {
+                expectedFalseDrops += currentRate() * unsampled;
+                unsampled = 0;
+            }
+            current.put(id);
+            return true;
+        }
+
+        /**
+         * 新键被任意一层误判为已存在的概率（各层误判率之和，略大于实际值）
+         */
+        private double currentRate() {
+            double rate = 0;
+            for (BloomFilter layer : layers) {
+                rate += layer.currentFalsePositiveRate();
+            }
+            return rate;
+        }
+
+        @Override
+        public double expectedFalseDrops() {
+            return expectedFalseDrops + currentRate() * unsampled;
+        }
+
+        @Override
+        public long memoryBytes() {
+            long bytes = 0;
+            for (BloomFilter layer : layers) {
+                bytes += layer.getMemoryBytes();
+            }
+            return bytes;
+        }
+    }
+}
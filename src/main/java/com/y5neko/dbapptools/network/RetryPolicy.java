@@ -0,0 +1,166 @@
+package com.y5neko.dbapptools.network;
+
+import com.y5neko.dbapptools.utils.LogUtils;
+import okhttp3.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求重试策略
+ * 超时、网络异常、5xx 以及 408/429 视为设备暂时不可用，按指数退避加随机抖动延迟后重试；
+ * 其余 4xx 说明请求本身有问题（参数错误、Token 失效等），重试也不会成功，直接交给调用方
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 1000;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 30000;
+
+    public static final RetryPolicy NONE = new RetryPolicy(0, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+
+    public enum FailureKind {
+        // 连接/读取超时
+        TIMEOUT,
+        // 连接被拒绝、被重置等
+        NETWORK,
+        // 5xx、408、429
+        SERVER_ERROR,
+        // 其余 4xx，不重试
+        CLIENT_ERROR
+    }
+
+    // 所有等待中的重试共用一个线程，到点后只是重新 enqueue，不做耗时操作
+    private static final ScheduledExecutorService RETRY_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "retry-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy(int maxRetries) {
+        this(maxRetries, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries 不能小于 0");
+        }
+        if (baseDelayMillis <= 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("退避时间设置不正确");
+        }
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * 错误码对应的失败信息，执行器统一用这个格式，isUnauthorized 才能识别
+     */
+    public static String httpError(int code) {
+        return "HTTP错误码：" + code;
+    }
+
+    /**
+     * 失败信息是否为 401，即 Token 失效，需要重新登录而不是重试
+     */
+    public static boolean isUnauthorized(String error) {
+        return error != null && error.contains(httpError(401));
+    }
+
+    public static FailureKind classify(IOException e) {
+        // SocketTimeoutException 是 InterruptedIOException 的子类
+        return e instanceof InterruptedIOException ? FailureKind.TIMEOUT : FailureKind.NETWORK;
+    }
+
+    /**
+     * @return 状态码对应的失败类型，2xx/3xx 返回 null
+     */
+    public static FailureKind classify(int code) {
+        if (code >= 500 || code == 408 || code == 429) {
+            return FailureKind.SERVER_ERROR;
+        }
+        if (code >= 400) {
+            return FailureKind.CLIENT_ERROR;
+        }
+        return null;
+    }
+
+    /**
+     * @param retries 已经重试的次数
+     */
+    public boolean shouldRetry(FailureKind kind, int retries) {
+        return kind != FailureKind.CLIENT_ERROR && retries < maxRetries;
+    }
+
+    /**
+     * 第 retries + 1 次重试前的等待时间
+     * 上限为 base * 2^retries，实际取 [上限/2, 上限] 内的随机值，避免多个时间段同时失败后又同时重试。
+     * 超时说明设备已经很慢，等待时间再翻一倍
+     */
+    public long backoffMillis(FailureKind kind, int retries) {
+        long cap = baseDelayMillis << Math.min(retries, 20);
+        if (kind == FailureKind.TIMEOUT) {
+            cap <<= 1;
+        }
+        cap = Math.min(cap, maxDelayMillis);
+        long half = cap / 2;
+        return half + ThreadLocalRandom.current().nextLong(cap - half + 1);
+    }
+
+    /**
+     * 发送请求，可重试的失败按策略自动重发，最终结果（成功响应、不可重试的响应或最后一次失败）交给 callback
+     * 每次重发的 Call 都会绑定到 handle，调度器取消后不再重试
+     */
+    public void enqueue(OkHttpClient client, Request request, QueryScheduler.SliceHandle handle, Callback callback) {
+        enqueue(client, request, handle, callback, 0);
+    }
+
+    private void enqueue(OkHttpClient client, Request request, QueryScheduler.SliceHandle handle, Callback callback,
+                         int retries) {
+        Call call = client.newCall(request);
+        handle.bind(call);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                FailureKind kind = classify(e);
+                if (call.isCanceled() || !shouldRetry(kind, retries)) {
+                    callback.onFailure(call, retries > 0 ? new IOException(e.getMessage() + "（已重试 " + retries + " 次）", e) : e);
+                    return;
+                }
+                retryLater(client, request, handle, callback, kind, retries, e.getMessage());
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException {
+                FailureKind kind = classify(response.code());
+                if (kind == null || call.isCanceled() || !shouldRetry(kind, retries)) {
+                    callback.onResponse(call, response);
+                    return;
+                }
+                response.close();
+                retryLater(client, request, handle, callback, kind, retries, httpError(response.code()));
+            }
+        });
+    }
+
+    private void retryLater(OkHttpClient client, Request request, QueryScheduler.SliceHandle handle, Callback callback,
+                            FailureKind kind, int retries, String reason) {
+        long delay = backoffMillis(kind, retries);
+        LogUtils.warn(RetryPolicy.class, "时间段 " + handle.getRange() + " " + reason + "，" + delay + "ms 后第 "
+                + (retries + 1) + " 次重试");
+        RETRY_TIMER.schedule(() -> enqueue(client, request, handle, callback, retries + 1), delay, TimeUnit.MILLISECONDS);
+    }
+}
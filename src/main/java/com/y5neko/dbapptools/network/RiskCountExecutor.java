@@ -0,0 +1,84 @@
+package com.y5neko.dbapptools.network;
+
+import com.y5neko.dbapptools.store.SliceTotalCache;
+import okhttp3.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * 统计模式的时间段执行器，每个时间段只请求第一页并读取 data.total
+ * 已结束的时间段优先从 SliceTotalCache 读取，正常解析出的 total 写回缓存
+ */
+public class RiskCountExecutor implements QueryScheduler.SliceExecutor {
+
+    private final OkHttpClient client;
+    private final RiskListPager.PageRequestFactory requestFactory;
+    private final RetryPolicy retryPolicy;
+    private final SliceTotalCache cache;
+    private final SliceTotalCache.Stats cacheStats;
+    private final String baseUrl;
+    private final Object attackGrades;
+
+    /**
+     * @param cache 为 null 时不使用缓存
+     * @param cacheStats 本次查询的缓存命中统计，可以为 null
+     * @param baseUrl 设备地址，作为缓存键的一部分
+     * @param attackGrades 与请求一致的攻击等级，作为缓存键的一部分
+     */
+    public RiskCountExecutor(OkHttpClient client, RiskListPager.PageRequestFactory requestFactory, RetryPolicy retryPolicy,
+                             SliceTotalCache cache, SliceTotalCache.Stats cacheStats, String baseUrl, Object attackGrades) {
+        this.client = Objects.requireNonNull(client, "client == null");
+        this.requestFactory = Objects.requireNonNull(requestFactory, "requestFactory == null");
+        this.retryPolicy = Objects.requireNonNull(retryPolicy, "retryPolicy == null");
+        this.cache = cache;
+        this.cacheStats = cacheStats;
+        this.baseUrl = baseUrl;
+        this.attackGrades = attackGrades;
+    }
+
+    @Override
+    public void execute(TimeRange range, QueryScheduler.SliceHandle handle) {
+        if (cache != null) {
+            Integer cached = cache.get(baseUrl, range, attackGrades, cacheStats);
+            if (cached != null) {
+                handle.complete(cached);
+                return;
+            }
+        }
+        Request request = requestFactory.create(range, 0, RiskListPager.PageCursor.FIRST);
+        retryPolicy.enqueue(client, request, handle, new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                handle.fail(e.getMessage());
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                int total;
+                try (ResponseBody body = response.body()) {
+                    // 走到这里的错误码都是不可重试的（或重试次数已用完），按失败处理，不计为 0
+                    if (!response.isSuccessful() || body == null) {
+                        handle.fail(RetryPolicy.httpError(response.code()));
+                        return;
+                    }
+                    // 只读取 data.total，data.list 直接跳过
+                    RiskListResponseReader.PageInfo info = RiskListResponseReader.readInfo(body.source().inputStream());
+                    if (!info.hasData() || info.getTotal() < 0) {
+                        handle.fail("响应中没有 total 字段");
+                        return;
+                    }
+                    total = info.getTotal();
+                } catch (Exception e) {
+                    handle.fail("解析失败: " + e.getMessage());
+                    return;
+                }
+                if (cache != null) {
+                    cache.put(baseUrl, range, attackGrades, total);
+                }
+                handle.complete(total);
+            }
+        });
+    }
+}
@@ -0,0 +1,143 @@
+package com.y5neko.dbapptools.network;
+
+import com.alibaba.fastjson2.JSONReader;
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.model.StringDictionary;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 把告警列表中的单条记录直接读成 RiskEvent，不经过中间的 JSONObject
+ * 字段名与请求体中的过滤条件保持一致（sip/dip/attackerip/ruleid/cve/domain 等），同时兼容几个常见的别名
+ * 字符串字段编码到构造时传入的字典中，通常每次查询一个
+ */
+public class RiskEventMapper implements RiskListResponseReader.RecordMapper<RiskEvent> {
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final StringDictionary dictionary;
+
+    public RiskEventMapper(StringDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    @Override
+    public RiskEvent read(JSONReader reader) {
+        if (!reader.nextIfObjectStart()) {
+            reader.skipValue();
+            return null;
+        }
+        long id = 0;
+        long time = 0;
+        byte grade = RiskEvent.GRADE_UNKNOWN;
+        long sip = RiskEvent.NO_IP;
+        long dip = RiskEvent.NO_IP;
+        long attackerIp = RiskEvent.NO_IP;
+        int ruleId = 0;
+        int eventType = 0;
+        int appType = 0;
+        int cve = 0;
+        int domain = 0;
+
+        while (!reader.nextIfObjectEnd()) {
+            String name = reader.readFieldName();
+            if (name == null) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                case "accessid":
+                    id = toLong(reader.readAny());
+                    break;
+                case "time":
+                case "accesstime":
+                case "begintime":
+                    time = toEpochMillis(reader.readAny());
+                    break;
+                case "attackgrade":
+                case "grade":
+                    grade = (byte) toLong(reader.readAny());
+                    break;
+                case "sip":
+                case "srcip":
+                    sip = RiskEvent.packIp(dictionary, toStr(reader.readAny()));
+                    break;
+                case "dip":
+                case "dstip":
+                    dip = RiskEvent.packIp(dictionary, toStr(reader.readAny()));
+                    break;
+                case "attackerip":
+                    attackerIp = RiskEvent.packIp(dictionary, toStr(reader.readAny()));
+                    break;
+                case "ruleid":
+                    ruleId = (int) toLong(reader.readAny());
+                    break;
+                case "eventype":
+                case "eventtype":
+                    eventType = dictionary.encode(toStr(reader.readAny()));
+                    break;
+                case "apptype":
+                case "apptypeid":
+                    appType = dictionary.encode(toStr(reader.readAny()));
+                    break;
+                case "cve":
+                    cve = dictionary.encode(toStr(reader.readAny()));
+                    break;
+                case "domain":
+                    domain = dictionary.encode(toStr(reader.readAny()));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        // 没有攻击者 IP 字段时以源 IP 作为攻击者
+        if (attackerIp == RiskEvent.NO_IP) {
+            attackerIp = sip;
+        }
+        return new RiskEvent(dictionary, id, time, grade, sip, dip, attackerIp, ruleId, eventType, appType, cve, domain);
+    }
+
+    private static String toStr(Object value) {
+        return value == null ? null : String.valueOf(value);
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String && !((String) value).isEmpty()) {
+            try {
+                return Long.parseLong(((String) value).trim());
+            } catch (NumberFormatException ignored) {}
+        }
+        return 0;
+    }
+
+    /**
+     * 支持秒/毫秒时间戳和 yyyy-MM-dd HH:mm:ss 字符串
+     */
+    private static long toEpochMillis(Object value) {
+        if (value instanceof Number) {
+            long v = ((Number) value).longValue();
+            return v > 1_000_000_000_000L ? v : v * 1000;
+        }
+        if (value instanceof String) {
+            String s = ((String) value).trim();
+            if (s.length() == 19) {
+                try {
+                    return LocalDateTime.parse(s, DATE_TIME_FORMATTER).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                } catch (Exception ignored) {}
+            }
+            long v = toLong(s);
+            return v > 1_000_000_000_000L ? v : v * 1000;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,212 @@
+package com.y5neko.dbapptools.network;
+
+import com.y5neko.dbapptools.utils.LogUtils;
+import okhttp3.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * 告警列表分页获取
+ * 每个时间段按 pageSize 递增 offset 逐页请求，一旦知道 total 就先发出下一页请求再继续解析当前页，
+ * 响应中没有 total 时退化为解析完一页再请求下一页，直到某一页不满 pageSize，
+ * 响应体经 RiskListResponseReader 流式解析，记录逐条推送给 RiskRecordSink。可直接作为 QueryScheduler 的 SliceExecutor 使用
+ */
+public class RiskListPager<T> implements QueryScheduler.SliceExecutor {
+
+    /**
+     * 根据时间段、偏移量和游标构造分页请求
+     */
+    public interface PageRequestFactory {
+        Request create(TimeRange range, int offset, PageCursor cursor);
+    }
+
+    private final OkHttpClient client;
+    private final int pageSize;
+    private final PageRequestFactory requestFactory;
+    private final RiskListResponseReader.RecordMapper<T> mapper;
+    private final RiskRecordSink<T> sink;
+    private final RetryPolicy retryPolicy;
+
+    public RiskListPager(OkHttpClient client, int pageSize, PageRequestFactory requestFactory,
+                         RiskListResponseReader.RecordMapper<T> mapper, RiskRecordSink<T> sink) {
+        this(client, pageSize, requestFactory, mapper, sink, RetryPolicy.NONE);
+    }
+
+    /**
+     * @param retryPolicy 单页请求失败时的重试策略，重试在页级别进行，已获取的页不会重复请求
+     */
+    public RiskListPager(OkHttpClient client, int pageSize, PageRequestFactory requestFactory,
+                         RiskListResponseReader.RecordMapper<T> mapper, RiskRecordSink<T> sink, RetryPolicy retryPolicy) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize 必须大于 0");
+        }
+        this.client = Objects.requireNonNull(client, "client == null");
+        this.pageSize = pageSize;
+        this.requestFactory = Objects.requireNonNull(requestFactory, "requestFactory == null");
+        this.mapper = Objects.requireNonNull(mapper, "mapper == null");
+        this.sink = Objects.requireNonNull(sink, "sink == null");
+        this.retryPolicy = Objects.requireNonNull(retryPolicy, "retryPolicy == null");
+    }
+
+    @Override
+    public void execute(TimeRange range, QueryScheduler.SliceHandle handle) {
+        new SliceFetch(range, handle).requestPage(0, PageCursor.FIRST);
+    }
+
+    /**
+     * 单个时间段的分页状态
+     */
+    private class SliceFetch {
+        private final TimeRange range;
+        private final QueryScheduler.SliceHandle handle;
+        // 以下状态由 synchronized (this) 保护
+        private int received = 0;
+        // 已发出但还没处理完的页数
+        private int outstanding = 0;
+        // 出现过不满一页的响应，说明 total 不可靠，不再继续翻页
+        private boolean exhausted = false;
+        private volatile boolean failed = false;
+        private boolean completed = false;
+
+        SliceFetch(TimeRange range, QueryScheduler.SliceHandle handle) {
+            this.range = range;
+            this.handle = handle;
+        }
+
+        void requestPage(int offset, PageCursor cursor) {
+            synchronized (this) {
+                outstanding++;
+            }
+            retryPolicy.enqueue(client, requestFactory.create(range, offset, cursor), handle, new Callback() {
+                @Override
+                public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                    fail("offset " + offset + " 请求失败: " + e.getMessage());
+                }
+
+                @Override
+                public void onResponse(@NotNull Call call, @NotNull Response response) {
+                    try (ResponseBody body = response.body()) {
+                        if (!response.isSuccessful() || body == null) {
+                            fail("offset " + offset + " " + RetryPolicy.httpError(response.code()));
+                            return;
+                        }
+                        onPage(offset, cursor, body);
+                    } catch (Exception e) {
+                        LogUtils.error(RiskListPager.class, "时间段 " + range + " offset " + offset + " 解析失败", e);
+                        fail("offset " + offset + " 解析失败: " + e.getMessage());
+                    }
+                }
+            });
+        }
+
+        private void onPage(int offset, PageCursor cursor, ResponseBody body) {
+            // 非首页的 total 已经由首页确定，收到响应立即发出下一页
+            boolean[] nextRequested = {false};
+            if (offset > 0) {
+                nextRequested[0] = requestNext(offset, cursor, cursor.total);
+            }
+
+            RiskListResponseReader.PageInfo info = RiskListResponseReader.read(body.source().inputStream(), mapper,
+                    new RiskListResponseReader.PageCallback<T>() {
+                        @Override
+                        public void onListStart(RiskListResponseReader.PageInfo header) {
+                            // 首页的 total 出现在 list 之前时，可以在解析记录前就发出下一页
+                            if (offset == 0 && header.getTotal() >= 0) {
+                                nextRequested[0] = true;
+                                requestNext(offset, PageCursor.fromFirstPage(header), header.getTotal());
+                            }
+                        }
+
+                        @Override
+                        public void onRecord(T record) {
+                            // 时间段已失败时不再推送剩余记录
+                            if (!failed) {
+                                sink.onRecord(range, record);
+                            }
+                        }
+                    });
+            if (!info.hasData()) {
+                fail("offset " + offset + " 响应中没有 data 字段");
+                return;
+            }
+            if (info.getRecordCount() < pageSize) {
+                synchronized (this) {
+                    exhausted = true;
+                }
+            }
+            PageCursor current = offset == 0 ? PageCursor.fromFirstPage(info) : cursor;
+            if (current.total == null) {
+                // 响应中没有 total，无法预先发出后续页，只能逐页请求，直到某一页不满 pageSize（exhausted）
+                requestNext(offset, current, Integer.MAX_VALUE);
+            } else if (offset == 0 && !nextRequested[0]) {
+                requestNext(offset, current, current.total);
+            }
+
+            // 下一页可能先于当前页处理完，只有所有已发出的页都处理完毕才算完成
+            int count;
+            boolean done;
+            synchronized (this) {
+                received += info.getRecordCount();
+                outstanding--;
+                done = outstanding == 0 && !completed && !failed;
+                if (done) {
+                    completed = true;
+                }
+                count = received;
+            }
+            if (done) {
+                sink.onSliceComplete(range, count);
+                handle.complete(count);
+            }
+        }
+
+        private boolean requestNext(int offset, PageCursor cursor, Integer total) {
+            int nextOffset = offset + pageSize;
+            synchronized (this) {
+                if (exhausted || failed || total == null || nextOffset >= total) {
+                    return false;
+                }
+            }
+            requestPage(nextOffset, cursor);
+            return true;
+        }
+
+        private void fail(String error) {
+            synchronized (this) {
+                if (failed || completed) {
+                    return;
+                }
+                failed = true;
+            }
+            sink.onSliceFailed(range, error);
+            handle.fail(error);
+        }
+    }
+
+    /**
+     * 翻页游标，首页请求时各字段为 null
+     */
+    public static final class PageCursor {
+        public static final PageCursor FIRST = new PageCursor(null, null, null);
+
+        public final Integer total;
+        public final String queryId;
+        public final String maxAccessId;
+
+        public PageCursor(Integer total, String queryId, String maxAccessId) {
+            this.total = total;
+            this.queryId = queryId;
+            this.maxAccessId = maxAccessId;
+        }
+
+        /**
+         * 设备支持时首页会返回 queryId/maxaccessid，不支持时保持 null，退化为普通 offset 翻页
+         */
+        static PageCursor fromFirstPage(RiskListResponseReader.PageInfo info) {
+            Integer total = info.getTotal() >= 0 ? info.getTotal() : null;
+            return new PageCursor(total, info.getQueryId(), info.getMaxAccessId());
+        }
+    }
+}
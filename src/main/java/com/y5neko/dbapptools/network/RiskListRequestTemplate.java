@@ -0,0 +1,143 @@
+package com.y5neko.dbapptools.network;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * 告警列表请求体模板
+ * 三十多个固定字段只在创建模板时序列化一次，每个请求只拼接 begin/end/offset/attackgrades 以及翻页游标，
+ * 写出时直接把预先编码好的字节和少量变化字段写入 sink，不再为每个时间段重新构造 JSONObject
+ */
+public class RiskListRequestTemplate {
+
+    public static final MediaType JSON_MEDIA_TYPE = MediaType.get("application/json;charset=UTF-8");
+
+    private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // 不含结尾 '}' 的固定字段
+    private final byte[] prefix;
+
+    public RiskListRequestTemplate(int limit) {
+        this.prefix = compile(staticFields(limit));
+    }
+
+    /**
+     * 与原来逐个 put 的请求体字段一致，值为 null 的字段序列化时本来就会被省略，这里不再列出
+     */
+    private static JSONObject staticFields(int limit) {
+        JSONObject jsonBody = new JSONObject();
+        jsonBody.put("limit", limit);
+        jsonBody.put("assetChildNodes", new Object[0]);
+        jsonBody.put("combined", 1);
+        jsonBody.put("accesssubtype", new Object[0]);
+        jsonBody.put("sips", new Object[0]);
+        jsonBody.put("dips", new Object[0]);
+        jsonBody.put("apptypeids", new Object[0]);
+        jsonBody.put("eventypes", new Object[0]);
+        jsonBody.put("incidentids", new Object[0]);
+        jsonBody.put("pstates", new int[]{0});
+        jsonBody.put("poid", "");
+        jsonBody.put("replycode", "");
+        jsonBody.put("cve", "");
+        jsonBody.put("ruleid", "");
+        jsonBody.put("domain", "");
+        jsonBody.put("cnnvd", "");
+        jsonBody.put("pcapId", "");
+        jsonBody.put("oobcontent", "");
+        jsonBody.put("payload", "");
+        jsonBody.put("timeAgo", "m0");
+        jsonBody.put("attackerip", "");
+        jsonBody.put("nonflags", new Object[0]);
+        return jsonBody;
+    }
+
+    private static byte[] compile(JSONObject fields) {
+        String json = fields.toString();
+        // 去掉结尾的 '}'，后面接变化字段
+        return json.substring(0, json.lastIndexOf('}')).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 构造带 Token 的完整请求
+     */
+    public Request newRequest(String url, String token, TimeRange range, int offset, RiskListPager.PageCursor cursor,
+                              Object attackGrades) {
+        return new Request.Builder()
+                .url(url)
+                .post(create(range, offset, cursor, attackGrades))
+                .header("Authorization", "Bearer " + token)
+                .header("Content-Type", "application/json;charset=UTF-8")
+                .build();
+    }
+
+    /**
+     * @param attackGrades 攻击等级列表，null 表示不限
+     */
+    public RequestBody create(TimeRange range, int offset, RiskListPager.PageCursor cursor, Object attackGrades) {
+        StringBuilder sb = new StringBuilder(160);
+        sb.append(",\"offset\":").append(offset);
+        sb.append(",\"begin\":\"").append(range.start.format(DATE_TIME_FORMATTER)).append('"');
+        sb.append(",\"end\":\"").append(range.end.format(DATE_TIME_FORMATTER)).append('"');
+        if (attackGrades instanceof List) {
+            sb.append(",\"attackgrades\":[");
+            List<?> grades = (List<?>) attackGrades;
+            for (int i = 0; i < grades.size(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append(grades.get(i));
+            }
+            sb.append(']');
+        } else if (attackGrades != null) {
+            sb.append(",\"attackgrades\":").append(JSON.toJSONString(attackGrades));
+        }
+        if (cursor.total != null) {
+            sb.append(",\"total\":").append(cursor.total.intValue());
+        }
+        if (cursor.queryId != null) {
+            sb.append(",\"queryId\":").append(JSON.toJSONString(cursor.queryId));
+        }
+        if (cursor.maxAccessId != null) {
+            sb.append(",\"maxaccessid\":").append(JSON.toJSONString(cursor.maxAccessId));
+        }
+        sb.append('}');
+        return new TemplateBody(prefix, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 固定部分共享同一个数组，可以重复写出（重试时会再次调用 writeTo）
+     */
+    private static final class TemplateBody extends RequestBody {
+        private final byte[] prefix;
+        private final byte[] suffix;
+
+        TemplateBody(byte[] prefix, byte[] suffix) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return JSON_MEDIA_TYPE;
+        }
+
+        @Override
+        public long contentLength() {
+            return prefix.length + suffix.length;
+        }
+
+        @Override
+        public void writeTo(@NotNull BufferedSink sink) throws IOException {
+            sink.write(prefix);
+            sink.write(suffix);
+        }
+    }
+}
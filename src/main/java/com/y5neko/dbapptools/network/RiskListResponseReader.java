@@ -0,0 +1,380 @@
+package com.y5neko.dbapptools.network;
+
+import com.alibaba.fastjson2.JSONException;
+import com.alibaba.fastjson2.JSONFactory;
+import com.alibaba.fastjson2.JSONObject;
+import com.alibaba.fastjson2.JSONReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 告警列表响应的增量解析
+ * JSONReader.of(InputStream) 会先把整个流读进 byte[] 再解析，一页要等全部下载完才能开始处理。
+ * 这里按 8KB 分块读取响应体，自己扫描外层结构（对象、字段名、data.list 的数组边界），
+ * 只把 data 下的标量字段和 list 中的单条记录复制出来交给 JSONReader 解析：
+ * list 之前的 total 一读到就回调 onListStart，记录下载一条解析一条，不生成整个响应的 String 和 JSONObject 树
+ */
+public final class RiskListResponseReader {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    /**
+     * 从 reader 当前位置读取一条完整记录（reader 正位于记录的 '{' 处）
+     */
+    public interface RecordMapper<T> {
+        T read(JSONReader reader);
+    }
+
+    public interface PageCallback<T> {
+        /**
+         * 开始读取 data.list 时回调，此时 info 中只包含 list 之前出现的字段，list 本身还没有下载
+         */
+        default void onListStart(PageInfo info) {}
+
+        void onRecord(T record);
+    }
+
+    /**
+     * 逐条读取为 JSONObject，单条记录仍是 Map，但不会持有整页
+     */
+    public static final RecordMapper<JSONObject> JSON_OBJECT_MAPPER = reader -> new JSONObject(reader.readObject());
+
+    private RiskListResponseReader() {}
+
+    /**
+     * 只读取 total 等字段，data.list 直接跳过
+     */
+    public static PageInfo readInfo(InputStream in) {
+        return read(in, null, null);
+    }
+
+    /**
+     * 解析一页响应
+     * @param mapper 记录转换器，为 null 时跳过 data.list
+     */
+    public static <T> PageInfo read(InputStream in, RecordMapper<T> mapper, PageCallback<T> callback) {
+        Scanner scanner = new Scanner(in);
+        if (scanner.peek() != '{') {
+            throw new JSONException("响应不是 JSON 对象");
+        }
+        scanner.next();
+        PageInfo info = new PageInfo();
+        while (scanner.nextField()) {
+            String name = scanner.readFieldName();
+            if ("data".equals(name) && scanner.peek() == '{') {
+                scanner.next();
+                info.hasData = true;
+                readData(scanner, info, mapper, callback);
+            } else {
+                scanner.skipValue();
+            }
+        }
+        return info;
+    }
+
+    private static <T> void readData(Scanner scanner, PageInfo info, RecordMapper<T> mapper, PageCallback<T> callback) {
+        while (scanner.nextField()) {
+            String name = scanner.readFieldName();
+            switch (name) {
+                case "total":
+                    Integer total = scanner.readValue().readInt32();
+                    info.total = total == null ? -1 : total;
+                    break;
+                case "queryId":
+                    info.queryId = readAsString(scanner.readValue());
+                    break;
+                case "maxaccessid":
+                    info.maxAccessId = readAsString(scanner.readValue());
+                    break;
+                case "list":
+                    readList(scanner, info, mapper, callback);
+                    break;
+                default:
+                    scanner.skipValue();
+            }
+        }
+    }
+
+    private static <T> void readList(Scanner scanner, PageInfo info, RecordMapper<T> mapper, PageCallback<T> callback) {
+        if (mapper == null || scanner.peek() != '[') {
+            // 不需要记录或 list 为 null
+            scanner.skipValue();
+            return;
+        }
+        scanner.next();
+        if (callback != null) {
+            callback.onListStart(info);
+        }
+        while (scanner.nextElement()) {
+            if (scanner.peek() == 'n') {
+                scanner.skipValue();
+                continue;
+            }
+            T record = mapper.read(scanner.readValue());
+            info.recordCount++;
+            if (callback != null && record != null) {
+                callback.onRecord(record);
+            }
+        }
+    }
+
+    private static String readAsString(JSONReader reader) {
+        Object value = reader.readAny();
+        return value == null ? null : String.valueOf(value);
+    }
+
+    /**
+     * 响应体的结构扫描，只识别 JSON 的边界（字符串、括号、逗号、冒号），值的内容交给 JSONReader
+     */
+    private static final class Scanner {
+        private final InputStream in;
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private int pos = 0;
+        private int limit = 0;
+        // 当前值的字节，记录通常不到 1KB，按需扩容后复用
+        private byte[] value = new byte[1024];
+        private int valueLength;
+        private final JSONReader.Context context = JSONFactory.createReadContext();
+
+        Scanner(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * 跳过空白后的下一个字节，不消费；流结束时抛出异常
+         */
+        int peek() {
+            while (true) {
+                if (pos == limit && !fill()) {
+                    throw new JSONException("响应不完整");
+                }
+                byte b = chunk[pos];
+                if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                    return b;
+                }
+                pos++;
+            }
+        }
+
+        int next() {
+            int b = peek();
+            pos++;
+            return b;
+        }
+
+        private boolean fill() {
+            try {
+                int n = in.read(chunk);
+                if (n <= 0) {
+                    return false;
+                }
+                pos = 0;
+                limit = n;
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * 对象中还有下一个字段时返回 true（并消费分隔的逗号），遇到 '}' 时消费它并返回 false
+         */
+        boolean nextField() {
+            return nextMember('}');
+        }
+
+        /**
+         * 数组中还有下一个元素时返回 true，遇到 ']' 时消费它并返回 false
+         */
+        boolean nextElement() {
+            return nextMember(']');
+        }
+
+        /**
+         * 不校验逗号的位置，只负责跳过它；响应格式错误时由 JSONReader 在解析值时报错
+         */
+        private boolean nextMember(char end) {
+            int b = peek();
+            if (b == ',') {
+                pos++;
+                b = peek();
+            }
+            if (b == end) {
+                pos++;
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * 读取字段名和其后的冒号
+         */
+        String readFieldName() {
+            if (peek() != '"') {
+                throw new JSONException("应为字段名，实际为 '" + (char) peek() + "'");
+            }
+            valueLength = 0;
+            copyString();
+            if (next() != ':') {
+                throw new JSONException("字段名后缺少 ':'");
+            }
+            // 字段名很少带转义，没有反斜杠时直接解码，去掉两端引号
+            for (int i = 1; i < valueLength - 1; i++) {
+                if (value[i] == '\\') {
+                    return JSONReader.of(value, 0, valueLength, context).readString();
+                }
+            }
+            return new String(value, 1, valueLength - 2, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * 复制一个完整的值，返回位于该值开头的 JSONReader
+         */
+        JSONReader readValue() {
+            valueLength = 0;
+            scanValue(true);
+            return JSONReader.of(value, 0, valueLength, context);
+        }
+
+        void skipValue() {
+            scanValue(false);
+        }
+
+        /**
+         * 扫描一个值：对象和数组按括号深度扫描到匹配的右括号，字符串扫描到未转义的引号，
+         * 数字和 true/false/null 扫描到下一个分隔符
+         */
+        private void scanValue(boolean copy) {
+            int b = peek();
+            if (b == '"') {
+                if (copy) {
+                    copyString();
+                } else {
+                    skipString();
+                }
+                return;
+            }
+            if (b != '{' && b != '[') {
+                while (true) {
+                    if (pos == limit && !fill()) {
+                        break;
+                    }
+                    byte c = chunk[pos];
+                    if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                        break;
+                    }
+                    if (copy) {
+                        append(c);
+                    }
+                    pos++;
+                }
+                return;
+            }
+            int depth = 0;
+            while (true) {
+                if (pos == limit && !fill()) {
+                    throw new JSONException("响应不完整");
+                }
+                byte c = chunk[pos];
+                if (c == '"') {
+                    if (copy) {
+                        copyString();
+                    } else {
+                        skipString();
+                    }
+                    continue;
+                }
+                pos++;
+                if (copy) {
+                    append(c);
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (--depth == 0) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void copyString() {
+            scanString(true);
+        }
+
+        private void skipString() {
+            scanString(false);
+        }
+
+        /**
+         * 从开头的引号扫描到结尾的引号（都包括在内）
+         */
+        private void scanString(boolean copy) {
+            boolean escaped = false;
+            boolean opening = true;
+            while (true) {
+                if (pos == limit && !fill()) {
+                    throw new JSONException("响应不完整");
+                }
+                byte c = chunk[pos++];
+                if (copy) {
+                    append(c);
+                }
+                if (opening) {
+                    opening = false;
+                } else if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    return;
+                }
+            }
+        }
+
+        private void append(byte b) {
+            if (valueLength == value.length) {
+                value = Arrays.copyOf(value, value.length * 2);
+            }
+            value[valueLength++] = b;
+        }
+    }
+
+    /**
+     * 一页响应中 data 下除 list 以外的字段
+     */
+    public static final class PageInfo {
+        private boolean hasData = false;
+        private int total = -1;
+        private String queryId;
+        private String maxAccessId;
+        private int recordCount = 0;
+
+        public boolean hasData() {
+            return hasData;
+        }
+
+        /**
+         * 响应中没有 total 时返回 -1
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        public String getQueryId() {
+            return queryId;
+        }
+
+        public String getMaxAccessId() {
+            return maxAccessId;
+        }
+
+        public int getRecordCount() {
+            return recordCount;
+        }
+    }
+}
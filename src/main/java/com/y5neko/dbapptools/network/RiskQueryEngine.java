@@ -0,0 +1,696 @@
+package com.y5neko.dbapptools.network;
+
+import com.y5neko.dbapptools.config.GlobalConfig;
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.model.StringDictionary;
+import com.y5neko.dbapptools.store.EventStore;
+import com.y5neko.dbapptools.store.SliceTotalCache;
+import com.y5neko.dbapptools.store.StoreWritingSink;
+import com.y5neko.dbapptools.store.SweepJournal;
+import com.y5neko.dbapptools.utils.LogUtils;
+import okhttp3.OkHttpClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 告警列表查询引擎，与界面无关
+ * 负责拆分时间段、选择执行器（统计/明细/本地存储）、调度和汇总，进度通过 QueryListener 回调，
+ * 最终结果通过 CompletableFuture 返回。图形界面、命令行和压测共用同一条请求路径
+ */
+public class RiskQueryEngine {
+
+    /**
+     * 查询进度回调，均在网络线程上调用，实现需要自行切换线程
+     */
+    public interface QueryListener {
+        /**
+         * 开始调度前回调一次
+         * @param skippedHours 本地存储模式下本地已有、不再请求的小时数
+         */
+        default void onStarted(List<TimeRange> slices, int skippedHours) {}
+
+        /**
+         * 时间段完成，统计模式下 total 为该时间段的告警数，明细模式下为获取到的记录数
+         */
+        default void onSliceDone(TimeRange range, int total) {}
+
+        /**
+         * 自适应拆分时，时间段 total 超过阈值被拆分为 children，该时间段本身不计入结果
+         */
+        default void onSliceSplit(TimeRange range, int total, List<TimeRange> children) {}
+
+        default void onSliceFailed(TimeRange range, String error) {}
+
+        /**
+         * 明细模式下每解析出一条记录回调一次
+         */
+        default void onRecord(TimeRange range, RiskEvent event) {}
+
+        /**
+         * 令牌即将过期或已失效，暂停派发并开始重新登录；只在设置了 TokenManager 时回调
+         */
+        default void onReloginStarted(String reason) {}
+
+        /**
+         * 重新登录结束，error 为 null 表示成功，因令牌失效而失败的时间段已重新提交
+         */
+        default void onReloginFinished(String error) {}
+
+        /**
+         * 从检查点续查，在 onStarted 之前回调，已完成时间段的明细已经通过 onRecord 重放
+         * @param completedSlices 跳过的已完成时间段数
+         * @param replayedRecords 重放的明细记录数（去重前）
+         */
+        default void onResumed(int completedSlices, long replayedRecords, File journal) {}
+    }
+
+    // 执行器发现令牌即将过期时，时间段以此失败并在重新登录后重新提交
+    private static final String TOKEN_EXPIRING = "令牌即将过期";
+
+    private final OkHttpClient client;
+    private final int pageSize;
+    private final RiskListRequestTemplate template;
+
+    public RiskQueryEngine() {
+        this(HttpClientManager.getInstance(), GlobalConfig.LIMIT);
+    }
+
+    public RiskQueryEngine(OkHttpClient client, int pageSize) {
+        this.client = Objects.requireNonNull(client, "client == null");
+        this.pageSize = pageSize;
+        this.template = new RiskListRequestTemplate(pageSize);
+    }
+
+    /**
+     * 开始查询，立即返回
+     */
+    public RunningQuery start(QueryRequest request, QueryListener listener) {
+        Objects.requireNonNull(request, "request == null");
+        QueryListener l = listener != null ? listener : new QueryListener() {};
+        if (request.end.isBefore(request.start)) {
+            throw new IllegalArgumentException("结束时间不能早于开始时间");
+        }
+        return new RunningQuery(request, l);
+    }
+
+    private static String normalizeBaseUrl(String baseUrl) {
+        return baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    }
+
+    /**
+     * 查询参数
+     */
+    public static final class QueryRequest {
+        final String baseUrl;
+        final String token;
+        final LocalDateTime start;
+        final LocalDateTime end;
+        Object attackGrades = null;
+        int maxInFlight = QueryScheduler.DEFAULT_MAX_IN_FLIGHT;
+        RetryPolicy retryPolicy = new RetryPolicy(RetryPolicy.DEFAULT_MAX_RETRIES);
+        int adaptiveThreshold = 0;
+        boolean detail = false;
+        EventStore store = null;
+        SliceTotalCache cache = null;
+        SliceTotalCache.Stats cacheStats = null;
+        RecordDeduplicator.Mode dedupMode = RecordDeduplicator.Mode.EXACT;
+        TokenManager tokens = null;
+        boolean checkpoint = false;
+        StringDictionary dictionary = null;
+
+        public QueryRequest(String baseUrl, String token, LocalDateTime start, LocalDateTime end) {
+            this.baseUrl = normalizeBaseUrl(Objects.requireNonNull(baseUrl, "baseUrl == null"));
+            this.token = Objects.requireNonNull(token, "token == null");
+            this.start = Objects.requireNonNull(start, "start == null");
+            this.end = Objects.requireNonNull(end, "end == null");
+        }
+
+        /**
+         * @param attackGrades 攻击等级列表，null 表示不限
+         */
+        public QueryRequest grades(Object attackGrades) {
+            this.attackGrades = attackGrades;
+            return this;
+        }
+
+        public QueryRequest concurrency(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        public QueryRequest retry(RetryPolicy retryPolicy) {
+            this.retryPolicy = Objects.requireNonNull(retryPolicy, "retryPolicy == null");
+            return this;
+        }
+
+        /**
+         * 统计模式下启用自适应拆分，明细模式下忽略
+         */
+        public QueryRequest adaptive(int threshold) {
+            this.adaptiveThreshold = threshold;
+            return this;
+        }
+
+        /**
+         * 分页获取全部明细
+         */
+        public QueryRequest detail() {
+            this.detail = true;
+            return this;
+        }
+
+        /**
+         * 明细写入本地存储，只请求本地缺失的小时；本地存储保存全部等级，等级设置被忽略
+         */
+        public QueryRequest store(EventStore store) {
+            this.detail = true;
+            this.store = store;
+            return this;
+        }
+
+        /**
+         * 统计模式下使用的时间段 total 缓存
+         */
+        public QueryRequest cache(SliceTotalCache cache) {
+            return cache(cache, null);
+        }
+
+        /**
+         * @param stats 命中统计，缓存由所有查询共用，统计按查询分开；多台设备同时查询时可以传入同一个对象合计
+         */
+        public QueryRequest cache(SliceTotalCache cache, SliceTotalCache.Stats stats) {
+            this.cache = cache;
+            this.cacheStats = stats;
+            return this;
+        }
+
+        /**
+         * 明细模式下按告警 ID 去重，默认 EXACT，null 表示不去重
+         * 本地存储按小时分段写入，不受去重影响
+         */
+        public QueryRequest dedup(RecordDeduplicator.Mode mode) {
+            this.dedupMode = mode;
+            return this;
+        }
+
+        /**
+         * 令牌由 TokenManager 提供，即将过期或返回 401 时暂停查询、重新登录后从失败的时间段继续；
+         * 不设置时始终使用构造时的令牌，令牌失效后剩余时间段全部失败
+         */
+        public QueryRequest tokens(TokenManager tokens) {
+            this.tokens = tokens;
+            return this;
+        }
+
+        /**
+         * 记录检查点（SweepJournal），查询被取消、有失败的时间段或程序被关闭后，用相同参数再次查询时
+         * 跳过已完成的时间段并重放其结果；全部成功后删除检查点。本地存储模式下忽略，存储本身按小时记录进度
+         */
+        public QueryRequest checkpoint() {
+            this.checkpoint = true;
+            return this;
+        }
+
+        /**
+         * 明细记录的字符串编码到这个字典中，通常传入结果表格的字典，省去合并时的转换；
+         * 不设置时每次查询新建一个，随结果一起回收
+         */
+        public QueryRequest dictionary(StringDictionary dictionary) {
+            this.dictionary = dictionary;
+            return this;
+        }
+
+        /**
+         * 决定结果的参数，相同时才能续查；去重在重放时重新进行，不影响检查点
+         */
+        String checkpointKey() {
+            return baseUrl + "|" + start + "|" + end + "|" + attackGrades + "|"
+                    + (detail ? "detail" : "count|" + adaptiveThreshold);
+        }
+
+        public boolean isDetail() {
+            return detail;
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        public int getConcurrency() {
+            return maxInFlight;
+        }
+
+        /**
+         * 未使用本地存储时为 null
+         */
+        public EventStore getStore() {
+            return store;
+        }
+
+        public LocalDateTime getStart() {
+            return start;
+        }
+
+        public LocalDateTime getEnd() {
+            return end;
+        }
+    }
+
+    /**
+     * 进行中的查询
+     */
+    public final class RunningQuery {
+        private final QueryRequest request;
+        private final QueryListener listener;
+        private final CompletableFuture<QueryResult> future = new CompletableFuture<>();
+        private final AdaptiveTimeSplitter splitter;
+        private final QueryScheduler scheduler;
+        private final Map<TimeRange, Integer> sliceTotals = new TreeMap<>(Comparator.comparing((TimeRange r) -> r.start));
+        private final AtomicLong records = new AtomicLong();
+        private final RecordDeduplicator deduplicator;
+        private final long beginNanos = System.nanoTime();
+        private long total = 0;
+        private int skippedHours = 0;
+        // 每个时间段最近一次请求使用的令牌，401 时据此判断是否已经换过令牌
+        private final Map<TimeRange, String> sliceTokens = new ConcurrentHashMap<>();
+        // 等待重新登录的时间段及其失败原因，以下字段由 authFailed 加锁
+        private final Map<TimeRange, String> authFailed = new LinkedHashMap<>();
+        private boolean relogging = false;
+        // 重新登录失败后不再尝试，之后的 401 按普通失败处理
+        private boolean authGaveUp = false;
+        // 检查点，未启用时为 null
+        private final SweepJournal journal;
+        // 每个时间段当前这次请求在检查点中的 seq
+        private final Map<TimeRange, Long> sliceSeqs = new ConcurrentHashMap<>();
+        // 本次查询的明细记录所用的字典
+        private final StringDictionary dictionary;
+
+        RunningQuery(QueryRequest request, QueryListener listener) {
+            this.request = request;
+            this.listener = listener;
+            this.dictionary = request.dictionary != null ? request.dictionary : new StringDictionary();
+            boolean adaptive = request.adaptiveThreshold > 0 && !request.detail;
+            this.splitter = adaptive ? new AdaptiveTimeSplitter(request.adaptiveThreshold) : null;
+            this.deduplicator = request.detail && request.dedupMode != null ? RecordDeduplicator.create(request.dedupMode) : null;
+
+            List<TimeRange> slices;
+            if (request.store != null) {
+                int hours = EventStore.hourPartitions(request.start, request.end).size();
+                slices = request.store.missingHours(request.start, request.end);
+                skippedHours = hours - slices.size();
+            } else if (splitter != null) {
+                slices = splitter.initialWindows(request.start, request.end);
+            } else {
+                slices = TimeRange.splitByHour(request.start, request.end);
+            }
+
+            this.scheduler = new QueryScheduler(request.maxInFlight, createExecutor(), new QueryScheduler.SchedulerListener() {
+                @Override
+                public void onSliceDone(TimeRange range, int sliceTotal) {
+                    RunningQuery.this.onSliceDone(range, sliceTotal);
+                }
+
+                @Override
+                public void onSliceFailed(TimeRange range, String error) {
+                    if (!holdForRelogin(range, error)) {
+                        listener.onSliceFailed(range, error);
+                    }
+                }
+
+                @Override
+                public void onAllFinished(QueryScheduler finished) {
+                    QueryResult result = buildResult();
+                    if (journal != null) {
+                        // 先关闭检查点再通知完成，调用方随后用相同参数重新查询时可以直接打开
+                        if (result.isSuccess()) {
+                            journal.delete();
+                        } else {
+                            journal.close();
+                        }
+                    }
+                    future.complete(result);
+                }
+            });
+            this.journal = request.checkpoint && request.store == null ? openJournal() : null;
+            if (journal != null && journal.isResumed()) {
+                // 重放可能要读较大的文件，不占用调用方线程（通常是界面线程）
+                Thread replay = new Thread(() -> resume(slices), "journal-replay");
+                replay.setDaemon(true);
+                replay.start();
+            } else {
+                listener.onStarted(Collections.unmodifiableList(slices), skippedHours);
+                scheduler.start(slices);
+            }
+        }
+
+        private SweepJournal openJournal() {
+            try {
+                return SweepJournal.open(SweepJournal.defaultDir(), request.baseUrl, request.checkpointKey());
+            } catch (IOException e) {
+                LogUtils.error(RiskQueryEngine.class, "打开检查点失败，本次查询不记录检查点: " + e.getMessage());
+                return null;
+            }
+        }
+
+        /**
+         * 从检查点恢复：已完成的时间段按原来的顺序重新走一遍完成逻辑（自适应拆分按相同规则得到相同的子时间段），
+         * 剩下没有完成的时间段才请求设备
+         */
+        private void resume(List<TimeRange> slices) {
+            Map<TimeRange, Integer> completed = journal.getCompleted();
+            List<TimeRange> remaining = new ArrayList<>();
+            Deque<TimeRange> work = new ArrayDeque<>(slices);
+            int done = 0;
+            while (!work.isEmpty()) {
+                TimeRange range = work.pollFirst();
+                Integer sliceTotal = completed.get(range);
+                if (sliceTotal == null) {
+                    remaining.add(range);
+                    continue;
+                }
+                done++;
+                List<TimeRange> children = splitter != null ? splitter.onTotal(range, sliceTotal) : Collections.emptyList();
+                if (children.isEmpty()) {
+                    synchronized (this) {
+                        sliceTotals.put(range, sliceTotal);
+                        total += sliceTotal;
+                    }
+                } else {
+                    work.addAll(children);
+                }
+            }
+            long replayed = 0;
+            if (request.detail) {
+                // 先完整读出再交付，读取中途失败时一条都不交付，重新请求不会产生重复记录
+                List<TimeRange> replayRanges = new ArrayList<>();
+                List<RiskEvent> replayEvents = new ArrayList<>();
+                try {
+                    journal.replayRecords(dictionary, (range, event) -> {
+                        replayRanges.add(range);
+                        replayEvents.add(event);
+                    });
+                } catch (IOException e) {
+                    LogUtils.error(RiskQueryEngine.class, "读取检查点失败，丢弃检查点，已完成的时间段重新请求: " + e.getMessage());
+                    replayRanges.clear();
+                    replayEvents.clear();
+                    journal.reset();
+                    synchronized (this) {
+                        for (TimeRange range : new ArrayList<>(sliceTotals.keySet())) {
+                            remaining.add(range);
+                            total -= sliceTotals.remove(range);
+                        }
+                    }
+                    done = 0;
+                }
+                for (int i = 0; i < replayEvents.size(); i++) {
+                    deliver(replayRanges.get(i), replayEvents.get(i));
+                }
+                replayed = replayEvents.size();
+            }
+            LogUtils.info(RiskQueryEngine.class, "从检查点续查 " + journal.getFile() + "，跳过 " + done + " 个已完成的时间段");
+            listener.onResumed(done, replayed, journal.getFile());
+            listener.onStarted(Collections.unmodifiableList(remaining), skippedHours);
+            scheduler.start(remaining);
+        }
+
+        private QueryScheduler.SliceExecutor createExecutor() {
+            String url = request.baseUrl + GlobalConfig.RISK_LIST_URL;
+            // 本地存储保存全部等级，等级在读取时本地筛选
+            Object attackGrades = request.store != null ? null : request.attackGrades;
+            RiskListPager.PageRequestFactory requestFactory = (range, offset, cursor) -> {
+                String token = request.tokens != null ? request.tokens.getToken() : request.token;
+                sliceTokens.put(range, token);
+                return template.newRequest(url, token, range, offset, cursor, attackGrades);
+            };
+            QueryScheduler.SliceExecutor executor = createSliceExecutor(requestFactory, attackGrades);
+            return (range, handle) -> {
+                if (request.tokens != null && request.tokens.isExpiring() && !hasGivenUpAuth()) {
+                    handle.fail(TOKEN_EXPIRING);
+                    return;
+                }
+                // 确实要请求时才在检查点中开始，等待重新登录的时间段不留下没有结果的 S 行
+                if (journal != null) {
+                    sliceSeqs.put(range, journal.begin(range));
+                }
+                executor.execute(range, handle);
+            };
+        }
+
+        private QueryScheduler.SliceExecutor createSliceExecutor(RiskListPager.PageRequestFactory requestFactory,
+                                                                Object attackGrades) {
+            if (!request.detail) {
+                return new RiskCountExecutor(client, requestFactory, request.retryPolicy, request.cache, request.cacheStats,
+                        request.baseUrl,
+                        attackGrades);
+            }
+            StoreWritingSink storeSink = request.store != null ? new StoreWritingSink(request.store) : null;
+            return new RiskListPager<>(client, pageSize, requestFactory, new RiskEventMapper(dictionary),
+                    new RiskRecordSink<RiskEvent>() {
+                        @Override
+                        public void onRecord(TimeRange range, RiskEvent record) {
+                            // 分段写入器只接受本小时的记录，边界上的重复记录由它自己排除；
+                            // 失败的小时会整体丢弃，所以存储不能依赖去重结果
+                            if (storeSink != null) {
+                                storeSink.onRecord(range, record);
+                            }
+                            if (journal != null) {
+                                Long seq = sliceSeqs.get(range);
+                                if (seq != null) {
+                                    journal.record(seq, record);
+                                }
+                            }
+                            deliver(range, record);
+                        }
+
+                        @Override
+                        public void onSliceComplete(TimeRange range, int recordCount) {
+                            if (storeSink != null) {
+                                storeSink.onSliceComplete(range, recordCount);
+                            }
+                        }
+
+                        @Override
+                        public void onSliceFailed(TimeRange range, String error) {
+                            if (storeSink != null) {
+                                storeSink.onSliceFailed(range, error);
+                            }
+                        }
+                    }, request.retryPolicy);
+        }
+
+        private boolean hasGivenUpAuth() {
+            synchronized (authFailed) {
+                return authGaveUp;
+            }
+        }
+
+        /**
+         * 因令牌失效而失败的时间段暂不报告失败，暂停调度器并重新登录，成功后重新提交
+         * 在调度器的失败回调中同步调用，调度器随后检查是否结束时已经处于暂停状态
+         * @return 时间段已由重新登录接管时返回 true
+         */
+        private boolean holdForRelogin(TimeRange range, String error) {
+            TokenManager tokens = request.tokens;
+            boolean expiring = TOKEN_EXPIRING.equals(error);
+            if (tokens == null || !(expiring || RetryPolicy.isUnauthorized(error))) {
+                return false;
+            }
+            String staleToken = expiring ? tokens.getToken() : sliceTokens.get(range);
+            boolean retryNow = false;
+            synchronized (authFailed) {
+                if (authGaveUp) {
+                    return false;
+                }
+                if (!relogging && staleToken != null && !staleToken.equals(tokens.getToken())) {
+                    retryNow = true;
+                } else {
+                    authFailed.put(range, error);
+                    if (relogging) {
+                        return true;
+                    }
+                    relogging = true;
+                }
+            }
+            if (retryNow) {
+                // 请求发出后令牌已经更新，直接用新令牌重试
+                scheduler.submit(range);
+                return true;
+            }
+            scheduler.pause();
+            String reason = expiring ? "令牌剩余 " + tokens.getRemainingSeconds() + " 秒" : "令牌已失效";
+            LogUtils.info(RiskQueryEngine.class, tokens.getAppliance() + " " + reason + "，暂停查询并重新登录");
+            listener.onReloginStarted(reason);
+            tokens.refresh(staleToken).whenComplete((token, e) -> onReloginDone(e));
+            return true;
+        }
+
+        private void onReloginDone(Throwable e) {
+            Map<TimeRange, String> held;
+            synchronized (authFailed) {
+                relogging = false;
+                authGaveUp = e != null;
+                held = new LinkedHashMap<>(authFailed);
+                authFailed.clear();
+            }
+            String error = null;
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null
+                        ? e.getCause() : e;
+                error = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+            }
+            for (Map.Entry<TimeRange, String> entry : held.entrySet()) {
+                // 放弃重新登录时，还没发出的时间段仍用旧令牌尝试，已经 401 的时间段报告失败
+                if (e == null || TOKEN_EXPIRING.equals(entry.getValue())) {
+                    scheduler.submit(entry.getKey());
+                } else {
+                    listener.onSliceFailed(entry.getKey(), entry.getValue());
+                }
+            }
+            listener.onReloginFinished(error);
+            scheduler.resume();
+        }
+
+        /**
+         * 去重后推送给监听器，实时获取和检查点重放共用
+         */
+        private void deliver(TimeRange range, RiskEvent record) {
+            if (deduplicator != null && !deduplicator.firstSeen(record.getId())) {
+                return;
+            }
+            records.incrementAndGet();
+            listener.onRecord(range, record);
+        }
+
+        private void onSliceDone(TimeRange range, int sliceTotal) {
+            if (journal != null) {
+                Long seq = sliceSeqs.remove(range);
+                if (seq != null) {
+                    journal.complete(seq, sliceTotal);
+                }
+            }
+            if (splitter != null) {
+                List<TimeRange> children = splitter.onTotal(range, sliceTotal);
+                if (!children.isEmpty()) {
+                    listener.onSliceSplit(range, sliceTotal, children);
+                    for (TimeRange child : children) {
+                        scheduler.submit(child);
+                    }
+                    return;
+                }
+            }
+            synchronized (this) {
+                sliceTotals.put(range, sliceTotal);
+                total += sliceTotal;
+            }
+            listener.onSliceDone(range, sliceTotal);
+        }
+
+        private QueryResult buildResult() {
+            synchronized (this) {
+                // 明细模式下各时间段的记录数包含重复记录，总数以去重后的记录数为准
+                long resultTotal = request.detail ? records.get() : total;
+                return new QueryResult(request, resultTotal, records.get(), new LinkedHashMap<>(sliceTotals),
+                        scheduler.getFailedSlices(), scheduler.isCancelled(),
+                        scheduler.getCount(QueryScheduler.SliceState.DONE),
+                        scheduler.getCount(QueryScheduler.SliceState.CANCELLED), skippedHours, splitter, deduplicator,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beginNanos));
+            }
+        }
+
+        /**
+         * 查询结束（包括被取消）时完成，不会异常完成
+         */
+        public CompletableFuture<QueryResult> getFuture() {
+            return future;
+        }
+
+        public void cancel() {
+            scheduler.cancel();
+        }
+
+        /**
+         * 本次查询的明细记录所用的字典
+         */
+        public StringDictionary getDictionary() {
+            return dictionary;
+        }
+
+        public QueryRequest getRequest() {
+            return request;
+        }
+
+        public QueryScheduler getScheduler() {
+            return scheduler;
+        }
+
+        /**
+         * 已完成的时间段 total 之和
+         */
+        public synchronized long getTotal() {
+            return total;
+        }
+
+        public long getRecordCount() {
+            return records.get();
+        }
+
+        /**
+         * 未去重时为 null
+         */
+        public RecordDeduplicator getDeduplicator() {
+            return deduplicator;
+        }
+    }
+
+    /**
+     * 查询结果
+     */
+    public static final class QueryResult {
+        public final QueryRequest request;
+        // 统计模式下为告警总数，明细模式下为获取到的记录数（去重后）
+        public final long total;
+        public final long recordCount;
+        // 最终（未被拆分的）时间段及其 total，按开始时间排序
+        public final Map<TimeRange, Integer> sliceTotals;
+        // 重试后仍失败的时间段，不含被取消的
+        public final Map<TimeRange, String> failedSlices;
+        public final boolean cancelled;
+        public final int doneCount;
+        public final int cancelledCount;
+        public final int skippedHours;
+        // 未启用自适应拆分时为 null
+        public final AdaptiveTimeSplitter splitter;
+        // 明细去重，未去重时为 null
+        public final RecordDeduplicator deduplicator;
+        public final long elapsedMillis;
+
+        QueryResult(QueryRequest request, long total, long recordCount, Map<TimeRange, Integer> sliceTotals,
+                    Map<TimeRange, String> failedSlices, boolean cancelled, int doneCount, int cancelledCount,
+                    int skippedHours, AdaptiveTimeSplitter splitter, RecordDeduplicator deduplicator, long elapsedMillis) {
+            this.request = request;
+            this.total = total;
+            this.recordCount = recordCount;
+            this.sliceTotals = Collections.unmodifiableMap(sliceTotals);
+            this.failedSlices = Collections.unmodifiableMap(failedSlices);
+            this.cancelled = cancelled;
+            this.doneCount = doneCount;
+            this.cancelledCount = cancelledCount;
+            this.skippedHours = skippedHours;
+            this.splitter = splitter;
+            this.deduplicator = deduplicator;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public boolean isSuccess() {
+            return !cancelled && failedSlices.isEmpty();
+        }
+    }
+}
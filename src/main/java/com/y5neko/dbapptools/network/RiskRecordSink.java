@@ -0,0 +1,19 @@
+package com.y5neko.dbapptools.network;
+
+/**
+ * 告警记录的消费端，记录在 OkHttp 回调线程中推送，实现需要自行保证线程安全
+ */
+public interface RiskRecordSink<T> {
+
+    void onRecord(TimeRange range, T record);
+
+    /**
+     * 某个时间段的所有分页都已获取完毕
+     */
+    default void onSliceComplete(TimeRange range, int recordCount) {}
+
+    /**
+     * 某个时间段获取失败，之前推送的该时间段记录不完整
+     */
+    default void onSliceFailed(TimeRange range, String error) {}
+}
@@ -0,0 +1,279 @@
+package com.y5neko.dbapptools.network;
+
+import com.y5neko.dbapptools.aggregate.LongCountMap;
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.utils.LogUtils;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 持续跟踪新告警
+ * 每个周期只查询上一周期结束时间（减去重叠时间）到当前时间的明细，通常只有一页，而不是重新扫描整天。
+ * <p>
+ * 设备返回的 maxaccessid 只是翻页时的快照游标，不能作为“大于某个 ID”的查询条件，所以这里按时间窗口增量查询：
+ * 相邻窗口重叠 overlapSeconds 秒，用来接住入库稍晚、时间戳落在上个窗口里的告警，重叠部分按告警 ID 去重。
+ * 周期之间不会重叠，上一周期结束后才开始计时；某个周期失败时不前移窗口，下一周期重新覆盖
+ */
+public class RiskTailFollower {
+
+    public static final int DEFAULT_INTERVAL_SECONDS = 30;
+    public static final int DEFAULT_OVERLAP_SECONDS = 60;
+
+    /**
+     * 跟踪回调，均在跟踪线程或网络线程上调用
+     */
+    public interface TailListener {
+        /**
+         * 新告警，已按 ID 去重
+         */
+        default void onRecord(RiskEvent event) {}
+
+        /**
+         * 一个周期完成
+         * @param newRecords 本周期新增的告警数
+         */
+        default void onTick(TimeRange window, int newRecords, long elapsedMillis) {}
+
+        /**
+         * 一个周期有时间段重试后仍失败，窗口不前移
+         */
+        default void onTickFailed(TimeRange window, String error) {}
+
+        /**
+         * 周期内重新登录，error 为 null 表示成功
+         */
+        default void onRelogin(String error) {}
+    }
+
+    private final RiskQueryEngine engine;
+    private final String baseUrl;
+    private final String token;
+    private Object attackGrades = null;
+    private RetryPolicy retryPolicy = new RetryPolicy(RetryPolicy.DEFAULT_MAX_RETRIES);
+    private TokenManager tokens = null;
+    private int intervalSeconds = DEFAULT_INTERVAL_SECONDS;
+    private int overlapSeconds = DEFAULT_OVERLAP_SECONDS;
+
+    private ScheduledExecutorService executor;
+    private volatile RiskQueryEngine.RunningQuery current;
+    private volatile boolean stopped = false;
+
+    // 以下状态只在跟踪线程上访问
+    // 下一周期窗口的起点，第一周期为 since，之后为上一周期结束时间减去重叠时间
+    private LocalDateTime nextBegin;
+    // 重叠窗口内已输出的告警 ID -> 告警时间；ID 为 0（响应中没有 ID）的告警无法去重，不放入
+    private final LongCountMap recentIds = new LongCountMap(1024);
+
+    private volatile long lastEventTime = -1;
+    private volatile long tickCount = 0;
+    private volatile long recordCount = 0;
+
+    /**
+     * @param since 第一周期的起始时间
+     */
+    public RiskTailFollower(RiskQueryEngine engine, String baseUrl, String token, LocalDateTime since) {
+        this.engine = Objects.requireNonNull(engine, "engine == null");
+        this.baseUrl = Objects.requireNonNull(baseUrl, "baseUrl == null");
+        this.token = Objects.requireNonNull(token, "token == null");
+        this.nextBegin = Objects.requireNonNull(since, "since == null").truncatedTo(ChronoUnit.SECONDS);
+    }
+
+    /**
+     * @param attackGrades 攻击等级列表，null 表示不限
+     */
+    public RiskTailFollower grades(Object attackGrades) {
+        this.attackGrades = attackGrades;
+        return this;
+    }
+
+    public RiskTailFollower retry(RetryPolicy retryPolicy) {
+        this.retryPolicy = Objects.requireNonNull(retryPolicy, "retryPolicy == null");
+        return this;
+    }
+
+    /**
+     * 令牌由 TokenManager 提供，跟踪期间令牌过期时自动重新登录；设置后构造时传入的令牌不再使用
+     */
+    public RiskTailFollower tokens(TokenManager tokens) {
+        this.tokens = tokens;
+        return this;
+    }
+
+    public RiskTailFollower interval(int seconds) {
+        if (seconds <= 0) {
+            throw new IllegalArgumentException("跟踪间隔必须大于 0");
+        }
+        this.intervalSeconds = seconds;
+        return this;
+    }
+
+    public RiskTailFollower overlap(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("重叠时间不能小于 0");
+        }
+        this.overlapSeconds = seconds;
+        return this;
+    }
+
+    /**
+     * 开始跟踪，第一周期立即执行
+     */
+    public synchronized void start(TailListener listener) {
+        if (executor != null) {
+            throw new IllegalStateException("已经在跟踪中");
+        }
+        TailListener l = listener != null ? listener : new TailListener() {};
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "risk-tail");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                tick(l);
+            } catch (Throwable e) {
+                // 异常会让 scheduleWithFixedDelay 停止后续周期，这里吞掉并记录
+                LogUtils.error(RiskTailFollower.class, "跟踪周期执行异常", e);
+            }
+        }, 0, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 停止跟踪并取消正在进行的周期
+     */
+    public synchronized void stop() {
+        stopped = true;
+        RiskQueryEngine.RunningQuery running = current;
+        if (running != null) {
+            running.cancel();
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 等待跟踪线程退出
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        ScheduledExecutorService e;
+        synchronized (this) {
+            e = executor;
+        }
+        return e == null || e.awaitTermination(timeout, unit);
+    }
+
+    private void tick(TailListener listener) {
+        if (stopped) {
+            return;
+        }
+        LocalDateTime end = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+        LocalDateTime begin = nextBegin;
+        if (!end.isAfter(begin)) {
+            return;
+        }
+        TimeRange window = new TimeRange(begin, end);
+        long beginNanos = System.nanoTime();
+        int[] newRecords = {0};
+
+        RiskQueryEngine.QueryRequest request = new RiskQueryEngine.QueryRequest(baseUrl,
+                tokens != null ? tokens.getToken() : token, begin, end)
+                .grades(attackGrades)
+                .retry(retryPolicy)
+                .tokens(tokens)
+                .detail();
+        RiskQueryEngine.RunningQuery running = engine.start(request, new RiskQueryEngine.QueryListener() {
+            @Override
+            public void onRecord(TimeRange range, RiskEvent event) {
+                // 同一周期的多个时间段在不同网络线程上回调
+                synchronized (recentIds) {
+                    long id = event.getId();
+                    if (id != 0) {
+                        if (recentIds.containsKey(id)) {
+                            return;
+                        }
+                        recentIds.put(id, event.getTime());
+                    }
+                    newRecords[0]++;
+                    if (event.getTime() > lastEventTime) {
+                        lastEventTime = event.getTime();
+                    }
+                }
+                listener.onRecord(event);
+            }
+
+            @Override
+            public void onReloginFinished(String error) {
+                listener.onRelogin(error);
+            }
+        });
+        current = running;
+        if (stopped) {
+            running.cancel();
+        }
+        RiskQueryEngine.QueryResult result;
+        try {
+            result = running.getFuture().get();
+        } catch (InterruptedException e) {
+            // stop 时 shutdownNow 会中断跟踪线程
+            running.cancel();
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            // getFuture 不会异常完成
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            current = null;
+        }
+        if (result.cancelled) {
+            return;
+        }
+        tickCount++;
+        synchronized (recentIds) {
+            recordCount += newRecords[0];
+        }
+        if (!result.failedSlices.isEmpty()) {
+            listener.onTickFailed(window, result.failedSlices.values().iterator().next());
+            return;
+        }
+        nextBegin = end.minusSeconds(overlapSeconds);
+        pruneRecentIds(nextBegin.minusSeconds(1));
+        listener.onTick(window, newRecords[0], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beginNanos));
+    }
+
+    /**
+     * 删除早于下一周期窗口起点的 ID，去重表的大小只与重叠窗口内的告警数有关
+     */
+    private void pruneRecentIds(LocalDateTime before) {
+        long beforeMillis = before.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        synchronized (recentIds) {
+            recentIds.removeValuesBelow(beforeMillis);
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return !stopped && executor != null;
+    }
+
+    /**
+     * 最新一条告警的时间，毫秒时间戳，还没有告警时为 -1
+     */
+    public long getLastEventTime() {
+        return lastEventTime;
+    }
+
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+}
@@ -0,0 +1,54 @@
+package com.y5neko.dbapptools.network;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 查询时间段 [start, end]
+ */
+public final class TimeRange {
+    public final LocalDateTime start;
+    public final LocalDateTime end;
+
+    public TimeRange(LocalDateTime start, LocalDateTime end) {
+        this.start = Objects.requireNonNull(start, "start == null");
+        this.end = Objects.requireNonNull(end, "end == null");
+    }
+
+    /**
+     * 按小时拆分 [start, end]，最后一段不足一小时时截止到 end
+     */
+    public static List<TimeRange> splitByHour(LocalDateTime start, LocalDateTime end) {
+        List<TimeRange> list = new ArrayList<>();
+        LocalDateTime curStart = start;
+        while (curStart.isBefore(end)) {
+            LocalDateTime curEnd = curStart.plusHours(1);
+            if (curEnd.isAfter(end)) {
+                curEnd = end;
+            }
+            list.add(new TimeRange(curStart, curEnd));
+            curStart = curEnd;
+        }
+        return list;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof TimeRange)) return false;
+        TimeRange other = (TimeRange) o;
+        return start.equals(other.start) && end.equals(other.end);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * start.hashCode() + end.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return start + " ~ " + end;
+    }
+}
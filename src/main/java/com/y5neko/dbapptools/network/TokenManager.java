@@ -0,0 +1,258 @@
+package com.y5neko.dbapptools.network;
+
+import com.y5neko.dbapptools.utils.JwtUtils;
+import com.y5neko.dbapptools.utils.LogUtils;
+
+import java.util.Base64;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * 一台设备的登录令牌，供长时间的查询使用
+ * 查询引擎在发出请求前检查剩余有效期，不足 refreshMargin 秒时暂停派发并重新登录；请求返回 401 时同样重新登录，
+ * 失败的时间段在登录成功后重新提交。重新登录需要验证码，由 CaptchaSolver 提供（人工输入或外部识别程序）。
+ * <p>
+ * 同一时刻只有一次重新登录，多个时间段同时发现令牌失效时共用同一个结果
+ */
+public final class TokenManager {
+
+    public static final int DEFAULT_REFRESH_MARGIN_SECONDS = 300;
+    // 验证码输错时重新获取验证码的次数
+    public static final int MAX_CAPTCHA_ATTEMPTS = 3;
+
+    /**
+     * 验证码来源，在独立的 token-refresh 线程上调用，可以阻塞等待输入
+     */
+    public interface CaptchaSolver {
+        /**
+         * @param appliance 设备名称，用于提示
+         * @param image 验证码图片
+         * @return 验证码，返回 null 表示放弃重新登录
+         */
+        String solve(String appliance, byte[] image) throws Exception;
+    }
+
+    /**
+     * 重新登录结果回调，在 token-refresh 线程上调用
+     */
+    public interface RefreshListener {
+        default void onRefreshed(String token) {}
+
+        default void onRefreshFailed(String error) {}
+    }
+
+    private final String appliance;
+    private final String baseUrl;
+    private final String username;
+    private final String password;
+    private final CaptchaSolver solver;
+    private final AuthService authService = new AuthService();
+    private RefreshListener listener = new RefreshListener() {};
+    private int refreshMargin = DEFAULT_REFRESH_MARGIN_SECONDS;
+
+    private volatile String token;
+    // 令牌的过期时间（秒），无法解析或没有 exp 时为 Long.MAX_VALUE
+    private volatile long expiresAt;
+    // 令牌的有效期（秒），没有签发时间时取拿到令牌时的剩余秒数
+    private volatile long lifetime;
+    // 进行中的重新登录，没有时为 null
+    private CompletableFuture<String> refreshing;
+
+    public TokenManager(String appliance, String baseUrl, String username, String password, String token,
+                        CaptchaSolver solver) {
+        this.appliance = appliance;
+        Objects.requireNonNull(baseUrl, "baseUrl == null");
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.username = username;
+        this.password = password;
+        this.solver = Objects.requireNonNull(solver, "solver == null");
+        setToken(token == null ? "" : token);
+    }
+
+    /**
+     * 剩余有效期少于 seconds 秒时提前重新登录
+     */
+    public TokenManager margin(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("提前时间不能小于 0");
+        }
+        this.refreshMargin = seconds;
+        return this;
+    }
+
+    public TokenManager listener(RefreshListener listener) {
+        this.listener = listener != null ? listener : new RefreshListener() {};
+        return this;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getAppliance() {
+        return appliance;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * 剩余秒数，令牌没有 exp 或无法解析时返回 null
+     */
+    public Long getRemainingSeconds() {
+        long exp = expiresAt;
+        return exp == Long.MAX_VALUE ? null : exp - System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * 剩余有效期不足 refreshMargin 秒（包括已经过期）
+     * 设备签发的有效期比 refreshMargin 还短时按有效期的一半计算，否则刚登录就会再次判定为即将过期
+     */
+    public boolean isExpiring() {
+        Long remaining = getRemainingSeconds();
+        return remaining != null && remaining <= Math.min(refreshMargin, lifetime / 2);
+    }
+
+    /**
+     * 重新登录
+     * @param staleToken 调用方发现失效的令牌；当前令牌已经不是它时说明别的调用方刚刚完成了重新登录，直接返回当前令牌
+     * @return 新令牌；放弃或登录失败时异常完成
+     */
+    public synchronized CompletableFuture<String> refresh(String staleToken) {
+        if (refreshing != null) {
+            return refreshing;
+        }
+        if (staleToken != null && !staleToken.equals(token)) {
+            return CompletableFuture.completedFuture(token);
+        }
+        CompletableFuture<String> future = new CompletableFuture<>();
+        refreshing = future;
+        Thread thread = new Thread(() -> {
+            try {
+                String newToken = login();
+                setToken(newToken);
+                LogUtils.info(TokenManager.class, appliance + " 重新登录成功");
+                listener.onRefreshed(newToken);
+                future.complete(newToken);
+            } catch (Exception e) {
+                String error = e.getMessage() != null ? e.getMessage() : e.toString();
+                LogUtils.error(TokenManager.class, appliance + " 重新登录失败: " + error);
+                listener.onRefreshFailed(error);
+                future.completeExceptionally(e);
+            } finally {
+                synchronized (TokenManager.this) {
+                    refreshing = null;
+                }
+            }
+        }, "token-refresh");
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+
+    private String login() throws Exception {
+        if (username == null || username.isEmpty() || password == null || password.isEmpty()) {
+            throw new IllegalStateException("没有保存用户名和密码，无法重新登录");
+        }
+        String lastError = null;
+        for (int attempt = 1; attempt <= MAX_CAPTCHA_ATTEMPTS; attempt++) {
+            String[] captcha = fetchCaptcha();
+            byte[] image = Base64.getDecoder().decode(stripDataUrl(captcha[0]));
+            String code = solver.solve(appliance, image);
+            if (code == null || code.trim().isEmpty()) {
+                throw new IllegalStateException("已放弃重新登录");
+            }
+            String response = loginOnce(code.trim(), captcha[1]);
+            String newToken = AuthService.extractToken(response);
+            if (newToken != null) {
+                return newToken;
+            }
+            lastError = "登录失败: " + response;
+            LogUtils.warn(TokenManager.class, appliance + " 第 " + attempt + " 次重新登录失败: " + response);
+        }
+        throw new IllegalStateException(lastError);
+    }
+
+    /**
+     * @return {base64 图片, hash}
+     */
+    private String[] fetchCaptcha() throws Exception {
+        CompletableFuture<String[]> result = new CompletableFuture<>();
+        new CaptchaService(baseUrl).fetchCaptcha((base64Image, hash, error) -> {
+            if (error != null) {
+                result.completeExceptionally(new IllegalStateException("获取验证码失败: " + error));
+            } else {
+                result.complete(new String[]{base64Image, hash});
+            }
+        });
+        return join(result);
+    }
+
+    private String loginOnce(String captcha, String hash) throws Exception {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        authService.loginWithPassword(baseUrl, username, password, captcha, 1, hash, new AuthService.LoginCallback() {
+            @Override
+            public void onSuccess(String response) {
+                result.complete(response);
+            }
+
+            @Override
+            public void onFailure(String error) {
+                result.completeExceptionally(new IllegalStateException("登录请求失败: " + error));
+            }
+        });
+        return join(result);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * 验证码接口返回的图片可能带 data:image/png;base64, 前缀
+     */
+    private static String stripDataUrl(String base64) {
+        int comma = base64.indexOf(',');
+        return base64.startsWith("data:") && comma >= 0 ? base64.substring(comma + 1) : base64;
+    }
+
+    private void setToken(String newToken) {
+        long exp = Long.MAX_VALUE;
+        long remainingSeconds = Long.MAX_VALUE;
+        try {
+            JwtUtils.JwtInfo info = JwtUtils.parse(newToken);
+            Long remaining = JwtUtils.getRemainingSeconds(info);
+            if (remaining != null) {
+                exp = System.currentTimeMillis() / 1000 + remaining;
+                remainingSeconds = remaining;
+                // 有签发时间时按完整有效期计算，旧令牌剩余不多时也能按 refreshMargin 提前登录
+                Long issuedAt = JwtUtils.getClaimAsString(info, "iat").map(TokenManager::parseSeconds).orElse(null);
+                if (issuedAt != null && issuedAt < exp) {
+                    remainingSeconds = exp - issuedAt;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            // 不是 JWT，无法提前判断，只能等 401
+        }
+        // 先更新过期时间，读到新令牌的线程不会再按旧的过期时间判断
+        expiresAt = exp;
+        lifetime = remainingSeconds;
+        token = newToken;
+    }
+
+    private static Long parseSeconds(String value) {
+        try {
+            long n = Long.parseLong(value);
+            return n > 1_000_000_000_000L ? n / 1000 : n;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
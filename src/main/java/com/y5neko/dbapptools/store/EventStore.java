@@ -0,0 +1,670 @@
+package com.y5neko.dbapptools.store;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONArray;
+import com.alibaba.fastjson2.JSONObject;
+import com.y5neko.dbapptools.config.GlobalConfig;
+import com.y5neko.dbapptools.model.DictionaryRemapper;
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.model.StringDictionary;
+import com.y5neko.dbapptools.network.TimeRange;
+import com.y5neko.dbapptools.utils.IpUtils;
+import com.y5neko.dbapptools.utils.LogUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 本地告警存储
+ * 每台设备一个目录，按小时分区，每个小时一个只追加的分段文件（格式见 SegmentFormat），
+ * 按 IP、规则、CVE、域名检索时在分段旁建立倒排索引（见 SegmentIndex），manifest.json 记录哪些小时已经完整获取。已经结束的小时不会再变化，重复查询时只需要向设备请求缺失或尚未结束的小时
+ * <p>
+ * 每个目录在进程内只有一个实例（见 open）。写入时对目录下的 store.lock 加文件锁，同一时间只有一个进程写入，
+ * 取得锁时重新读取其他进程写入的 manifest 和字典；没有写入器时释放。读取不加锁，字典文件变长时补读新增的部分
+ */
+public class EventStore {
+
+    /**
+     * 小时结束后再等一段时间才视为不再变化，给设备入库留出余量
+     */
+    public static final Duration CLOSE_DELAY = Duration.ofMinutes(10);
+
+    private static final DateTimeFormatter HOUR_KEY_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMddHH");
+    private static final String MANIFEST_FILE = "manifest.json";
+    private static final String DICTIONARY_FILE = "dictionary.txt";
+    private static final String LOCK_FILE = "store.lock";
+    // 字典文件头，之后每行 "编号\t字符串"；没有文件头的是按行号隐含编号的旧格式，取得写锁时改写
+    private static final String DICTIONARY_HEADER = "#\t2";
+
+    // 规范化的目录路径 -> 实例
+    private static final ConcurrentHashMap<String, EventStore> STORES = new ConcurrentHashMap<>();
+
+    private final File dir;
+    private final Set<String> completeHours = new TreeSet<>();
+    // 存储目录自己的字典，保证重启后仍然可用；从存储读出的 RiskEvent 直接使用这个字典
+    private final StringDictionary dictionary = new StringDictionary();
+    private int persistedDictionarySize = 1;
+    // 已读取的字典文件长度（只计完整的行），读取时据此判断其他进程是否追加过
+    private long dictionaryFileLength = 0;
+    private boolean legacyDictionary = false;
+    // 字典文件损坏，存储不能再读写
+    private IOException dictionaryError;
+    // 写锁，有写入器时持有
+    private int activeWriters = 0;
+    private FileChannel lockChannel;
+    private FileLock lock;
+
+    private EventStore(File dir) {
+        this.dir = dir;
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        loadManifest();
+        try {
+            loadDictionary(false);
+        } catch (IOException e) {
+            dictionaryError = e;
+            LogUtils.error(EventStore.class, "本地存储字典损坏，该存储不能使用: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 按设备地址打开默认位置的存储
+     */
+    public static EventStore open(String baseUrl) {
+        return open(new File(defaultRoot(), applianceKey(baseUrl)));
+    }
+
+    /**
+     * 打开指定目录的存储，同一目录始终返回同一个实例，多个实例各自追加字典会损坏字典文件
+     */
+    public static EventStore open(File dir) {
+        String key = dir.getAbsoluteFile().toPath().normalize().toString();
+        return STORES.computeIfAbsent(key, k -> new EventStore(dir));
+    }
+
+    public static File defaultRoot() {
+        return new File(GlobalConfig.DIR[0], "store");
+    }
+
+    /**
+     * 设备地址转成可以作为目录名的形式
+     */
+    public static String applianceKey(String baseUrl) {
+        String key = baseUrl.replaceFirst("^[a-zA-Z]+://", "");
+        if (key.endsWith("/")) {
+            key = key.substring(0, key.length() - 1);
+        }
+        return key.replaceAll("[^a-zA-Z0-9.\\-]", "_");
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * 存储目录的字典，分段中的字符串编号和非 IPv4 地址都属于它
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * 覆盖 [start, end] 的整点小时分区
+     */
+    public static List<TimeRange> hourPartitions(LocalDateTime start, LocalDateTime end) {
+        List<TimeRange> list = new ArrayList<>();
+        LocalDateTime hour = start.truncatedTo(ChronoUnit.HOURS);
+        while (hour.isBefore(end) || (hour.equals(end) && list.isEmpty())) {
+            list.add(new TimeRange(hour, hour.plusHours(1)));
+            hour = hour.plusHours(1);
+        }
+        return list;
+    }
+
+    /**
+     * 需要从设备获取的小时分区：未完整获取过的，以及尚未结束的
+     */
+    public List<TimeRange> missingHours(LocalDateTime start, LocalDateTime end) {
+        List<TimeRange> missing = new ArrayList<>();
+        for (TimeRange hour : hourPartitions(start, end)) {
+            if (!isComplete(hour)) {
+                missing.add(hour);
+            }
+        }
+        return missing;
+    }
+
+    public static boolean isClosed(TimeRange hour) {
+        return hour.end.plus(CLOSE_DELAY).isBefore(LocalDateTime.now());
+    }
+
+    public synchronized boolean isComplete(TimeRange hour) {
+        return completeHours.contains(hourKey(hour.start));
+    }
+
+    /**
+     * 打开某个小时分区的写入器，提交前数据写在临时文件中，提交后整体替换原分段
+     * 其他进程正在写入同一目录时抛出 IOException
+     */
+    public SegmentWriter openWriter(TimeRange hour) throws IOException {
+        acquireWriter();
+        try {
+            return new SegmentWriter(this, hour, segmentFile(hour.start));
+        } catch (IOException | RuntimeException e) {
+            releaseWriter();
+            throw e;
+        }
+    }
+
+    /**
+     * 第一个写入器打开时加锁，并以磁盘为准重新读取 manifest 和字典
+     */
+    private synchronized void acquireWriter() throws IOException {
+        checkDictionary();
+        if (activeWriters > 0) {
+            activeWriters++;
+            return;
+        }
+        FileChannel channel = FileChannel.open(new File(dir, LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = channel.tryLock();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        if (acquired == null) {
+            channel.close();
+            throw new IOException("本地存储正被其他进程写入: " + dir);
+        }
+        lockChannel = channel;
+        lock = acquired;
+        activeWriters = 1;
+        try {
+            loadManifest();
+            loadDictionary(true);
+            if (legacyDictionary) {
+                rewriteDictionary();
+            }
+            removeStaleSegments();
+        } catch (IOException e) {
+            dictionaryError = e;
+            releaseWriter();
+            throw e;
+        }
+    }
+
+    /**
+     * 写入器提交或放弃时调用，最后一个结束时释放锁
+     */
+    synchronized void releaseWriter() {
+        if (activeWriters == 0 || --activeWriters > 0) {
+            return;
+        }
+        try {
+            // 放弃的写入器也可能新增过字典项，释放锁之前写入，避免与其他进程追加的编号冲突
+            persistDictionary();
+        } catch (IOException e) {
+            dictionaryError = e;
+            LogUtils.error(EventStore.class, "写入字典失败，该存储不能继续使用: " + e.getMessage());
+        }
+        try {
+            lock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            LogUtils.warn(EventStore.class, "释放存储锁失败: " + e.getMessage());
+        }
+        lock = null;
+        lockChannel = null;
+    }
+
+    /**
+     * 上次进程中断时留下的分段临时文件，持有写锁且没有写入器时才能删除
+     */
+    private void removeStaleSegments() {
+        File[] files = dir.listFiles((d, name) -> name.contains(SegmentFormat.SEGMENT_SUFFIX + ".") && name.endsWith(".tmp"));
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (!f.delete()) {
+                LogUtils.warn(EventStore.class, "删除临时分段失败: " + f);
+            }
+        }
+    }
+
+    private void checkDictionary() throws IOException {
+        if (dictionaryError != null) {
+            throw new IOException("本地存储字典损坏，请删除该目录后重新获取: " + dir + "（" + dictionaryError.getMessage() + "）", dictionaryError);
+        }
+    }
+
+    /**
+     * 读取前确认字典可用，并补读其他进程追加的字典项
+     */
+    private synchronized void prepareRead() throws IOException {
+        checkDictionary();
+        if (activeWriters > 0) {
+            // 持有写锁，字典只有本进程在追加
+            return;
+        }
+        File file = new File(dir, DICTIONARY_FILE);
+        if (file.length() != dictionaryFileLength) {
+            try {
+                loadDictionary(false);
+            } catch (IOException e) {
+                dictionaryError = e;
+                checkDictionary();
+            }
+        }
+    }
+
+    /**
+     * 读取 [start, end] 内的告警，记录使用存储目录的字典（见 getDictionary）
+     * @return 读取的记录数
+     */
+    public long read(LocalDateTime start, LocalDateTime end, Consumer<RiskEvent> consumer) throws IOException {
+        ScanFilter filter = ScanFilter.all().time(toMillis(start), toMillis(end));
+        return scan(start, end, filter, row -> consumer.accept(row.toEvent()));
+    }
+
+    /**
+     * 在内存映射上扫描 [start, end] 覆盖的小时分区，只有通过 filter 的行会回调 visitor
+     * filter 带有 IP、规则、CVE 或域名条件时先由倒排索引求出候选行，只读取这些行
+     * @return 通过过滤的行数
+     */
+    public long scan(LocalDateTime start, LocalDateTime end, ScanFilter filter, SegmentReader.RowVisitor visitor) throws IOException {
+        prepareRead();
+        StoreTerms terms = resolveTerms(filter);
+        if (terms == null) {
+            // 存储中从未出现过条件中的地址或字符串
+            return 0;
+        }
+        long count = 0;
+        for (TimeRange hour : hourPartitions(start, end)) {
+            count += scanHour(hour, filter, terms, visitor);
+        }
+        return count;
+    }
+
+    /**
+     * 扫描单个小时分区，分区不存在时返回 0。不同分区可以在多个线程中同时扫描
+     * @return 通过过滤的行数
+     */
+    public long scanHour(TimeRange hour, ScanFilter filter, SegmentReader.RowVisitor visitor) throws IOException {
+        prepareRead();
+        StoreTerms terms = resolveTerms(filter);
+        return terms == null ? 0 : scanHour(hour, filter, terms, visitor);
+    }
+
+    private long scanHour(TimeRange hour, ScanFilter filter, StoreTerms terms, SegmentReader.RowVisitor visitor) throws IOException {
+        File file = segmentFile(hour.start);
+        if (!file.exists()) {
+            return 0;
+        }
+        try (SegmentReader reader = new SegmentReader(this, file)) {
+            if (!filter.isIndexed()) {
+                return reader.scan(filter, RiskEvent.NO_IP, visitor);
+            }
+            try (SegmentIndex index = SegmentIndex.open(reader)) {
+                RowBitmap rows = terms.select(index);
+                return rows == null ? 0 : reader.scanRows(rows, filter, visitor);
+            }
+        }
+    }
+
+    /**
+     * 把 filter 中的条件转换为存储目录的编码，有条件的值在存储中不存在时返回 null
+     */
+    private StoreTerms resolveTerms(ScanFilter filter) {
+        StoreTerms terms = new StoreTerms();
+        if (filter.hasIp()) {
+            terms.ip = lookupStoreIp(filter.getIp());
+            terms.ipFields = filter.getIpFields();
+            if (terms.ip == RiskEvent.NO_IP) {
+                return null;
+            }
+        }
+        terms.hasRule = filter.hasRule();
+        terms.ruleId = filter.getRuleId();
+        if (filter.getCve() != null) {
+            terms.cve = dictionary.lookup(filter.getCve());
+            if (terms.cve <= 0) {
+                return null;
+            }
+        }
+        if (filter.getDomain() != null) {
+            terms.domain = dictionary.lookup(filter.getDomain());
+            if (terms.domain <= 0) {
+                return null;
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * 存储编码的检索条件，0/NO_IP 表示没有该条件
+     */
+    private static final class StoreTerms {
+        long ip = RiskEvent.NO_IP;
+        int ipFields;
+        boolean hasRule;
+        int ruleId;
+        int cve = StringDictionary.NONE;
+        int domain = StringDictionary.NONE;
+
+        /**
+         * IP 条件在选中的字段之间取并集，各条件之间取交集；没有命中时返回 null
+         */
+        RowBitmap select(SegmentIndex index) {
+            RowBitmap rows = null;
+            if (ip != RiskEvent.NO_IP) {
+                if ((ipFields & ScanFilter.IP_SIP) != 0) {
+                    rows = union(rows, index.lookup(SegmentIndex.FIELD_SIP, ip));
+                }
+                if ((ipFields & ScanFilter.IP_DIP) != 0) {
+                    rows = union(rows, index.lookup(SegmentIndex.FIELD_DIP, ip));
+                }
+                if ((ipFields & ScanFilter.IP_ATTACKER) != 0) {
+                    rows = union(rows, index.lookup(SegmentIndex.FIELD_ATTACKER, ip));
+                }
+                if (rows == null) {
+                    return null;
+                }
+            }
+            if (hasRule && (rows = intersect(rows, index.lookup(SegmentIndex.FIELD_RULE, ruleId))) == null) {
+                return null;
+            }
+            if (cve != StringDictionary.NONE && (rows = intersect(rows, index.lookup(SegmentIndex.FIELD_CVE, cve))) == null) {
+                return null;
+            }
+            if (domain != StringDictionary.NONE && (rows = intersect(rows, index.lookup(SegmentIndex.FIELD_DOMAIN, domain))) == null) {
+                return null;
+            }
+            return rows;
+        }
+
+        private static RowBitmap union(RowBitmap rows, RowBitmap other) {
+            if (other == null) {
+                return rows;
+            }
+            return rows == null ? other : RowBitmap.or(rows, other);
+        }
+
+        /**
+         * other 为 null（键不存在）时结果为 null
+         */
+        private static RowBitmap intersect(RowBitmap rows, RowBitmap other) {
+            if (other == null) {
+                return null;
+            }
+            return rows == null ? other : RowBitmap.and(rows, other);
+        }
+    }
+
+    /**
+     * 打开某个小时分区的内存映射读取器，分区不存在时返回 null
+     */
+    public SegmentReader openReader(TimeRange hour) throws IOException {
+        prepareRead();
+        File file = segmentFile(hour.start);
+        return file.exists() ? new SegmentReader(this, file) : null;
+    }
+
+    // ======================================== 行编解码 ===============================================
+
+    void encodeRow(RiskEvent event, ByteBuffer buffer, DictionaryRemapper remapper) {
+        StringDictionary from = event.getDictionary();
+        int base = buffer.position();
+        buffer.putLong(base + SegmentFormat.OFF_ID, event.getId());
+        buffer.putLong(base + SegmentFormat.OFF_TIME, event.getTime());
+        buffer.putLong(base + SegmentFormat.OFF_SIP, remapper.ip(from, event.getSip()));
+        buffer.putLong(base + SegmentFormat.OFF_DIP, remapper.ip(from, event.getDip()));
+        buffer.putLong(base + SegmentFormat.OFF_ATTACKER_IP, remapper.ip(from, event.getAttackerIp()));
+        buffer.putInt(base + SegmentFormat.OFF_RULE_ID, event.getRuleId());
+        buffer.putInt(base + SegmentFormat.OFF_EVENT_TYPE, remapper.code(from, event.getEventType()));
+        buffer.putInt(base + SegmentFormat.OFF_APP_TYPE, remapper.code(from, event.getAppType()));
+        buffer.putInt(base + SegmentFormat.OFF_CVE, remapper.code(from, event.getCve()));
+        buffer.putInt(base + SegmentFormat.OFF_DOMAIN, remapper.code(from, event.getDomain()));
+        buffer.put(base + SegmentFormat.OFF_GRADE, event.getGrade());
+        buffer.position(base + SegmentFormat.ROW_SIZE);
+    }
+
+    RiskEvent decodeRow(ByteBuffer buffer, int base) {
+        return new RiskEvent(dictionary,
+                buffer.getLong(base + SegmentFormat.OFF_ID),
+                buffer.getLong(base + SegmentFormat.OFF_TIME),
+                buffer.get(base + SegmentFormat.OFF_GRADE),
+                buffer.getLong(base + SegmentFormat.OFF_SIP),
+                buffer.getLong(base + SegmentFormat.OFF_DIP),
+                buffer.getLong(base + SegmentFormat.OFF_ATTACKER_IP),
+                buffer.getInt(base + SegmentFormat.OFF_RULE_ID),
+                buffer.getInt(base + SegmentFormat.OFF_EVENT_TYPE),
+                buffer.getInt(base + SegmentFormat.OFF_APP_TYPE),
+                buffer.getInt(base + SegmentFormat.OFF_CVE),
+                buffer.getInt(base + SegmentFormat.OFF_DOMAIN));
+    }
+
+    /**
+     * 只查询不新增，存储中不存在的非 IPv4 地址返回 NO_IP
+     */
+    long lookupStoreIp(String ip) {
+        long packed = IpUtils.parseIpv4(ip);
+        if (packed >= 0) {
+            return packed;
+        }
+        int code = dictionary.lookup(ip);
+        return code <= 0 ? RiskEvent.NO_IP : IpUtils.NON_IPV4_FLAG | code;
+    }
+
+    // ======================================== 提交 ===============================================
+
+    /**
+     * 分段写入完成：先落盘字典，再用临时文件替换正式分段，最后更新 manifest
+     */
+    synchronized void commit(TimeRange hour, File tmpFile, File segmentFile, boolean complete) throws IOException {
+        persistDictionary();
+        // 旧分段的索引先删除，即使替换过程中断也不会留下与新分段不一致的索引
+        Files.deleteIfExists(SegmentIndex.indexFile(segmentFile).toPath());
+        Files.move(tmpFile.toPath(), segmentFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (complete) {
+            completeHours.add(hourKey(hour.start));
+            saveManifest();
+        }
+    }
+
+    File segmentFile(LocalDateTime hourStart) {
+        return new File(dir, hourKey(hourStart) + SegmentFormat.SEGMENT_SUFFIX);
+    }
+
+    static String hourKey(LocalDateTime hourStart) {
+        return hourStart.format(HOUR_KEY_FORMATTER);
+    }
+
+    static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private void loadManifest() {
+        File file = new File(dir, MANIFEST_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            JSONObject manifest = JSON.parseObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            JSONArray hours = manifest.getJSONArray("completeHours");
+            if (hours != null) {
+                for (int i = 0; i < hours.size(); i++) {
+                    completeHours.add(hours.getString(i));
+                }
+            }
+        } catch (Exception e) {
+            LogUtils.error(EventStore.class, "读取 manifest 失败，将重新获取所有小时: " + e.getMessage());
+        }
+    }
+
+    private void saveManifest() throws IOException {
+        JSONObject manifest = new JSONObject();
+        manifest.put("completeHours", new ArrayList<>(completeHours));
+        File tmp = new File(dir, MANIFEST_FILE + ".tmp");
+        Files.write(tmp.toPath(), manifest.toJSONString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), new File(dir, MANIFEST_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取字典文件中尚未加载的部分。编号必须从当前字典大小起连续递增，且字符串不能重复，
+     * 否则说明文件被多个写入者同时追加过，之后的编号都不可信，抛出 IOException
+     * @param truncateTail 持有写锁时截掉最后一行没有换行符的残缺部分（写入中途被关闭），以后的追加从新行开始；
+     *                     不持有写锁时其他进程可能正在写这一行，只跳过不截断
+     */
+    private void loadDictionary(boolean truncateTail) throws IOException {
+        File file = new File(dir, DICTIONARY_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') {
+            end--;
+        }
+        if (end < bytes.length && truncateTail) {
+            LogUtils.warn(EventStore.class, "字典最后一行不完整，已截断: " + file);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(end);
+                channel.force(false);
+            }
+        }
+        String[] lines = new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n", -1);
+        // 最后一个元素是末尾换行之后的空串
+        int count = lines.length - 1;
+        // 文件中的字典大小，内存中可能还有尚未写入的字典项
+        int fileSize = 1;
+        int first = 0;
+        legacyDictionary = count > 0 && !lines[0].equals(DICTIONARY_HEADER);
+        if (!legacyDictionary) {
+            first = 1;
+        }
+        for (int i = first; i < count; i++) {
+            int code;
+            String value;
+            if (legacyDictionary) {
+                code = i + 1;
+                value = unescape(lines[i]);
+            } else {
+                int tab = lines[i].indexOf('\t');
+                try {
+                    code = Integer.parseInt(lines[i].substring(0, Math.max(tab, 0)));
+                } catch (NumberFormatException e) {
+                    throw new IOException("字典第 " + (i + 1) + " 行格式错误: " + file);
+                }
+                value = unescape(lines[i].substring(tab + 1));
+            }
+            fileSize = code + 1;
+            if (code < dictionary.size()) {
+                // 已经加载过的部分，只核对
+                if (!value.equals(dictionary.decode(code))) {
+                    throw new IOException("字典第 " + (i + 1) + " 行与已加载的编号 " + code + " 不一致: " + file);
+                }
+                continue;
+            }
+            if (code != dictionary.size()) {
+                throw new IOException("字典第 " + (i + 1) + " 行编号 " + code + " 不连续，应为 " + dictionary.size() + ": " + file);
+            }
+            if (dictionary.encode(value) != code) {
+                throw new IOException("字典第 " + (i + 1) + " 行是重复或空的字符串: " + file);
+            }
+        }
+        persistedDictionarySize = fileSize;
+        dictionaryFileLength = end;
+    }
+
+    /**
+     * 旧格式的字典整体改写为带编号的格式，写入唯一的临时文件后原子替换
+     */
+    private void rewriteDictionary() throws IOException {
+        StringBuilder sb = new StringBuilder(DICTIONARY_HEADER).append('\n');
+        for (int code = 1; code < persistedDictionarySize; code++) {
+            sb.append(code).append('\t').append(escape(dictionary.decode(code))).append('\n');
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        Path tmp = Files.createTempFile(dir.toPath(), DICTIONARY_FILE + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(bytes));
+                channel.force(false);
+            }
+            Files.move(tmp, new File(dir, DICTIONARY_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        legacyDictionary = false;
+        dictionaryFileLength = bytes.length;
+    }
+
+    /**
+     * 追加新增的字典项，只在持有写锁时调用（commit），每行带编号，读取时可以校验
+     */
+    private void persistDictionary() throws IOException {
+        int size = dictionary.size();
+        if (size <= persistedDictionarySize) {
+            return;
+        }
+        File file = new File(dir, DICTIONARY_FILE);
+        StringBuilder sb = new StringBuilder();
+        if (file.length() == 0) {
+            sb.append(DICTIONARY_HEADER).append('\n');
+        }
+        for (int code = persistedDictionarySize; code < size; code++) {
+            sb.append(code).append('\t').append(escape(dictionary.decode(code))).append('\n');
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            dictionaryFileLength = channel.size();
+        }
+        persistedDictionarySize = size;
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String s) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                sb.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
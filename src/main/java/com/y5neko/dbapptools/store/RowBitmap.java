@@ -0,0 +1,456 @@
+package com.y5neko.dbapptools.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 压缩的非负 int 集合（行号倒排表），结构与 Roaring Bitmap 相同：
+ * 按高 16 位分成容器，容器内元素不超过 4096 个时用有序 char 数组，否则用 65536 位的位图。
+ * 稀疏的 IP、稠密的规则都能保持紧凑，求交/求并按容器逐个进行。不是线程安全的
+ */
+public final class RowBitmap {
+
+    /**
+     * 遍历回调，按升序
+     */
+    public interface IntVisitor {
+        void visit(int value);
+    }
+
+    static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    // 容器的高 16 位，升序
+    private char[] keys;
+    private Container[] containers;
+    private int count = 0;
+
+    public RowBitmap() {
+        keys = new char[4];
+        containers = new Container[4];
+    }
+
+    private RowBitmap(int capacity) {
+        keys = new char[Math.max(1, capacity)];
+        containers = new Container[Math.max(1, capacity)];
+    }
+
+    /**
+     * 添加元素，按升序添加时只在末尾追加
+     */
+    public void add(int value) {
+        char high = (char) (value >>> 16);
+        char low = (char) value;
+        int i = count > 0 && keys[count - 1] == high ? count - 1 : indexOf(high);
+        if (i < 0) {
+            i = -i - 1;
+            insert(i, high, new ArrayContainer(4));
+        }
+        containers[i] = containers[i].add(low);
+    }
+
+    public boolean contains(int value) {
+        int i = indexOf((char) (value >>> 16));
+        return i >= 0 && containers[i].contains((char) value);
+    }
+
+    public int getCardinality() {
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            n += containers[i].cardinality;
+        }
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public void forEach(IntVisitor visitor) {
+        for (int i = 0; i < count; i++) {
+            containers[i].forEach(keys[i] << 16, visitor);
+        }
+    }
+
+    /**
+     * 交集，结果是新的对象
+     */
+    public static RowBitmap and(RowBitmap a, RowBitmap b) {
+        RowBitmap result = new RowBitmap(Math.min(a.count, b.count));
+        int i = 0;
+        int j = 0;
+        while (i < a.count && j < b.count) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container c = a.containers[i].and(b.containers[j]);
+                if (c.cardinality > 0) {
+                    result.append(a.keys[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 并集，结果是新的对象，不与参数共享容器
+     */
+    public static RowBitmap or(RowBitmap a, RowBitmap b) {
+        RowBitmap result = new RowBitmap(a.count + b.count);
+        int i = 0;
+        int j = 0;
+        while (i < a.count || j < b.count) {
+            if (j >= b.count || (i < a.count && a.keys[i] < b.keys[j])) {
+                result.append(a.keys[i], a.containers[i].copy());
+                i++;
+            } else if (i >= a.count || a.keys[i] > b.keys[j]) {
+                result.append(b.keys[j], b.containers[j].copy());
+                j++;
+            } else {
+                result.append(a.keys[i], a.containers[i].or(b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    private int indexOf(char high) {
+        return Arrays.binarySearch(keys, 0, count, high);
+    }
+
+    private void insert(int i, char high, Container container) {
+        ensureCapacity(count + 1);
+        System.arraycopy(keys, i, keys, i + 1, count - i);
+        System.arraycopy(containers, i, containers, i + 1, count - i);
+        keys[i] = high;
+        containers[i] = container;
+        count++;
+    }
+
+    private void append(char high, Container container) {
+        ensureCapacity(count + 1);
+        keys[count] = high;
+        containers[count] = container;
+        count++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > keys.length) {
+            int newCapacity = Math.max(capacity, keys.length * 2);
+            keys = Arrays.copyOf(keys, newCapacity);
+            containers = Arrays.copyOf(containers, newCapacity);
+        }
+    }
+
+    // ======================================== 序列化 ===============================================
+
+    /**
+     * 序列化后的字节数：容器数，每个容器的高 16 位和元素数，数组容器每个元素 2 字节，位图容器固定 8KB
+     */
+    public int serializedSize() {
+        int size = 4;
+        for (int i = 0; i < count; i++) {
+            size += 6 + containers[i].dataSize();
+        }
+        return size;
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(count);
+        for (int i = 0; i < count; i++) {
+            buffer.putChar(keys[i]);
+            buffer.putInt(containers[i].cardinality);
+            containers[i].writeTo(buffer);
+        }
+    }
+
+    /**
+     * 从 offset 处读取，不改变 buffer 的 position
+     */
+    public static RowBitmap readFrom(ByteBuffer buffer, int offset) {
+        int n = buffer.getInt(offset);
+        int pos = offset + 4;
+        RowBitmap bitmap = new RowBitmap(n);
+        for (int i = 0; i < n; i++) {
+            char high = buffer.getChar(pos);
+            int cardinality = buffer.getInt(pos + 2);
+            pos += 6;
+            Container c;
+            if (cardinality <= ARRAY_MAX) {
+                char[] values = new char[cardinality];
+                for (int k = 0; k < cardinality; k++, pos += 2) {
+                    values[k] = buffer.getChar(pos);
+                }
+                c = new ArrayContainer(values, cardinality);
+            } else {
+                long[] words = new long[BITMAP_WORDS];
+                for (int k = 0; k < BITMAP_WORDS; k++, pos += 8) {
+                    words[k] = buffer.getLong(pos);
+                }
+                c = new BitmapContainer(words, cardinality);
+            }
+            bitmap.append(high, c);
+        }
+        return bitmap;
+    }
+
+    // ======================================== 容器 ===============================================
+
+    private abstract static class Container {
+        int cardinality;
+
+        /**
+         * 返回添加后的容器，数组容器超过上限时会转换为位图容器
+         */
+        abstract Container add(char low);
+
+        abstract boolean contains(char low);
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container copy();
+
+        abstract void forEach(int base, IntVisitor visitor);
+
+        abstract int dataSize();
+
+        abstract void writeTo(ByteBuffer buffer);
+    }
+
+    private static final class ArrayContainer extends Container {
+        char[] values;
+
+        ArrayContainer(int capacity) {
+            values = new char[capacity];
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char low) {
+            int i;
+            if (cardinality == 0 || values[cardinality - 1] < low) {
+                i = cardinality;
+            } else {
+                i = Arrays.binarySearch(values, 0, cardinality, low);
+                if (i >= 0) {
+                    return this;
+                }
+                i = -i - 1;
+            }
+            if (cardinality == ARRAY_MAX) {
+                return toBitmap().add(low);
+            }
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, values.length * 2));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = low;
+            cardinality++;
+            return this;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer(new long[BITMAP_WORDS], 0);
+            for (int i = 0; i < cardinality; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[cardinality];
+            int n = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < o.cardinality) {
+                    if (values[i] < o.values[j]) {
+                        i++;
+                    } else if (values[i] > o.values[j]) {
+                        j++;
+                    } else {
+                        result[n++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) {
+                        result[n++] = values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            ArrayContainer o = (ArrayContainer) other;
+            char[] result = new char[cardinality + o.cardinality];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < cardinality || j < o.cardinality) {
+                if (j >= o.cardinality || (i < cardinality && values[i] < o.values[j])) {
+                    result[n++] = values[i++];
+                } else if (i >= cardinality || values[i] > o.values[j]) {
+                    result[n++] = o.values[j++];
+                } else {
+                    result[n++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            ArrayContainer merged = new ArrayContainer(result, n);
+            return n > ARRAY_MAX ? merged.toBitmap() : merged;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+        }
+
+        @Override
+        void forEach(int base, IntVisitor visitor) {
+            for (int i = 0; i < cardinality; i++) {
+                visitor.visit(base | values[i]);
+            }
+        }
+
+        @Override
+        int dataSize() {
+            return cardinality * 2;
+        }
+
+        @Override
+        void writeTo(ByteBuffer buffer) {
+            for (int i = 0; i < cardinality; i++) {
+                buffer.putChar(values[i]);
+            }
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        final long[] words;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char low) {
+            long bit = 1L << low;
+            int w = low >>> 6;
+            if ((words[w] & bit) == 0) {
+                words[w] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] o = ((BitmapContainer) other).words;
+            long[] result = new long[BITMAP_WORDS];
+            int n = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                result[i] = words[i] & o[i];
+                n += Long.bitCount(result[i]);
+            }
+            BitmapContainer bitmap = new BitmapContainer(result, n);
+            return n <= ARRAY_MAX ? bitmap.toArray() : bitmap;
+        }
+
+        ArrayContainer toArray() {
+            char[] values = new char[cardinality];
+            int n = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    values[n++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+
+        @Override
+        Container or(Container other) {
+            BitmapContainer result = new BitmapContainer(words.clone(), cardinality);
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o.cardinality; i++) {
+                    result.add(o.values[i]);
+                }
+                return result;
+            }
+            long[] o = ((BitmapContainer) other).words;
+            int n = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                result.words[i] |= o[i];
+                n += Long.bitCount(result.words[i]);
+            }
+            result.cardinality = n;
+            return result;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        void forEach(int base, IntVisitor visitor) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    visitor.visit(base | ((i << 6) + Long.numberOfTrailingZeros(word)));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        int dataSize() {
+            return BITMAP_WORDS * 8;
+        }
+
+        @Override
+        void writeTo(ByteBuffer buffer) {
+            for (long word : words) {
+                buffer.putLong(word);
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.y5neko.dbapptools.store;
+
+import java.util.Locale;
+
+/**
+ * 分段扫描条件：时间范围、攻击等级、IP、规则、CVE 和域名
+ * IP、CVE 和域名使用字符串，扫描时由 EventStore 转换为存储目录的编码。
+ * 带有 IP、规则、CVE 或域名条件时通过倒排索引（SegmentIndex）定位行，不再逐行扫描
+ */
+public class ScanFilter {
+
+    public static final int IP_SIP = 1;
+    public static final int IP_DIP = 1 << 1;
+    public static final int IP_ATTACKER = 1 << 2;
+    public static final int IP_ANY = IP_SIP | IP_DIP | IP_ATTACKER;
+
+    private long fromMillis = Long.MIN_VALUE;
+    private long toMillis = Long.MAX_VALUE;
+    // 第 n 位表示等级 n 是否通过
+    private int gradeMask = 0xff;
+    private String ip = null;
+    private int ipFields = IP_ANY;
+    private boolean hasRule = false;
+    private int ruleId = 0;
+    private String cve = null;
+    private String domain = null;
+
+    public static ScanFilter all() {
+        return new ScanFilter();
+    }
+
+    public ScanFilter time(long fromMillis, long toMillis) {
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        return this;
+    }
+
+    public ScanFilter grades(boolean[] mask) {
+        int bits = 0;
+        for (int i = 0; i < mask.length; i++) {
+            if (mask[i]) bits |= 1 << i;
+        }
+        this.gradeMask = bits;
+        return this;
+    }
+
+    public ScanFilter ip(String ip, int fields) {
+        this.ip = ip;
+        this.ipFields = fields;
+        return this;
+    }
+
+    public ScanFilter rule(int ruleId) {
+        this.hasRule = true;
+        this.ruleId = ruleId;
+        return this;
+    }
+
+    public ScanFilter cve(String cve) {
+        this.cve = cve;
+        return this;
+    }
+
+    public ScanFilter domain(String domain) {
+        this.domain = domain;
+        return this;
+    }
+
+    /**
+     * 解析检索条件，空格或逗号分隔的 字段=值，字段为 ip、sip、dip、attacker、rule、cve、domain，
+     * 例如 "attacker=1.2.3.4 rule=10001"，多个条件同时满足；IP 条件只能有一个
+     */
+    public static ScanFilter parse(String expression) {
+        ScanFilter filter = all();
+        for (String term : expression.trim().split("[\\s,]+")) {
+            if (term.isEmpty()) {
+                continue;
+            }
+            int eq = term.indexOf('=');
+            if (eq <= 0 || eq == term.length() - 1) {
+                throw new IllegalArgumentException("检索条件格式应为 字段=值: " + term);
+            }
+            String field = term.substring(0, eq).toLowerCase(Locale.ROOT);
+            String value = term.substring(eq + 1);
+            switch (field) {
+                case "ip":
+                case "sip":
+                case "dip":
+                case "attacker":
+                case "attackerip":
+                    if (filter.hasIp()) {
+                        throw new IllegalArgumentException("只支持一个 IP 条件");
+                    }
+                    int fields = field.equals("ip") ? IP_ANY : field.equals("sip") ? IP_SIP : field.equals("dip") ? IP_DIP : IP_ATTACKER;
+                    filter.ip(value, fields);
+                    break;
+                case "rule":
+                case "ruleid":
+                    try {
+                        filter.rule(Integer.parseInt(value));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("规则 ID 不是整数: " + value);
+                    }
+                    break;
+                case "cve":
+                    filter.cve(value);
+                    break;
+                case "domain":
+                    filter.domain(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("未知检索字段 " + field);
+            }
+        }
+        if (!filter.isIndexed()) {
+            throw new IllegalArgumentException("检索条件为空");
+        }
+        return filter;
+    }
+
+    public long getFromMillis() {
+        return fromMillis;
+    }
+
+    public long getToMillis() {
+        return toMillis;
+    }
+
+    public int getGradeMask() {
+        return gradeMask;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public int getIpFields() {
+        return ipFields;
+    }
+
+    public boolean hasIp() {
+        return ip != null && !ip.isEmpty();
+    }
+
+    public boolean hasRule() {
+        return hasRule;
+    }
+
+    public int getRuleId() {
+        return ruleId;
+    }
+
+    public String getCve() {
+        return cve;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    /**
+     * 是否有可以走索引的条件
+     */
+    public boolean isIndexed() {
+        return hasIp() || hasRule || cve != null || domain != null;
+    }
+}
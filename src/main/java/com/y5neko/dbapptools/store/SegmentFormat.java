@@ -0,0 +1,70 @@
+package com.y5neko.dbapptools.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 分段文件格式
+ * 文件头 16 字节：魔数 "RSEG"、版本号、行宽、保留；之后是定长 64 字节的行，大端序：
+ * <pre>
+ *  0  long id
+ *  8  long time        毫秒时间戳
+ * 16  long sip
+ * 24  long dip
+ * 32  long attackerIp
+ * 40  int  ruleId
+ * 44  int  eventType   存储目录字典中的编号
+ * 48  int  appType     同上
+ * 52  int  cve         同上
+ * 56  int  domain      同上
+ * 60  byte grade
+ * 61  3 字节保留
+ * </pre>
+ * 非 IPv4 地址的低 32 位同样是存储目录字典中的编号
+ */
+public final class SegmentFormat {
+
+    public static final int MAGIC = 0x52534547; // "RSEG"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int ROW_SIZE = 64;
+
+    public static final int OFF_ID = 0;
+    public static final int OFF_TIME = 8;
+    public static final int OFF_SIP = 16;
+    public static final int OFF_DIP = 24;
+    public static final int OFF_ATTACKER_IP = 32;
+    public static final int OFF_RULE_ID = 40;
+    public static final int OFF_EVENT_TYPE = 44;
+    public static final int OFF_APP_TYPE = 48;
+    public static final int OFF_CVE = 52;
+    public static final int OFF_DOMAIN = 56;
+    public static final int OFF_GRADE = 60;
+
+    public static final String SEGMENT_SUFFIX = ".seg";
+
+    private SegmentFormat() {}
+
+    public static void writeHeader(ByteBuffer buffer) {
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(ROW_SIZE);
+        buffer.putInt(0);
+    }
+
+    /**
+     * 校验文件头，返回数据行数
+     */
+    public static int checkHeader(ByteBuffer header, long fileSize) {
+        if (fileSize < HEADER_SIZE || header.getInt(0) != MAGIC) {
+            throw new IllegalStateException("不是有效的分段文件");
+        }
+        if (header.getInt(4) != VERSION || header.getInt(8) != ROW_SIZE) {
+            throw new IllegalStateException("不支持的分段文件版本: " + header.getInt(4));
+        }
+        return (int) ((fileSize - HEADER_SIZE) / ROW_SIZE);
+    }
+
+    public static long rowOffset(int row) {
+        return HEADER_SIZE + (long) row * ROW_SIZE;
+    }
+}
@@ -0,0 +1,241 @@
+package com.y5neko.dbapptools.store;
+
+import com.y5neko.dbapptools.aggregate.LongCountMap;
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.model.StringDictionary;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 分段文件的倒排索引：源 IP、目的 IP、攻击 IP、规则、CVE、域名各自映射到行号集合（RowBitmap）
+ * 与分段同名、后缀 .idx，第一次按这些字段检索某个小时时建立。文件格式（大端序）：
+ * <pre>
+ * 文件头 32 字节: 魔数 "RIDX"、版本号、分段行数、保留、分段文件长度、分段文件修改时间
+ * 字段目录: 每个字段 键数量、键表偏移
+ * 键表: 每个字段按键升序，每项 long 键 + int 行号集合偏移
+ * 行号集合: RowBitmap 序列化结果
+ * </pre>
+ * 键均为存储目录内的编码。读取时整个文件内存映射，按键二分查找，只有命中的行号集合才会解码
+ * lookup 返回的 RowBitmap 是堆上的副本，关闭索引后仍然可用；关闭后再调用 lookup 抛出 IllegalStateException
+ */
+public final class SegmentIndex implements AutoCloseable {
+
+    public static final int FIELD_SIP = 0;
+    public static final int FIELD_DIP = 1;
+    public static final int FIELD_ATTACKER = 2;
+    public static final int FIELD_RULE = 3;
+    public static final int FIELD_CVE = 4;
+    public static final int FIELD_DOMAIN = 5;
+    private static final int FIELD_COUNT = 6;
+
+    public static final String INDEX_SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x52494458; // "RIDX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int DIRECTORY_SIZE = FIELD_COUNT * 8;
+    private static final int ENTRY_SIZE = 12;
+
+    // 关闭后为 null，访问前检查
+    private volatile ByteBuffer buffer;
+    private final int[] keyCounts = new int[FIELD_COUNT];
+    private final int[] entryOffsets = new int[FIELD_COUNT];
+
+    private SegmentIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            keyCounts[field] = buffer.getInt(HEADER_SIZE + field * 8);
+            entryOffsets[field] = buffer.getInt(HEADER_SIZE + field * 8 + 4);
+        }
+    }
+
+    static File indexFile(File segmentFile) {
+        String name = segmentFile.getName();
+        return new File(segmentFile.getParentFile(), name.substring(0, name.length() - SegmentFormat.SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    /**
+     * 打开分段对应的索引，索引不存在或与分段不一致时重新建立并尽量保存
+     */
+    static SegmentIndex open(SegmentReader reader) throws IOException {
+        File segmentFile = reader.getFile();
+        File indexFile = indexFile(segmentFile);
+        if (indexFile.exists()) {
+            SegmentIndex index = map(indexFile);
+            if (index.matches(segmentFile, reader.getRowCount())) {
+                return index;
+            }
+            index.close();
+        }
+        ByteBuffer built = build(reader, segmentFile);
+        // 多个检索可能同时为同一分段建立索引，各自使用唯一的临时文件，最后一个替换的生效，内容相同
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(indexFile.getParentFile().toPath(), indexFile.getName() + ".", ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer out = built.duplicate();
+                out.clear();
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+            }
+            Files.move(tmp, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // 保存失败不影响本次检索，下次重新建立
+            if (tmp != null) {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        return new SegmentIndex(built);
+    }
+
+    private static SegmentIndex map(File indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size < HEADER_SIZE + DIRECTORY_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                // 返回一个必然不匹配的空索引，由调用方重建
+                SegmentReader.unmap(buffer);
+                return new SegmentIndex(ByteBuffer.allocate(HEADER_SIZE + DIRECTORY_SIZE));
+            }
+            return new SegmentIndex(buffer);
+        }
+    }
+
+    private boolean matches(File segmentFile, int rowCount) {
+        return buffer.getInt(0) == MAGIC
+                && buffer.getInt(8) == rowCount
+                && buffer.getLong(16) == segmentFile.length()
+                && buffer.getLong(24) == segmentFile.lastModified();
+    }
+
+    /**
+     * 扫描一遍分段建立索引，行号按升序加入，RowBitmap 只在末尾追加
+     */
+    private static ByteBuffer build(SegmentReader reader, File segmentFile) {
+        List<List<RowBitmap>> postings = new ArrayList<>(FIELD_COUNT);
+        List<LongCountMap> slots = new ArrayList<>(FIELD_COUNT);
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            postings.add(new ArrayList<>());
+            slots.add(new LongCountMap());
+        }
+        reader.scan(ScanFilter.all(), RiskEvent.NO_IP, row -> {
+            int rowIndex = row.getIndex();
+            addPosting(postings, slots, FIELD_SIP, row.getStoreSip(), rowIndex);
+            addPosting(postings, slots, FIELD_DIP, row.getStoreDip(), rowIndex);
+            addPosting(postings, slots, FIELD_ATTACKER, row.getStoreAttackerIp(), rowIndex);
+            addPosting(postings, slots, FIELD_RULE, row.getRuleId(), rowIndex);
+            if (row.getStoreCve() != StringDictionary.NONE) {
+                addPosting(postings, slots, FIELD_CVE, row.getStoreCve(), rowIndex);
+            }
+            if (row.getStoreDomain() != StringDictionary.NONE) {
+                addPosting(postings, slots, FIELD_DOMAIN, row.getStoreDomain(), rowIndex);
+            }
+        });
+
+        long[][] sortedKeys = new long[FIELD_COUNT][];
+        int size = HEADER_SIZE + DIRECTORY_SIZE;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            LongCountMap map = slots.get(field);
+            long[] keys = new long[map.size()];
+            int[] n = {0};
+            map.forEach((key, slot) -> keys[n[0]++] = key);
+            Arrays.sort(keys);
+            sortedKeys[field] = keys;
+            size += keys.length * ENTRY_SIZE;
+            for (RowBitmap bitmap : postings.get(field)) {
+                size += bitmap.serializedSize();
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(reader.getRowCount()).putInt(0)
+                .putLong(segmentFile.length()).putLong(segmentFile.lastModified());
+        int entryOffset = HEADER_SIZE + DIRECTORY_SIZE;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            buffer.putInt(sortedKeys[field].length).putInt(entryOffset);
+            entryOffset += sortedKeys[field].length * ENTRY_SIZE;
+        }
+        int bitmapOffset = entryOffset;
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            LongCountMap map = slots.get(field);
+            List<RowBitmap> bitmaps = postings.get(field);
+            for (long key : sortedKeys[field]) {
+                buffer.putLong(key).putInt(bitmapOffset);
+                bitmapOffset += bitmaps.get((int) map.get(key)).serializedSize();
+            }
+        }
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            LongCountMap map = slots.get(field);
+            List<RowBitmap> bitmaps = postings.get(field);
+            for (long key : sortedKeys[field]) {
+                bitmaps.get((int) map.get(key)).writeTo(buffer);
+            }
+        }
+        return buffer;
+    }
+
+    private static void addPosting(List<List<RowBitmap>> postings, List<LongCountMap> slots, int field, long key, int row) {
+        List<RowBitmap> bitmaps = postings.get(field);
+        LongCountMap map = slots.get(field);
+        int slot = (int) map.getOrDefault(key, -1);
+        if (slot < 0) {
+            slot = bitmaps.size();
+            bitmaps.add(new RowBitmap());
+            map.put(key, slot);
+        }
+        bitmaps.get(slot).add(row);
+    }
+
+    /**
+     * 某个字段等于 key 的行号集合，没有时返回 null
+     */
+    public RowBitmap lookup(int field, long key) {
+        ByteBuffer buf = buffer;
+        if (buf == null) {
+            throw new IllegalStateException("分段索引已关闭");
+        }
+        int lo = 0;
+        int hi = keyCounts[field] - 1;
+        int base = entryOffsets[field];
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midKey = buf.getLong(base + mid * ENTRY_SIZE);
+            if (midKey < key) {
+                lo = mid + 1;
+            } else if (midKey > key) {
+                hi = mid - 1;
+            } else {
+                return RowBitmap.readFrom(buf, buf.getInt(base + mid * ENTRY_SIZE + 8));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 某个字段不同键的数量
+     */
+    public int getKeyCount(int field) {
+        return keyCounts[field];
+    }
+
+    @Override
+    public void close() {
+        ByteBuffer buf = buffer;
+        buffer = null;
+        if (buf instanceof MappedByteBuffer) {
+            SegmentReader.unmap((MappedByteBuffer) buf);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.y5neko.dbapptools.store;
+
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.utils.LogUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 通过内存映射读取分段文件
+ * 行是定长的，扫描时直接在映射内存上按偏移读取字段并做过滤，只有通过过滤的行才需要（按需）转换为 RiskEvent
+ * close 会立即释放映射，之后再通过读取器或 SegmentRow 访问会抛出 IllegalStateException，不会读到已释放的内存；
+ * 关闭与读取不能在不同线程中同时进行
+ */
+public class SegmentReader implements AutoCloseable {
+
+    /**
+     * 扫描回调，row 是复用的游标，只在回调期间有效；需要保留时用 toEvent 复制
+     */
+    public interface RowVisitor {
+        void visit(SegmentRow row);
+    }
+
+    private final EventStore store;
+    private final File file;
+    // 关闭后为 null，访问前检查
+    private volatile MappedByteBuffer buffer;
+    private final int rowCount;
+
+    SegmentReader(EventStore store, File file) throws IOException {
+        this.store = store;
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            // 映射建立后即可关闭通道
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            this.rowCount = SegmentFormat.checkHeader(buffer, size);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * 按条件扫描，storeIp 为 filter 中的 IP 转换后的存储编码
+     * @return 通过过滤的行数
+     */
+    int scan(ScanFilter filter, long storeIp, RowVisitor visitor) {
+        MappedByteBuffer buf = checkOpen();
+        long from = filter.getFromMillis();
+        long to = filter.getToMillis();
+        int gradeMask = filter.getGradeMask();
+        boolean checkIp = filter.hasIp();
+        int ipFields = filter.getIpFields();
+
+        SegmentRow row = new SegmentRow(this);
+        int matched = 0;
+        int base = SegmentFormat.HEADER_SIZE;
+        for (int i = 0; i < rowCount; i++, base += SegmentFormat.ROW_SIZE) {
+            long time = buf.getLong(base + SegmentFormat.OFF_TIME);
+            if (time < from || time > to) {
+                continue;
+            }
+            int grade = buf.get(base + SegmentFormat.OFF_GRADE);
+            if (grade < 0 || grade > 7 || (gradeMask & (1 << grade)) == 0) {
+                continue;
+            }
+            if (checkIp && !matchIp(buf, base, storeIp, ipFields)) {
+                continue;
+            }
+            matched++;
+            if (visitor != null) {
+                row.position(i, base);
+                visitor.visit(row);
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * 只扫描 rows 中的行（由索引求出），时间和等级仍按 filter 过滤
+     * @return 通过过滤的行数
+     */
+    int scanRows(RowBitmap rows, ScanFilter filter, RowVisitor visitor) {
+        MappedByteBuffer buf = checkOpen();
+        long from = filter.getFromMillis();
+        long to = filter.getToMillis();
+        int gradeMask = filter.getGradeMask();
+        SegmentRow row = new SegmentRow(this);
+        int[] matched = {0};
+        rows.forEach(i -> {
+            if (i >= rowCount) {
+                return;
+            }
+            int base = (int) SegmentFormat.rowOffset(i);
+            long time = buf.getLong(base + SegmentFormat.OFF_TIME);
+            if (time < from || time > to) {
+                return;
+            }
+            int grade = buf.get(base + SegmentFormat.OFF_GRADE);
+            if (grade < 0 || grade > 7 || (gradeMask & (1 << grade)) == 0) {
+                return;
+            }
+            matched[0]++;
+            if (visitor != null) {
+                row.position(i, base);
+                visitor.visit(row);
+            }
+        });
+        return matched[0];
+    }
+
+    private static boolean matchIp(MappedByteBuffer buf, int base, long ip, int fields) {
+        return ((fields & ScanFilter.IP_SIP) != 0 && buf.getLong(base + SegmentFormat.OFF_SIP) == ip)
+                || ((fields & ScanFilter.IP_DIP) != 0 && buf.getLong(base + SegmentFormat.OFF_DIP) == ip)
+                || ((fields & ScanFilter.IP_ATTACKER) != 0 && buf.getLong(base + SegmentFormat.OFF_ATTACKER_IP) == ip);
+    }
+
+    /**
+     * 已关闭时抛出 IllegalStateException，释放后的映射内存一旦被访问会使 JVM 崩溃
+     */
+    private MappedByteBuffer checkOpen() {
+        MappedByteBuffer buf = buffer;
+        if (buf == null) {
+            throw new IllegalStateException("分段读取器已关闭: " + file);
+        }
+        return buf;
+    }
+
+    /**
+     * 主动释放映射，避免 Windows 下映射存活期间分段文件无法被替换
+     */
+    @Override
+    public void close() {
+        MappedByteBuffer buf = buffer;
+        buffer = null;
+        if (buf != null) {
+            unmap(buf);
+        }
+    }
+
+    static void unmap(MappedByteBuffer buf) {
+        try {
+            // JDK 9+
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            java.lang.reflect.Field f = unsafeClass.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            Object unsafe = f.get(null);
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", java.nio.ByteBuffer.class);
+            invokeCleaner.invoke(unsafe, buf);
+        } catch (NoSuchMethodException e) {
+            // JDK 8
+            try {
+                Method cleanerMethod = buf.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buf);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (Exception ex) {
+                LogUtils.debug(SegmentReader.class, "释放内存映射失败，等待 GC 回收: " + ex.getMessage());
+            }
+        } catch (Exception e) {
+            LogUtils.debug(SegmentReader.class, "释放内存映射失败，等待 GC 回收: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 指向映射内存中某一行的游标，读取字段不产生任何拷贝
+     * 每次读取都检查读取器是否已关闭，游标被回调保留到扫描结束之后也不会访问已释放的映射
+     */
+    public static final class SegmentRow {
+        private final SegmentReader reader;
+        private int index;
+        private int base;
+
+        SegmentRow(SegmentReader reader) {
+            this.reader = reader;
+        }
+
+        void position(int index, int base) {
+            this.index = index;
+            this.base = base;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public long getId() {
+            return reader.checkOpen().getLong(base + SegmentFormat.OFF_ID);
+        }
+
+        public long getTime() {
+            return reader.checkOpen().getLong(base + SegmentFormat.OFF_TIME);
+        }
+
+        public byte getGrade() {
+            return reader.checkOpen().get(base + SegmentFormat.OFF_GRADE);
+        }
+
+        /**
+         * 以下 IP 和字典编号均为存储目录内的编码
+         */
+        public long getStoreSip() {
+            return reader.checkOpen().getLong(base + SegmentFormat.OFF_SIP);
+        }
+
+        public long getStoreDip() {
+            return reader.checkOpen().getLong(base + SegmentFormat.OFF_DIP);
+        }
+
+        public long getStoreAttackerIp() {
+            return reader.checkOpen().getLong(base + SegmentFormat.OFF_ATTACKER_IP);
+        }
+
+        public int getRuleId() {
+            return reader.checkOpen().getInt(base + SegmentFormat.OFF_RULE_ID);
+        }
+
+        public int getStoreCve() {
+            return reader.checkOpen().getInt(base + SegmentFormat.OFF_CVE);
+        }
+
+        public int getStoreDomain() {
+            return reader.checkOpen().getInt(base + SegmentFormat.OFF_DOMAIN);
+        }
+
+        /**
+         * 转换为 RiskEvent（会在堆上创建对象）
+         */
+        public RiskEvent toEvent() {
+            return reader.store.decodeRow(reader.checkOpen(), base);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.y5neko.dbapptools.store;
+
+import com.y5neko.dbapptools.model.DictionaryRemapper;
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.network.TimeRange;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 单个小时分区的写入器，线程安全
+ * 只接受时间落在该小时内的记录，边界外的记录交给相邻小时，避免重复
+ */
+public class SegmentWriter implements AutoCloseable {
+
+    private static final int BUFFER_ROWS = 1024;
+
+    private final EventStore store;
+    private final TimeRange hour;
+    private final File segmentFile;
+    private final File tmpFile;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_ROWS * SegmentFormat.ROW_SIZE);
+    // 记录所在字典 -> 存储目录字典
+    private final DictionaryRemapper remapper;
+    private final long startMillis;
+    private final long endMillis;
+    private int rowCount = 0;
+    private boolean closed = false;
+
+    SegmentWriter(EventStore store, TimeRange hour, File segmentFile) throws IOException {
+        this.store = store;
+        this.remapper = new DictionaryRemapper(store.getDictionary());
+        this.hour = hour;
+        this.segmentFile = segmentFile;
+        // 同一小时可能同时有多个写入器，各自使用唯一的临时文件，提交时后替换的生效
+        this.tmpFile = Files.createTempFile(segmentFile.getParentFile().toPath(), segmentFile.getName() + ".", ".tmp").toFile();
+        this.startMillis = EventStore.toMillis(hour.start);
+        this.endMillis = EventStore.toMillis(hour.end);
+        this.channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.WRITE);
+        SegmentFormat.writeHeader(buffer);
+    }
+
+    /**
+     * @return 记录是否属于该小时并已写入
+     */
+    public synchronized boolean append(RiskEvent event) throws IOException {
+        if (closed) {
+            throw new IOException("分段写入器已关闭");
+        }
+        if (event.getTime() < startMillis || event.getTime() >= endMillis) {
+            return false;
+        }
+        if (buffer.remaining() < SegmentFormat.ROW_SIZE) {
+            flush();
+        }
+        store.encodeRow(event, buffer, remapper);
+        rowCount++;
+        return true;
+    }
+
+    public synchronized int getRowCount() {
+        return rowCount;
+    }
+
+    public TimeRange getHour() {
+        return hour;
+    }
+
+    /**
+     * 写入完成，替换原有分段
+     * @param complete 该小时的数据是否已完整获取，完整时记入 manifest，以后不再请求
+     */
+    public synchronized void commit(boolean complete) throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+            channel.force(false);
+            channel.close();
+            closed = true;
+            store.commit(hour, tmpFile, segmentFile, complete);
+        } finally {
+            if (closed) {
+                store.releaseWriter();
+            }
+        }
+    }
+
+    /**
+     * 放弃本次写入，原有分段保持不变
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.close();
+            Files.deleteIfExists(tmpFile.toPath());
+        } finally {
+            store.releaseWriter();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,225 @@
+package com.y5neko.dbapptools.store;
+
+import com.y5neko.dbapptools.config.GlobalConfig;
+import com.y5neko.dbapptools.network.TimeRange;
+import com.y5neko.dbapptools.utils.LogUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 时间段 total 缓存
+ * 键为 设备地址 + 时间段 + 攻击等级，分内存 LRU 和磁盘两级，磁盘层按 设备/日期 分文件，每行 "key\ttotal"。
+ * 已经结束（结束时间早于当前时间减去 EventStore.CLOSE_DELAY）的时间段永久缓存，其余时间段每次都重新请求。
+ * 一个实例由所有查询共用，命中统计由调用方按查询传入 Stats
+ */
+public class SliceTotalCache {
+
+    public static final int DEFAULT_MEMORY_CAPACITY = 4096;
+
+    private static final DateTimeFormatter DAY_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private static SliceTotalCache defaultInstance;
+
+    private final File dir;
+    private final Map<String, Cached> memory;
+    // 已整体读入内存的日期文件；其中的条目被 LRU 淘汰时移除，下次未命中时重新读取
+    private final Set<File> loadedDays = new HashSet<>();
+
+    /**
+     * 一次查询的命中统计，同一查询的多个网络线程（以及多台设备）同时更新
+     */
+    public static final class Stats {
+        private final AtomicLong memoryHits = new AtomicLong();
+        private final AtomicLong diskHits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        public long getHits() {
+            return memoryHits.get() + diskHits.get();
+        }
+
+        public long getMemoryHits() {
+            return memoryHits.get();
+        }
+
+        public long getDiskHits() {
+            return diskHits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+    }
+
+    private static final class Cached {
+        final int total;
+        final File day;
+
+        Cached(int total, File day) {
+            this.total = total;
+            this.day = day;
+        }
+    }
+
+    public SliceTotalCache(File dir, int memoryCapacity) {
+        this.dir = dir;
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        this.memory = new LruMap(memoryCapacity, loadedDays);
+    }
+
+    /**
+     * 按访问顺序淘汰的内存缓存，淘汰时让对应的天文件下次重新加载
+     */
+    private static final class LruMap extends LinkedHashMap<String, Cached> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        private final Set<File> loadedDays;
+
+        LruMap(int capacity, Set<File> loadedDays) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.loadedDays = loadedDays;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            if (size() > capacity) {
+                loadedDays.remove(eldest.getValue().day);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public static synchronized SliceTotalCache getDefault() {
+        if (defaultInstance == null) {
+            defaultInstance = new SliceTotalCache(new File(GlobalConfig.DIR[0], "cache"), DEFAULT_MEMORY_CAPACITY);
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * 时间段是否已经结束，只有结束的时间段才会被缓存
+     */
+    public static boolean isCacheable(TimeRange range) {
+        return range.end.plus(EventStore.CLOSE_DELAY).isBefore(LocalDateTime.now());
+    }
+
+    /**
+     * @param stats 本次查询的命中统计，为 null 时不统计
+     * @return 缓存的 total，未命中返回 null
+     */
+    public synchronized Integer get(String baseUrl, TimeRange range, Object attackGrades, Stats stats) {
+        if (!isCacheable(range)) {
+            count(stats == null ? null : stats.misses);
+            return null;
+        }
+        String key = key(baseUrl, range, attackGrades);
+        Cached cached = memory.get(key);
+        if (cached != null) {
+            count(stats == null ? null : stats.memoryHits);
+            return cached.total;
+        }
+        // 每个日期文件只读一次，整天的条目一起放入内存，后续相邻时间段可以直接命中
+        File dayFile = dayFile(baseUrl, range);
+        if (loadedDays.add(dayFile)) {
+            for (Map.Entry<String, Integer> entry : loadDayFile(dayFile).entrySet()) {
+                memory.putIfAbsent(entry.getKey(), new Cached(entry.getValue(), dayFile));
+            }
+            cached = memory.get(key);
+            if (cached != null) {
+                count(stats == null ? null : stats.diskHits);
+                return cached.total;
+            }
+        }
+        count(stats == null ? null : stats.misses);
+        return null;
+    }
+
+    private static void count(AtomicLong counter) {
+        if (counter != null) {
+            counter.incrementAndGet();
+        }
+    }
+
+    public synchronized void put(String baseUrl, TimeRange range, Object attackGrades, int total) {
+        if (!isCacheable(range)) {
+            return;
+        }
+        String key = key(baseUrl, range, attackGrades);
+        File dayFile = dayFile(baseUrl, range);
+        Cached old = memory.put(key, new Cached(total, dayFile));
+        if (old != null && old.total == total) {
+            return;
+        }
+        try {
+            Files.write(dayFile.toPath(), (key + "\t" + total + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            LogUtils.error(SliceTotalCache.class, "写入缓存文件失败: " + e.getMessage());
+        }
+    }
+
+    private static String key(String baseUrl, TimeRange range, Object attackGrades) {
+        return baseUrl + "|" + range.start + "|" + range.end + "|" + gradesKey(attackGrades);
+    }
+
+    private static String gradesKey(Object attackGrades) {
+        if (attackGrades == null) {
+            return "all";
+        }
+        if (attackGrades instanceof List) {
+            StringBuilder sb = new StringBuilder();
+            for (Object grade : (List<?>) attackGrades) {
+                if (sb.length() > 0) sb.append(',');
+                sb.append(grade);
+            }
+            return sb.toString();
+        }
+        return String.valueOf(attackGrades);
+    }
+
+    private File dayFile(String baseUrl, TimeRange range) {
+        return new File(dir, EventStore.applianceKey(baseUrl) + "_" + range.start.format(DAY_FORMATTER) + ".tsv");
+    }
+
+    /**
+     * 后写入的行覆盖先写入的同名键
+     */
+    private static Map<String, Integer> loadDayFile(File file) {
+        Map<String, Integer> entries = new LinkedHashMap<>();
+        if (!file.exists()) {
+            return entries;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.lastIndexOf('\t');
+                if (tab <= 0) {
+                    continue;
+                }
+                try {
+                    entries.put(line.substring(0, tab), Integer.parseInt(line.substring(tab + 1)));
+                } catch (NumberFormatException ignored) {}
+            }
+        } catch (IOException e) {
+            LogUtils.error(SliceTotalCache.class, "读取缓存文件失败: " + e.getMessage());
+        }
+        return entries;
+    }
+}
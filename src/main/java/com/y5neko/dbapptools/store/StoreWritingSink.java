@@ -0,0 +1,90 @@
+package com.y5neko.dbapptools.store;
+
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.network.RiskRecordSink;
+import com.y5neko.dbapptools.network.TimeRange;
+import com.y5neko.dbapptools.utils.LogUtils;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 把分页获取到的告警写入 EventStore，每个时间段对应一个小时分区
+ * 时间段获取完整且该小时已经结束时记为完整，失败的时间段丢弃本次写入；
+ * 写入本地存储出错的时间段同样丢弃，不提交分段，该小时保持缺失，下次查询时重新请求
+ */
+public class StoreWritingSink implements RiskRecordSink<RiskEvent> {
+
+    private final EventStore store;
+    private final ConcurrentHashMap<TimeRange, SegmentWriter> writers = new ConcurrentHashMap<>();
+    // 写入出错的时间段，之后的记录不再写入，完成时丢弃
+    private final Set<TimeRange> writeFailed = ConcurrentHashMap.newKeySet();
+
+    public StoreWritingSink(EventStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void onRecord(TimeRange range, RiskEvent record) {
+        if (writeFailed.contains(range)) {
+            return;
+        }
+        try {
+            writerFor(range).append(record);
+        } catch (IOException e) {
+            LogUtils.error(StoreWritingSink.class, "写入本地存储失败，该时间段不保存: " + range, e);
+            writeFailed.add(range);
+        }
+    }
+
+    @Override
+    public void onSliceComplete(TimeRange range, int recordCount) {
+        if (writeFailed.remove(range)) {
+            // 有记录没有写进去，提交后 manifest 会把不完整的小时记为完整、以后不再请求
+            discard(range);
+            return;
+        }
+        try {
+            // 没有记录的小时也要提交一个空分段，标记为已获取
+            writerFor(range).commit(EventStore.isClosed(range));
+        } catch (IOException e) {
+            LogUtils.error(StoreWritingSink.class, "提交分段失败: " + range, e);
+        } finally {
+            // 提交成功后 close 不做任何事；提交中途失败时删除临时文件
+            discard(range);
+        }
+    }
+
+    @Override
+    public void onSliceFailed(TimeRange range, String error) {
+        writeFailed.remove(range);
+        discard(range);
+    }
+
+    private void discard(TimeRange range) {
+        SegmentWriter writer = writers.remove(range);
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LogUtils.warn(StoreWritingSink.class, "关闭分段失败: " + range + " " + e.getMessage());
+            }
+        }
+    }
+
+    private SegmentWriter writerFor(TimeRange range) throws IOException {
+        SegmentWriter writer = writers.get(range);
+        if (writer != null) {
+            return writer;
+        }
+        synchronized (writers) {
+            writer = writers.get(range);
+            if (writer == null) {
+                writer = store.openWriter(range);
+                writers.put(range, writer);
+            }
+            return writer;
+        }
+    }
+}
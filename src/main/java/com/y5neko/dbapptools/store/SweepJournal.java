@@ -0,0 +1,362 @@
+package com.y5neko.dbapptools.store;
+
+import com.y5neko.dbapptools.config.GlobalConfig;
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.model.StringDictionary;
+import com.y5neko.dbapptools.network.TimeRange;
+import com.y5neko.dbapptools.utils.LogUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * 查询检查点，只追加的文本日志，每个查询（设备 + 时间范围 + 等级 + 模式）一个文件，每行以 tab 分隔：
+ * <pre>
+ * #  格式版本  查询参数            文件头，版本或参数不一致时整个文件作废
+ * S  seq  开始时间  结束时间        时间段开始一次请求，seq 在文件内递增
+ * R  seq  id  time  grade ...     明细记录，按收到的原样写入（去重之前），IP 和字符串字段写原文，不依赖字典编号
+ * D  seq  total                   时间段完成，写入后立即刷出并落盘（FileChannel.force）
+ * </pre>
+ * D 行是提交标记，重放时只采用已提交的 seq 的记录；中断时正在请求的时间段、失败后重试前的那次请求都没有 D 行，
+ * 它们的记录被忽略，不会重复。D 行落盘时之前的行也一并落盘，进程被关闭或系统断电后已提交的时间段都不会丢失；
+ * 最后一行可能不完整，读取时跳过无法解析的行。
+ * <p>
+ * 查询全部成功后删除文件；取消或有失败的时间段时保留，用相同参数再次查询时跳过已完成的时间段、重放其结果
+ */
+public final class SweepJournal {
+
+    // 超过这个时间没有更新的检查点视为废弃，打开时顺便清理
+    public static final Duration MAX_AGE = Duration.ofDays(7);
+    // 第 1 版把非 IPv4 地址写成字典编号，重启后无法还原，版本不同的文件直接作废
+    private static final String FORMAT = "2";
+
+    private final File file;
+    private final String key;
+    // 已提交的请求：seq -> 时间段及其 total，按提交顺序
+    private final Map<Long, TimeRange> committedRanges = new LinkedHashMap<>();
+    private final Map<TimeRange, Integer> completed = new LinkedHashMap<>();
+    private BufferedWriter writer;
+    // writer 底层文件的通道，提交时 force
+    private FileChannel channel;
+    private long nextSeq = 1;
+
+    private SweepJournal(File file, String key) {
+        this.file = file;
+        this.key = key;
+    }
+
+    public static File defaultDir() {
+        return new File(GlobalConfig.DIR[0], "journal");
+    }
+
+    /**
+     * 打开检查点，已有同一查询的检查点时读入已完成的时间段
+     * @param key 查询参数，参数完全相同的查询才会续查
+     */
+    public static SweepJournal open(File dir, String baseUrl, String key) throws IOException {
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        removeExpired(dir);
+        String name = EventStore.applianceKey(baseUrl) + "_" + Integer.toHexString(key.hashCode()) + ".journal";
+        SweepJournal journal = new SweepJournal(new File(dir, name), key);
+        journal.load();
+        journal.openWriter(!journal.completed.isEmpty());
+        if (journal.completed.isEmpty()) {
+            journal.writer.write(header(key) + "\n");
+            journal.writer.flush();
+        } else if (!endsWithNewline(journal.file)) {
+            // 上次在写一行的中途被关闭，先换行，避免和后面的行连在一起
+            journal.writer.write('\n');
+        }
+        return journal;
+    }
+
+    /**
+     * @param append false 时清空已有内容
+     */
+    private void openWriter(boolean append) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, append);
+        channel = out.getChannel();
+        writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    private static boolean endsWithNewline(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() == 0) {
+                return true;
+            }
+            raf.seek(raf.length() - 1);
+            return raf.read() == '\n';
+        }
+    }
+
+    private static void removeExpired(File dir) {
+        File[] files = dir.listFiles((d, n) -> n.endsWith(".journal"));
+        if (files == null) {
+            return;
+        }
+        long before = System.currentTimeMillis() - MAX_AGE.toMillis();
+        for (File f : files) {
+            if (f.lastModified() < before && !f.delete()) {
+                LogUtils.warn(SweepJournal.class, "删除过期检查点失败: " + f);
+            }
+        }
+    }
+
+    /**
+     * 第一遍读取：只收集提交记录，明细在 replayRecords 中再读一遍，内存占用与记录数无关
+     */
+    private void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        Map<Long, TimeRange> started = new HashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            if (header == null || !header.equals(header(key))) {
+                // 文件名哈希冲突、旧版本格式或文件损坏，重新开始
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.charAt(0) == 'R') {
+                    continue;
+                }
+                String[] parts = line.split("\t", -1);
+                try {
+                    long seq = Long.parseLong(parts[1]);
+                    nextSeq = Math.max(nextSeq, seq + 1);
+                    if (parts[0].equals("S") && parts.length == 4) {
+                        started.put(seq, new TimeRange(LocalDateTime.parse(parts[2]), LocalDateTime.parse(parts[3])));
+                    } else if (parts[0].equals("D") && parts.length == 3) {
+                        TimeRange range = started.get(seq);
+                        if (range != null) {
+                            committedRanges.put(seq, range);
+                            completed.put(range, Integer.parseInt(parts[2]));
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    // 最后一行没写完
+                }
+            }
+        }
+    }
+
+    /**
+     * 上次中断前已完成的时间段及其 total，按完成顺序；没有可续查的进度时为空
+     * 自适应拆分时包括被拆分的时间段，由调用方按相同的规则重新拆分
+     */
+    public Map<TimeRange, Integer> getCompleted() {
+        return completed;
+    }
+
+    public boolean isResumed() {
+        return !completed.isEmpty();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private static String header(String key) {
+        return "#\t" + FORMAT + "\t" + escape(key);
+    }
+
+    /**
+     * 第二遍读取：按写入顺序重放已提交的明细记录
+     * @param dictionary 重放的记录编码到这个字典中
+     * @return 重放的记录数
+     */
+    public long replayRecords(StringDictionary dictionary, BiConsumer<TimeRange, RiskEvent> consumer) throws IOException {
+        long count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.charAt(0) != 'R') {
+                    continue;
+                }
+                String[] parts = line.split("\t", -1);
+                if (parts.length != 13) {
+                    continue;
+                }
+                try {
+                    TimeRange range = committedRanges.get(Long.parseLong(parts[1]));
+                    if (range != null) {
+                        consumer.accept(range, parseRecord(dictionary, parts));
+                        count++;
+                    }
+                } catch (NumberFormatException e) {
+                    // 最后一行没写完
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 时间段开始一次请求
+     * @return 本次请求的 seq，record 和 complete 时使用
+     */
+    public synchronized long begin(TimeRange range) {
+        long seq = nextSeq++;
+        write("S\t" + seq + "\t" + range.start + "\t" + range.end + "\n", false);
+        return seq;
+    }
+
+    public synchronized void record(long seq, RiskEvent event) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("R\t").append(seq)
+                .append('\t').append(event.getId())
+                .append('\t').append(event.getTime())
+                .append('\t').append(event.getGrade())
+                .append('\t').append(escape(event.getSipString()))
+                .append('\t').append(escape(event.getDipString()))
+                .append('\t').append(escape(event.getAttackerIpString()))
+                .append('\t').append(event.getRuleId())
+                .append('\t').append(escape(event.getEventTypeName()))
+                .append('\t').append(escape(event.getAppTypeName()))
+                .append('\t').append(escape(event.getCveName()))
+                .append('\t').append(escape(event.getDomainName()))
+                .append('\n');
+        write(sb.toString(), false);
+    }
+
+    /**
+     * 提交时间段，写入后刷出并落盘，程序被关闭或系统断电也不会丢失
+     */
+    public synchronized void complete(long seq, int total) {
+        write("D\t" + seq + "\t" + total + "\n", true);
+    }
+
+    /**
+     * 丢弃已有的进度，只保留文件头，之后按全新的查询记录；重放失败、已完成的时间段需要重新请求时使用
+     */
+    public synchronized void reset() {
+        close();
+        committedRanges.clear();
+        completed.clear();
+        try {
+            openWriter(false);
+            writer.write(header(key) + "\n");
+            writer.flush();
+        } catch (IOException e) {
+            LogUtils.error(SweepJournal.class, "重建检查点失败，停止记录: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * 保留检查点，下次用相同参数查询时续查
+     */
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            LogUtils.error(SweepJournal.class, "关闭检查点失败: " + e.getMessage());
+        }
+        writer = null;
+        channel = null;
+    }
+
+    /**
+     * 查询全部完成，删除检查点
+     */
+    public synchronized void delete() {
+        close();
+        if (file.exists() && !file.delete()) {
+            LogUtils.warn(SweepJournal.class, "删除检查点失败: " + file);
+        }
+    }
+
+    /**
+     * @param commit 提交标记，刷出后 force 到磁盘
+     */
+    private void write(String line, boolean commit) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(line);
+            if (commit) {
+                writer.flush();
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            // 检查点写不进去不影响本次查询，只是不能续查
+            LogUtils.error(SweepJournal.class, "写入检查点失败，停止记录: " + e.getMessage());
+            try {
+                writer.close();
+            } catch (IOException ignored) {}
+            writer = null;
+            channel = null;
+        }
+    }
+
+    private static RiskEvent parseRecord(StringDictionary dictionary, String[] parts) {
+        return new RiskEvent(dictionary, Long.parseLong(parts[2]), Long.parseLong(parts[3]), Byte.parseByte(parts[4]),
+                RiskEvent.packIp(dictionary, unescape(parts[5])), RiskEvent.packIp(dictionary, unescape(parts[6])),
+                RiskEvent.packIp(dictionary, unescape(parts[7])), Integer.parseInt(parts[8]),
+                dictionary.encode(unescape(parts[9])), dictionary.encode(unescape(parts[10])),
+                dictionary.encode(unescape(parts[11])), dictionary.encode(unescape(parts[12])));
+    }
+
+    /**
+     * 转义 tab、换行和反斜杠，null 写为空字符串（字典中空字符串与 null 都是 NONE）
+     */
+    private static String escape(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf('\\') < 0 && value.indexOf('\t') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char n = value.charAt(++i);
+                sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package com.y5neko.dbapptools.ui;
+
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 界面更新合并器
+ * 任意线程 post 的更新先进入队列，最多每 intervalMillis 毫秒切到 FX 线程一次，把这段时间内的更新一次性交给 flusher，
+ * 避免几百个时间段各自 Platform.runLater 把 FX 线程占满
+ */
+public class FxUpdateCoalescer<T> {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "fx-coalescer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final long intervalMillis;
+    private final Consumer<List<T>> flusher;
+    private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>();
+    // 已经安排了一次刷新但还没执行
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile long lastFlushNanos = 0;
+
+    /**
+     * @param flusher 在 FX 线程上调用，参数为按 post 顺序排列的一批更新
+     */
+    public FxUpdateCoalescer(long intervalMillis, Consumer<List<T>> flusher) {
+        this.intervalMillis = intervalMillis;
+        this.flusher = flusher;
+    }
+
+    /**
+     * 可在任意线程调用
+     */
+    public void post(T update) {
+        queue.add(update);
+        if (scheduled.compareAndSet(false, true)) {
+            long sinceLast = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastFlushNanos);
+            long delay = Math.max(0, intervalMillis - sinceLast);
+            TIMER.schedule(() -> Platform.runLater(this::drain), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 丢弃还没刷新的更新，在 FX 线程上调用
+     */
+    public void clear() {
+        queue.clear();
+    }
+
+    private void drain() {
+        lastFlushNanos = System.nanoTime();
+        // 先清除标记再取队列，取队列之后 post 的更新会安排下一次刷新
+        scheduled.set(false);
+        List<T> batch = new ArrayList<>();
+        T update;
+        while ((update = queue.poll()) != null) {
+            batch.add(update);
+        }
+        if (!batch.isEmpty()) {
+            flusher.accept(batch);
+        }
+    }
+}
@@ -1,14 +1,11 @@
 package com.y5neko.dbapptools.ui;
 
-import com.alibaba.fastjson2.JSONObject;
 import com.y5neko.dbapptools.auth.AccountInfo;
 import com.y5neko.dbapptools.auth.AccountStorage;
 import com.y5neko.dbapptools.network.AuthService;
 import com.y5neko.dbapptools.network.CaptchaService;
-import com.y5neko.dbapptools.utils.AESCTRUtils;
 import com.y5neko.dbapptools.utils.JwtUtils;
 import com.y5neko.dbapptools.utils.LogUtils;
-import com.y5neko.dbapptools.utils.MiscUtils;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -25,6 +22,11 @@ public class LoginTab extends BorderPane {
     private Label hashLabel;
     private Button fetchCaptchaBtn;
 
+    // 设备名称，可编辑；下拉列表为已保存的设备
+    private ComboBox<String> profileCombo;
+    // 设备自己的并发数，0 表示使用查询设置
+    private Spinner<Integer> profileConcurrencySpinner;
+    private CheckBox profileEnabledBox;
     private TextField loginUrlField;
     private TextField usernameField;
     private PasswordField passwordField;
@@ -55,27 +57,101 @@ public class LoginTab extends BorderPane {
         // 加载验证码
         fetchCaptcha();
 
+        reloadProfiles(savedAccount != null ? savedAccount.getName() : null);
         if (savedAccount != null) {
-            if (savedAccount.getLoginUrl() != null) {
-                loginUrlField.setText(savedAccount.getLoginUrl());
-            }
-            if (savedAccount.getUsername() != null) {
-                usernameField.setText(savedAccount.getUsername());
-            }
-            if (savedAccount.getPassword() != null) {
-                passwordField.setText(savedAccount.getPassword());
-            }
+            fillAccount(savedAccount);
+        }
+    }
+
+    /**
+     * 重新读取已保存的设备列表，selected 为编辑框中显示的名称
+     */
+    private void reloadProfiles(String selected) {
+        profileCombo.getItems().clear();
+        for (AccountInfo account : AccountStorage.loadAccounts()) {
+            profileCombo.getItems().add(account.getName());
+        }
+        profileCombo.getEditor().setText(selected != null ? selected : "");
+    }
+
+    /**
+     * 切换到已保存的设备：填充表单并设为当前设备，告警列表页面默认查询当前设备
+     */
+    private void switchProfile(String name) {
+        AccountInfo account = AccountStorage.loadAccount(name);
+        if (account == null) {
+            return;
         }
+        AccountStorage.setCurrent(name);
+        logArea.setText("");
+        fillAccount(account);
+        captchaService = new CaptchaService(account.getLoginUrl());
+        fetchCaptcha();
+    }
+
+    private void fillAccount(AccountInfo account) {
+        loginUrlField.setText(account.getLoginUrl() != null ? account.getLoginUrl() : "");
+        usernameField.setText(account.getUsername() != null ? account.getUsername() : "");
+        passwordField.setText(account.getPassword() != null ? account.getPassword() : "");
+        profileConcurrencySpinner.getValueFactory().setValue(account.getConcurrency());
+        profileEnabledBox.setSelected(account.isEnabled());
 
-        if (savedAccount != null && savedAccount.getJwtToken() != null) {
-            logArea.setText("已登录，请前往漏洞列表页面检查是否有效，JWT为:\n" + savedAccount.getJwtToken() + "\n");
-            JwtUtils.JwtInfo info = JwtUtils.parse(savedAccount.getJwtToken());
+        if (account.getJwtToken() != null) {
+            appendLog("设备 " + account.getName() + " 已登录，请前往漏洞列表页面检查是否有效，JWT为:\n" + account.getJwtToken());
+            JwtUtils.JwtInfo info = JwtUtils.parse(account.getJwtToken());
             appendLog("======================\n" +
                     "当前登录用户为: " + JwtUtils.getClaimAsString(info, "username").orElse("<none>") +
                     "\n过期状态: " + JwtUtils.isExpired(info));
         }
     }
 
+    /**
+     * 按表单内容创建账号，名称为空时取地址中的主机和端口
+     */
+    private AccountInfo formAccount(String jwtToken) {
+        AccountInfo account = new AccountInfo(profileCombo.getEditor().getText().trim(), usernameField.getText().trim(),
+                passwordField.getText().trim(), jwtToken, loginUrlField.getText().trim());
+        account.setConcurrency(profileConcurrencySpinner.getValue());
+        account.setEnabled(profileEnabledBox.isSelected());
+        return account;
+    }
+
+    /**
+     * 不登录，只保存设备设置；地址未变时保留原有的 JWT
+     */
+    private void saveProfile() {
+        if (loginUrlField.getText().trim().isEmpty()) {
+            appendLog("登录地址不能为空");
+            return;
+        }
+        AccountInfo account = formAccount(null);
+        AccountInfo existing = AccountStorage.loadAccount(account.getName());
+        if (existing != null && account.getLoginUrl().equals(existing.getLoginUrl())) {
+            account.setJwtToken(existing.getJwtToken());
+        }
+        if (!AccountStorage.saveAccount(account)) {
+            appendLog("设备 " + account.getName() + " 保存失败，请检查账号文件");
+            return;
+        }
+        reloadProfiles(account.getName());
+        appendLog("设备 " + account.getName() + " 已保存");
+    }
+
+    private void removeProfile() {
+        String name = profileCombo.getEditor().getText().trim();
+        if (name.isEmpty() || AccountStorage.loadAccount(name) == null) {
+            appendLog("没有名为 " + name + " 的设备");
+            return;
+        }
+        if (!AccountStorage.removeAccount(name)) {
+            appendLog("设备 " + name + " 删除失败，请检查账号文件");
+            return;
+        }
+        AccountInfo current = AccountStorage.loadAccount();
+        reloadProfiles(current != null ? current.getName() : null);
+        appendLog("设备 " + name + " 已删除");
+    }
+
     private void initUI() {
         // Captcha部分
         captchaImageView = new ImageView();
@@ -104,6 +180,32 @@ public class LoginTab extends BorderPane {
         captchaBox.setPadding(new Insets(15));
 
         // 登录表单
+        profileCombo = new ComboBox<>();
+        profileCombo.setEditable(true);
+        profileCombo.setMaxWidth(Double.MAX_VALUE);
+        profileCombo.setPromptText("设备名称，留空时使用地址");
+        profileCombo.setOnAction(e -> {
+            String name = profileCombo.getValue();
+            // 手动输入新名称时不切换
+            if (name != null && profileCombo.getItems().contains(name)) {
+                switchProfile(name);
+            }
+        });
+        Button saveProfileBtn = new Button("保存设备");
+        saveProfileBtn.setOnAction(e -> saveProfile());
+        Button removeProfileBtn = new Button("删除设备");
+        removeProfileBtn.setOnAction(e -> removeProfile());
+        HBox profileBox = new HBox(5, profileCombo, saveProfileBtn, removeProfileBtn);
+        HBox.setHgrow(profileCombo, Priority.ALWAYS);
+
+        profileConcurrencySpinner = new Spinner<>(0, 64, 0);
+        profileConcurrencySpinner.setEditable(true);
+        profileConcurrencySpinner.setPrefWidth(80);
+        profileEnabledBox = new CheckBox("参与“全部设备”查询");
+        profileEnabledBox.setSelected(true);
+        HBox profileOptionBox = new HBox(10, profileConcurrencySpinner, new Label("0 为使用查询设置"), profileEnabledBox);
+        profileOptionBox.setAlignment(Pos.CENTER_LEFT);
+
         loginUrlField = new TextField();
         loginUrlField.setPromptText("登录地址");
 
@@ -137,17 +239,21 @@ public class LoginTab extends BorderPane {
 
         loginGrid.getColumnConstraints().addAll(col1, col2);
 
-        loginGrid.add(new Label("登录地址:"), 0, 0);
-        loginGrid.add(loginUrlField, 1, 0);
-        loginGrid.add(new Label("用户名:"), 0, 1);
-        loginGrid.add(usernameField, 1, 1);
-        loginGrid.add(new Label("密码:"), 0, 2);
-        loginGrid.add(passwordField, 1, 2);
-        loginGrid.add(new Label("验证码:"), 0, 3);
-        loginGrid.add(captchaInputField, 1, 3);
-        loginGrid.add(new Label("登录类型:"), 0, 4);
-        loginGrid.add(loginTypeCombo, 1, 4);
-        loginGrid.add(loginBtn, 1, 5);
+        loginGrid.add(new Label("设备:"), 0, 0);
+        loginGrid.add(profileBox, 1, 0);
+        loginGrid.add(new Label("设备并发:"), 0, 1);
+        loginGrid.add(profileOptionBox, 1, 1);
+        loginGrid.add(new Label("登录地址:"), 0, 2);
+        loginGrid.add(loginUrlField, 1, 2);
+        loginGrid.add(new Label("用户名:"), 0, 3);
+        loginGrid.add(usernameField, 1, 3);
+        loginGrid.add(new Label("密码:"), 0, 4);
+        loginGrid.add(passwordField, 1, 4);
+        loginGrid.add(new Label("验证码:"), 0, 5);
+        loginGrid.add(captchaInputField, 1, 5);
+        loginGrid.add(new Label("登录类型:"), 0, 6);
+        loginGrid.add(loginTypeCombo, 1, 6);
+        loginGrid.add(loginBtn, 1, 7);
 
         logArea = new TextArea();
         logArea.setEditable(false);
@@ -213,6 +319,9 @@ public class LoginTab extends BorderPane {
         String password = passwordField.getText().trim();
         String captcha = captchaInputField.getText().trim();
         int loginType = loginTypeCombo.getValue();
+        String name = profileCombo.getEditor().getText().trim();
+        int concurrency = profileConcurrencySpinner.getValue();
+        boolean enabled = profileEnabledBox.isSelected();
 
         if (loginUrl.isEmpty()) {
             appendLog("登录地址不能为空");
@@ -233,26 +342,26 @@ public class LoginTab extends BorderPane {
             return;
         }
 
-        // ======================================== 密码加密 ===============================================
-        String timestamp = MiscUtils.getTimestamp();
-        String times = MiscUtils.getTimes(timestamp);
-        String aesKey = MiscUtils.getAESKeyByTimestamp(timestamp);
-        String encryptedPwdBase64 = AESCTRUtils.quickUse(password, aesKey, "DbappAPTLoginSpe");
-
         appendLog("发送登录请求...");
         loginBtn.setDisable(true);
 
-        authService.loginWithUrl(loginUrl, username, encryptedPwdBase64, captcha, loginType, currentCaptchaHash, times, new AuthService.LoginCallback() {
+        // 密码加密在 AuthService 中完成
+        authService.loginWithPassword(loginUrl, username, password, captcha, loginType, currentCaptchaHash, new AuthService.LoginCallback() {
             @Override
             public void onSuccess(String response) {
                 appendLog("登录请求成功，响应内容: " + response);
                 setLoginBtn(true);
-                JSONObject jsonObject = JSONObject.parseObject(response);
-                String jwtToken = jsonObject.getString("token");
-                if (jwtToken != null && jwtToken.startsWith("eyJ")) {
-                AccountInfo account = new AccountInfo(username, password, jwtToken, loginUrl);
-                AccountStorage.saveAccount(account);
-                appendLog("登录成功，JWT Token已保存");
+                String jwtToken = AuthService.extractToken(response);
+                if (jwtToken != null) {
+                AccountInfo account = new AccountInfo(name, username, password, jwtToken, loginUrl);
+                account.setConcurrency(concurrency);
+                account.setEnabled(enabled);
+                if (AccountStorage.saveAccount(account)) {
+                    Platform.runLater(() -> reloadProfiles(account.getName()));
+                    appendLog("登录成功，设备 " + account.getName() + " 的 JWT Token已保存");
+                } else {
+                    appendLog("登录成功，但设备 " + account.getName() + " 的 JWT Token保存失败，请检查账号文件");
+                }
                 } else {
                     appendLog("登录失败，JWT Token不存在");
                 }
@@ -1,51 +1,133 @@
 package com.y5neko.dbapptools.ui;
 
-import com.alibaba.fastjson2.JSON;
-import com.alibaba.fastjson2.JSONObject;
 import com.y5neko.dbapptools.auth.AccountInfo;
+import com.y5neko.dbapptools.aggregate.RiskAggregator;
+import com.y5neko.dbapptools.aggregate.SegmentAggregation;
 import com.y5neko.dbapptools.auth.AccountStorage;
 import com.y5neko.dbapptools.config.GlobalConfig;
+import com.y5neko.dbapptools.export.RiskEventExporter;
+import com.y5neko.dbapptools.model.DictionaryRemapper;
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.model.RiskEventColumns;
+import com.y5neko.dbapptools.network.AdaptiveTimeSplitter;
+import com.y5neko.dbapptools.network.ApplianceFanOut;
 import com.y5neko.dbapptools.network.HttpClientManager;
+import com.y5neko.dbapptools.network.QueryScheduler;
+import com.y5neko.dbapptools.network.RateLimiter;
+import com.y5neko.dbapptools.network.RecordDeduplicator;
+import com.y5neko.dbapptools.network.RetryPolicy;
+import com.y5neko.dbapptools.network.RiskQueryEngine;
+import com.y5neko.dbapptools.network.RiskRecordSink;
+import com.y5neko.dbapptools.network.RiskTailFollower;
+import com.y5neko.dbapptools.network.TimeRange;
+import com.y5neko.dbapptools.network.TokenManager;
+import com.y5neko.dbapptools.store.EventStore;
+import com.y5neko.dbapptools.store.ScanFilter;
+import com.y5neko.dbapptools.store.SliceTotalCache;
 import com.y5neko.dbapptools.utils.LogUtils;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
+import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
 import javafx.scene.control.*;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
 import javafx.scene.layout.*;
+import javafx.stage.FileChooser;
 
-import okhttp3.*;
-import org.jetbrains.annotations.NotNull;
-
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class RiskListTab extends BorderPane {
 
     private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
+    // 输出区最多保留的字符数，超出后删除最早的内容，避免文本越来越长导致每次布局都变慢
+    private static final int MAX_RESPONSE_CHARS = 200_000;
+
+    private static final String CURRENT_APPLIANCE = "当前设备";
+    private static final String ALL_APPLIANCES = "全部设备";
+
     private DatePicker startDatePicker;
     private TextField startTimeField;
     private DatePicker endDatePicker;
     private TextField endTimeField;
 
+    // 查询的设备：当前设备、全部设备或某一台已保存的设备
+    private ComboBox<String> applianceCombo;
     private Button queryBtn;
     private Button stopBtn;
     private TextArea responseArea;
+    // 告警明细表格
+    private RiskResultsPane resultsPane;
+    // 进度信息合并后批量写入输出区
+    private final FxUpdateCoalescer<String> responseUpdates =
+            new FxUpdateCoalescer<>(FxUpdateCoalescer.DEFAULT_INTERVAL_MILLIS, this::flushResponse);
 
     // attackgrades 多选框
     private CheckBox cbHigh;
     private CheckBox cbMedium;
     private CheckBox cbLow;
 
-    private volatile int totalCount = 0;
-    private volatile int pendingRequests = 0;
+    // 最大并发请求数
+    private Spinner<Integer> concurrencySpinner;
+    // 失败重试次数
+    private Spinner<Integer> retrySpinner;
+    // 按设备限速，每秒请求数为 0 表示不限速
+    private Spinner<Integer> rateSpinner;
+    private Spinner<Integer> burstSpinner;
+
+    // 自适应拆分
+    private CheckBox cbAdaptive;
+    private Spinner<Integer> thresholdSpinner;
 
-    // 记录所有正在执行的请求
-    private final List<Call> activeCalls = new CopyOnWriteArrayList<>();
+    // 获取告警明细（分页拉取全部记录），否则只统计 total
+    private CheckBox cbDetail;
+    // 明细写入本地存储，已结束的小时不再重复请求
+    private CheckBox cbLocalStore;
+    // 记录检查点，停止或关闭后用相同条件再次查询时从中断处继续
+    private CheckBox cbCheckpoint;
+    // 明细导出格式，第一项为不导出
+    private ChoiceBox<String> exportChoice;
+    // 持续跟踪新告警，从开始时间起按间隔增量查询，忽略结束时间
+    private CheckBox cbFollow;
+    // 明细去重方式，下标 0 精确、1 Bloom、2 不去重
+    private ChoiceBox<String> dedupChoice;
+    private TextField searchField;
+    private Button searchBtn;
+    private Spinner<Integer> followIntervalSpinner;
+
+    private final RiskQueryEngine queryEngine = new RiskQueryEngine(HttpClientManager.getInstance(), GlobalConfig.LIMIT);
+    // 当前查询
+    private volatile RiskQueryEngine.RunningQuery runningQuery;
+    // 当前的多设备查询，单台设备时为 null
+    private volatile ApplianceFanOut.RunningFanOut runningFanOut;
+    // 当前跟踪，未跟踪时为 null
+    private volatile RiskTailFollower follower;
+    private volatile String queryBaseUrl;
+    private LocalDateTime queryStart;
+    private LocalDateTime queryEnd;
+    // 本地存储，未启用时为 null
+    private volatile EventStore eventStore;
+    private volatile boolean[] queryGradeMask;
+    // 统计模式下的时间段 total 缓存
+    private volatile SliceTotalCache totalCache;
+    // 本次查询的缓存命中统计，缓存本身由所有查询共用
+    private volatile SliceTotalCache.Stats totalCacheStats;
+    // 当前查询的明细记录，显示在 resultsPane 中
+    private volatile RiskEventColumns resultColumns;
+    // 当前查询的导出器，未导出时为 null
+    private volatile RiskEventExporter exporter;
+    // 当前查询的明细统计，查询过程中可以随时查看
+    private volatile RiskAggregator aggregator;
+    private volatile File exportFile;
 
     public RiskListTab() {
         initUI();
@@ -62,7 +144,13 @@ public class RiskListTab extends BorderPane {
         endTimeField = new TextField("23:59:59");
         endTimeField.setPrefWidth(80);
 
-        HBox startBox = new HBox(5, startLabel, startDatePicker, startTimeField);
+        Label applianceLabel = new Label("设备:");
+        applianceCombo = new ComboBox<>();
+        reloadAppliances();
+        // 在登录页面增删设备后，展开时重新读取
+        applianceCombo.setOnShowing(e -> reloadAppliances());
+
+        HBox startBox = new HBox(5, startLabel, startDatePicker, startTimeField, applianceLabel, applianceCombo);
         startBox.setAlignment(Pos.CENTER_LEFT);
 
         HBox endBox = new HBox(5, endLabel, endDatePicker, endTimeField);
@@ -77,6 +165,72 @@ public class RiskListTab extends BorderPane {
         HBox gradeBox = new HBox(10, gradeLabel, cbHigh, cbMedium, cbLow);
         gradeBox.setAlignment(Pos.CENTER_LEFT);
 
+        Label concurrencyLabel = new Label("并发数:");
+        concurrencySpinner = new Spinner<>(1, 64, QueryScheduler.DEFAULT_MAX_IN_FLIGHT);
+        concurrencySpinner.setEditable(true);
+        concurrencySpinner.setPrefWidth(80);
+
+        Label retryLabel = new Label("重试次数:");
+        retrySpinner = new Spinner<>(0, 10, RetryPolicy.DEFAULT_MAX_RETRIES);
+        retrySpinner.setEditable(true);
+        retrySpinner.setPrefWidth(70);
+
+        RateLimiter rateLimiter = HttpClientManager.getRateLimiter();
+        Label rateLabel = new Label("每秒请求:");
+        rateSpinner = new Spinner<>(0, 1000, (int) rateLimiter.getPermitsPerSecond());
+        rateSpinner.setEditable(true);
+        rateSpinner.setPrefWidth(80);
+        Label burstLabel = new Label("突发:");
+        burstSpinner = new Spinner<>(1, 1000, rateLimiter.getBurst());
+        burstSpinner.setEditable(true);
+        burstSpinner.setPrefWidth(80);
+        burstSpinner.disableProperty().bind(rateSpinner.valueProperty().isEqualTo(0));
+
+        cbAdaptive = new CheckBox("自适应拆分");
+        Label thresholdLabel = new Label("拆分阈值:");
+        thresholdSpinner = new Spinner<>(1, Integer.MAX_VALUE, GlobalConfig.LIMIT);
+        thresholdSpinner.setEditable(true);
+        thresholdSpinner.setPrefWidth(100);
+        thresholdSpinner.disableProperty().bind(cbAdaptive.selectedProperty().not());
+
+        // 明细模式按小时分页拉取，暂不与自适应拆分组合
+        cbDetail = new CheckBox("获取明细");
+        cbAdaptive.disableProperty().bind(cbDetail.selectedProperty());
+        cbLocalStore = new CheckBox("本地缓存");
+        cbLocalStore.disableProperty().bind(cbDetail.selectedProperty().not());
+        // 本地缓存本身按小时记录进度，不需要检查点
+        cbCheckpoint = new CheckBox("断点续查");
+        cbCheckpoint.setSelected(true);
+        cbCheckpoint.disableProperty().bind(cbDetail.selectedProperty().and(cbLocalStore.selectedProperty()));
+
+        HBox concurrencyBox = new HBox(5, concurrencyLabel, concurrencySpinner, retryLabel, retrySpinner, cbAdaptive, thresholdLabel, thresholdSpinner, cbDetail, cbLocalStore, cbCheckpoint);
+        concurrencyBox.setAlignment(Pos.CENTER_LEFT);
+
+        Label exportLabel = new Label("导出明细:");
+        exportChoice = new ChoiceBox<>();
+        exportChoice.getItems().add("不导出");
+        for (RiskEventExporter.Format format : RiskEventExporter.Format.values()) {
+            exportChoice.getItems().add(format.name());
+        }
+        exportChoice.getSelectionModel().selectFirst();
+        cbFollow = new CheckBox("持续跟踪");
+        Label followIntervalLabel = new Label("间隔(秒):");
+        followIntervalSpinner = new Spinner<>(5, 3600, RiskTailFollower.DEFAULT_INTERVAL_SECONDS);
+        followIntervalSpinner.setEditable(true);
+        followIntervalSpinner.setPrefWidth(80);
+        followIntervalSpinner.disableProperty().bind(cbFollow.selectedProperty().not());
+        exportChoice.disableProperty().bind(cbDetail.selectedProperty().not().and(cbFollow.selectedProperty().not()));
+
+        Label dedupLabel = new Label("去重:");
+        dedupChoice = new ChoiceBox<>();
+        dedupChoice.getItems().addAll("精确", "Bloom", "不去重");
+        dedupChoice.getSelectionModel().selectFirst();
+        dedupChoice.disableProperty().bind(cbDetail.selectedProperty().not());
+
+        HBox rateBox = new HBox(5, rateLabel, rateSpinner, burstLabel, burstSpinner, exportLabel, exportChoice,
+                cbFollow, followIntervalLabel, followIntervalSpinner, dedupLabel, dedupChoice);
+        rateBox.setAlignment(Pos.CENTER_LEFT);
+
         queryBtn = new Button("查询");
         queryBtn.setOnAction(e -> sendRiskListRequest());
 
@@ -84,36 +238,94 @@ public class RiskListTab extends BorderPane {
         stopBtn.setDisable(true);
         stopBtn.setOnAction(e -> stopAllRequests());
 
-        HBox buttonBox = new HBox(10, queryBtn, stopBtn);
+        Button statsBtn = new Button("统计");
+        statsBtn.setOnAction(e -> showStatistics());
+
+        Label searchLabel = new Label("本地检索:");
+        searchField = new TextField();
+        searchField.setPromptText("attacker=1.2.3.4 rule=10001 cve=CVE-2021-44228 domain=example.com");
+        searchField.setPrefWidth(420);
+        searchField.setOnAction(e -> searchLocalStore());
+        searchBtn = new Button("检索");
+        searchBtn.setOnAction(e -> searchLocalStore());
+
+        HBox buttonBox = new HBox(10, queryBtn, stopBtn, statsBtn, searchLabel, searchField, searchBtn);
         buttonBox.setAlignment(Pos.CENTER_LEFT);
 
-        VBox controlBox = new VBox(10, startBox, endBox, gradeBox, buttonBox);
+        VBox controlBox = new VBox(10, startBox, endBox, gradeBox, concurrencyBox, rateBox, buttonBox);
         controlBox.setPadding(new Insets(15));
 
         responseArea = new TextArea();
         responseArea.setEditable(false);
         responseArea.setWrapText(true);
 
+        resultsPane = new RiskResultsPane();
+        SplitPane splitPane = new SplitPane(resultsPane, responseArea);
+        splitPane.setOrientation(Orientation.VERTICAL);
+        splitPane.setDividerPositions(0.65);
+
         this.setTop(controlBox);
-        this.setCenter(responseArea);
+        this.setCenter(splitPane);
         this.setPadding(new Insets(10));
     }
 
+    private void reloadAppliances() {
+        String selected = applianceCombo.getValue();
+        List<String> items = new ArrayList<>();
+        items.add(CURRENT_APPLIANCE);
+        items.add(ALL_APPLIANCES);
+        for (AccountInfo account : AccountStorage.loadAccounts()) {
+            items.add(account.getName());
+        }
+        applianceCombo.getItems().setAll(items);
+        applianceCombo.setValue(selected != null && items.contains(selected) ? selected : CURRENT_APPLIANCE);
+    }
+
+    /**
+     * 按设备选择返回要查询的设备，“全部设备”只包括启用的设备
+     */
+    private List<AccountInfo> getSelectedAccounts() {
+        String selected = applianceCombo.getValue();
+        List<AccountInfo> accounts = new ArrayList<>();
+        if (ALL_APPLIANCES.equals(selected)) {
+            for (AccountInfo account : AccountStorage.loadAccounts()) {
+                if (account.isEnabled()) {
+                    accounts.add(account);
+                }
+            }
+        } else {
+            AccountInfo account = selected == null || CURRENT_APPLIANCE.equals(selected)
+                    ? AccountStorage.loadAccount() : AccountStorage.loadAccount(selected);
+            if (account != null) {
+                accounts.add(account);
+            }
+        }
+        return accounts;
+    }
+
     private void sendRiskListRequest() {
+        responseUpdates.clear();
         responseArea.clear();
+        RiskEventColumns results = resultsPane.reset();
+        resultColumns = results;
+        aggregator = new RiskAggregator(results.getDictionary());
         queryBtn.setDisable(true);
         stopBtn.setDisable(false);
-        totalCount = 0;
-        activeCalls.clear();
 
-        AccountInfo account = AccountStorage.loadAccount();
+        List<AccountInfo> accounts = getSelectedAccounts();
+        if (accounts.size() > 1) {
+            resultsPane.setApplianceVisible(true);
+            sendFanOutRequest(accounts, results);
+            return;
+        }
+        resultsPane.setApplianceVisible(false);
+        AccountInfo account = accounts.isEmpty() ? null : accounts.get(0);
         if (account == null || account.getJwtToken() == null) {
             appendResponse("错误: 未找到有效JWT Token，请先登录获取");
             queryBtn.setDisable(false);
             stopBtn.setDisable(true);
             return;
         }
-        String token = account.getJwtToken();
         String baseUrl = account.getLoginUrl();
         if (baseUrl == null || baseUrl.isEmpty()) {
             appendResponse("错误: 登录地址为空，请先登录并填写地址");
@@ -124,7 +336,6 @@ public class RiskListTab extends BorderPane {
         if (baseUrl.endsWith("/")) {
             baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
         }
-        String url = baseUrl + GlobalConfig.RISK_LIST_URL;
 
         LocalDateTime startDateTime = parseDateTime(startDatePicker, startTimeField);
         LocalDateTime endDateTime = parseDateTime(endDatePicker, endTimeField);
@@ -136,127 +347,679 @@ public class RiskListTab extends BorderPane {
             return;
         }
 
-        List<TimeRange> timeRanges = splitTimeByHour(startDateTime, endDateTime);
-        pendingRequests = timeRanges.size();
+        if (!prepareExporter()) {
+            return;
+        }
+
+        TokenManager tokens = newTokenManager(account);
+        if (cbFollow.isSelected()) {
+            startFollow(baseUrl, tokens, startDateTime, results);
+            return;
+        }
+
+        queryBaseUrl = baseUrl;
+        queryStart = startDateTime;
+        queryEnd = endDateTime;
+        boolean storeMode = prepareQuery();
+
+        int maxInFlight = concurrencyOf(account);
+        RateLimiter rateLimiter = HttpClientManager.getRateLimiter();
+        HttpClientManager.setMaxRequestsPerHost(maxInFlight);
 
-        appendResponse("拆分为 " + pendingRequests + " 个时间段，开始请求...");
+        RiskQueryEngine.QueryRequest request = newQueryRequest(baseUrl, tokens, maxInFlight);
+        eventStore = storeMode ? request.getStore() : null;
+
+        RiskRecordSink<RiskEvent> recordSink = newRecordSink(results);
+        runningQuery = queryEngine.start(request, new RiskQueryEngine.QueryListener() {
+            @Override
+            public void onStarted(List<TimeRange> slices, int skippedHours) {
+                if (storeMode) {
+                    appendResponse("共 " + (slices.size() + skippedHours) + " 个小时，本地已有 " + skippedHours + " 个");
+                }
+                appendResponse("拆分为 " + slices.size() + " 个时间段，最大并发 " + maxInFlight
+                        + (rateLimiter.getPermitsPerSecond() > 0 ? "，限速 " + (int) rateLimiter.getPermitsPerSecond() + " 次/秒" : "")
+                        + "，开始请求...");
+            }
+
+            @Override
+            public void onSliceDone(TimeRange range, int total) {
+                appendResponse("时间段 " + range + " " + (request.isDetail() ? "获取记录: " : "total: ") + total);
+            }
 
-        for (TimeRange range : timeRanges) {
-            sendSingleRequest(url, token, range);
+            @Override
+            public void onSliceSplit(TimeRange range, int total, List<TimeRange> children) {
+                appendResponse("时间段 " + range + " total: " + total + " 超过阈值，拆分为 " + children.size() + " 段");
+            }
+
+            @Override
+            public void onSliceFailed(TimeRange range, String error) {
+                appendResponse("时间段 " + range + " 请求失败: " + error);
+            }
+
+            @Override
+            public void onRecord(TimeRange range, RiskEvent event) {
+                // 本地存储模式结束后统一从存储读取，包括本地已有的小时
+                if (!storeMode) {
+                    recordSink.onRecord(range, event);
+                }
+            }
+
+            @Override
+            public void onResumed(int completedSlices, long replayedRecords, File journal) {
+                appendResponse("从上次中断处继续: 跳过已完成的 " + completedSlices + " 个时间段"
+                        + (request.isDetail() ? "，重放明细 " + replayedRecords + " 条" : ""));
+            }
+
+            @Override
+            public void onReloginStarted(String reason) {
+                appendResponse(reason + "，暂停请求并重新登录，请输入验证码");
+            }
+
+            @Override
+            public void onReloginFinished(String error) {
+                appendResponse(error == null ? "重新登录成功，从失败的时间段继续请求"
+                        : "重新登录失败: " + error + "，因 Token 失效而失败的时间段不再重试");
+            }
+        });
+        runningQuery.getFuture().thenAccept(this::onQueryFinished);
+    }
+
+    /**
+     * 按导出设置创建导出器，取消选择文件或创建失败时恢复按钮并返回 false
+     */
+    private boolean prepareExporter() {
+        exporter = null;
+        exportFile = null;
+        if ((cbDetail.isSelected() || cbFollow.isSelected()) && exportChoice.getSelectionModel().getSelectedIndex() > 0) {
+            if (!openExporter(RiskEventExporter.Format.valueOf(exportChoice.getValue()))) {
+                queryBtn.setDisable(false);
+                stopBtn.setDisable(true);
+                return false;
+            }
         }
+        return true;
     }
 
-    private void appendResponse(String msg) {
-        Platform.runLater(() -> responseArea.appendText(msg + "\n\n"));
+    /**
+     * 设置限速、清空连接统计和缓存统计
+     * @return 是否为本地存储模式
+     */
+    private boolean prepareQuery() {
+        totalCache = null;
+        queryGradeMask = getSelectedGradeMask();
+        HttpClientManager.getRateLimiter().setRate(rateSpinner.getValue(), burstSpinner.getValue());
+        HttpClientManager.resetPoolStats();
+        boolean storeMode = cbDetail.isSelected() && cbLocalStore.isSelected();
+        if (!storeMode && !cbDetail.isSelected()) {
+            totalCache = SliceTotalCache.getDefault();
+            totalCacheStats = new SliceTotalCache.Stats();
+        }
+        return storeMode;
+    }
+
+    /**
+     * 按界面设置创建一台设备的查询参数，本地存储按设备地址分目录
+     */
+    private RiskQueryEngine.QueryRequest newQueryRequest(String baseUrl, TokenManager tokens, int maxInFlight) {
+        RiskQueryEngine.QueryRequest request = new RiskQueryEngine.QueryRequest(baseUrl, tokens.getToken(), queryStart, queryEnd)
+                .tokens(tokens)
+                .grades(getSelectedAttackGrades())
+                .concurrency(maxInFlight)
+                .retry(new RetryPolicy(retrySpinner.getValue()))
+                .dedup(getSelectedDedupMode())
+                // 明细直接编码到结果表格的字典，写入表格和统计时不需要转换
+                .dictionary(resultColumns.getDictionary());
+        if (cbCheckpoint.isSelected()) {
+            request.checkpoint();
+        }
+        if (cbDetail.isSelected() && cbLocalStore.isSelected()) {
+            request.store(EventStore.open(request.getBaseUrl()));
+        } else if (cbDetail.isSelected()) {
+            request.detail();
+        } else {
+            request.cache(totalCache, totalCacheStats);
+            if (cbAdaptive.isSelected()) {
+                request.adaptive(thresholdSpinner.getValue());
+            }
+        }
+        return request;
+    }
+
+    /**
+     * 查询过程中 Token 即将过期或失效时用保存的账号密码重新登录，验证码弹窗输入，新 Token 写回账号文件
+     */
+    private TokenManager newTokenManager(AccountInfo account) {
+        String name = account.getName();
+        return new TokenManager(name, account.getLoginUrl(), account.getUsername(), account.getPassword(),
+                account.getJwtToken(), this::showCaptchaDialog)
+                .listener(new TokenManager.RefreshListener() {
+                    @Override
+                    public void onRefreshed(String token) {
+                        AccountStorage.saveToken(name, token);
+                    }
+                });
+    }
+
+    /**
+     * 在 token-refresh 线程上调用，弹窗显示验证码并等待输入；多台设备同时重新登录时依次弹出
+     */
+    private synchronized String showCaptchaDialog(String appliance, byte[] image) throws Exception {
+        CompletableFuture<String> code = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                TextInputDialog dialog = new TextInputDialog();
+                dialog.setTitle("重新登录");
+                dialog.setHeaderText("设备 " + appliance + " 的 Token 即将过期或已失效，请输入验证码继续查询");
+                dialog.setGraphic(new ImageView(new Image(new ByteArrayInputStream(image))));
+                if (getScene() != null) {
+                    dialog.initOwner(getScene().getWindow());
+                }
+                // 取消时返回 null，放弃重新登录
+                code.complete(dialog.showAndWait().orElse(null));
+            } catch (Exception e) {
+                code.completeExceptionally(e);
+            }
+        });
+        return code.get();
+    }
+
+    /**
+     * 设备自己设置了并发数时优先使用，否则为界面上的并发数
+     */
+    private int concurrencyOf(AccountInfo account) {
+        return account.getConcurrency() > 0 ? account.getConcurrency() : concurrencySpinner.getValue();
+    }
+
+    /**
+     * 多台设备并行查询，明细合并显示在同一张表格中，“设备”列为来源设备
+     */
+    private void sendFanOutRequest(List<AccountInfo> accounts, RiskEventColumns results) {
+        for (AccountInfo account : accounts) {
+            if (account.getJwtToken() == null || account.getLoginUrl() == null || account.getLoginUrl().isEmpty()) {
+                appendResponse("错误: 设备 " + account.getName() + " 未登录或登录地址为空，请先在登录页面登录，或取消它的“参与全部设备查询”");
+                queryBtn.setDisable(false);
+                stopBtn.setDisable(true);
+                return;
+            }
+        }
+        if (cbFollow.isSelected()) {
+            appendResponse("错误: 持续跟踪只支持单台设备");
+            queryBtn.setDisable(false);
+            stopBtn.setDisable(true);
+            return;
+        }
+        queryStart = parseDateTime(startDatePicker, startTimeField);
+        queryEnd = parseDateTime(endDatePicker, endTimeField);
+        if (queryEnd.isBefore(queryStart)) {
+            appendResponse("错误: 结束时间不能早于开始时间");
+            queryBtn.setDisable(false);
+            stopBtn.setDisable(true);
+            return;
+        }
+        if (!prepareExporter()) {
+            return;
+        }
+        boolean storeMode = prepareQuery();
+        eventStore = null;
+        queryBaseUrl = null;
+
+        Map<String, RiskQueryEngine.QueryRequest> requests = new LinkedHashMap<>();
+        int maxConcurrency = 0;
+        for (AccountInfo account : accounts) {
+            int maxInFlight = concurrencyOf(account);
+            maxConcurrency = Math.max(maxConcurrency, maxInFlight);
+            requests.put(account.getName(), newQueryRequest(account.getLoginUrl(), newTokenManager(account), maxInFlight));
+        }
+        HttpClientManager.setMaxRequestsPerHost(maxConcurrency);
+        appendResponse("同时查询 " + accounts.size() + " 台设备: " + String.join("、", requests.keySet()));
+
+        RiskRecordSink<RiskEvent> recordSink = newRecordSink(results);
+        runningFanOut = new ApplianceFanOut(queryEngine).start(requests, new ApplianceFanOut.FanOutListener() {
+            @Override
+            public void onStarted(String appliance, List<TimeRange> slices, int skippedHours) {
+                appendResponse("[" + appliance + "] " + (storeMode ? "本地已有 " + skippedHours + " 个小时，" : "")
+                        + "拆分为 " + slices.size() + " 个时间段，最大并发 " + requests.get(appliance).getConcurrency()
+                        + "，开始请求...");
+            }
+
+            @Override
+            public void onSliceDone(String appliance, TimeRange range, int total) {
+                appendResponse("[" + appliance + "] 时间段 " + range + (cbDetail.isSelected() ? " 获取记录: " : " total: ") + total);
+            }
+
+            @Override
+            public void onSliceSplit(String appliance, TimeRange range, int total, List<TimeRange> children) {
+                appendResponse("[" + appliance + "] 时间段 " + range + " total: " + total + " 超过阈值，拆分为 " + children.size() + " 段");
+            }
+
+            @Override
+            public void onSliceFailed(String appliance, TimeRange range, String error) {
+                appendResponse("[" + appliance + "] 时间段 " + range + " 请求失败: " + error);
+            }
+
+            @Override
+            public void onRecord(String appliance, TimeRange range, RiskEvent event) {
+                if (!storeMode) {
+                    recordSink.onRecord(range, event);
+                }
+            }
+
+            @Override
+            public void onResumed(String appliance, int completedSlices, long replayedRecords, File journal) {
+                appendResponse("[" + appliance + "] 从上次中断处继续: 跳过已完成的 " + completedSlices + " 个时间段"
+                        + (cbDetail.isSelected() ? "，重放明细 " + replayedRecords + " 条" : ""));
+            }
+
+            @Override
+            public void onReloginStarted(String appliance, String reason) {
+                appendResponse("[" + appliance + "] " + reason + "，暂停请求并重新登录，请输入验证码");
+            }
+
+            @Override
+            public void onReloginFinished(String appliance, String error) {
+                appendResponse("[" + appliance + "] " + (error == null ? "重新登录成功，从失败的时间段继续请求"
+                        : "重新登录失败: " + error + "，因 Token 失效而失败的时间段不再重试"));
+            }
+
+            @Override
+            public void onApplianceFinished(String appliance, RiskQueryEngine.QueryResult result) {
+                appendResponse("[" + appliance + "] " + (result.cancelled ? "已停止，" : "完成，")
+                        + (result.request.isDetail() ? "获取告警明细 " + result.recordCount + " 条" : "total = " + result.total)
+                        + "，耗时 " + result.elapsedMillis + "ms");
+            }
+        });
+        runningFanOut.getFuture().thenAccept(this::onFanOutFinished);
+    }
+
+    private void onFanOutFinished(ApplianceFanOut.FanOutResult result) {
+        runningFanOut = null;
+        boolean detail = false;
+        for (Map.Entry<String, RiskQueryEngine.QueryResult> entry : result.results.entrySet()) {
+            RiskQueryEngine.QueryResult r = entry.getValue();
+            detail = r.request.isDetail();
+            if (r.deduplicator != null && r.deduplicator.getDuplicateCount() > 0) {
+                appendResponse("[" + entry.getKey() + "] " + r.deduplicator.summary());
+            }
+            if (!r.failedSlices.isEmpty()) {
+                StringBuilder sb = new StringBuilder();
+                sb.append("注意: [").append(entry.getKey()).append("] 以下 ").append(r.failedSlices.size())
+                        .append(" 个时间段重试后仍失败，未计入结果，可单独重新查询:");
+                for (Map.Entry<TimeRange, String> failed : r.failedSlices.entrySet()) {
+                    sb.append("\n").append(failed.getKey()).append("  ").append(failed.getValue());
+                }
+                appendResponse(sb.toString());
+            }
+            if (r.request.getStore() != null) {
+                readFromStore(r.request.getStore(), entry.getKey());
+            }
+            double rate = HttpClientManager.getRateLimiter().getCurrentRate(r.request.getBaseUrl());
+            if (rate > 0 && rate < HttpClientManager.getRateLimiter().getPermitsPerSecond()) {
+                appendResponse("[" + entry.getKey() + "] 设备负载较高，限速已自动降至 " + String.format("%.1f", rate) + " 次/秒");
+            }
+        }
+        String what = detail ? "共获取告警明细 " + result.recordCount + " 条" : "累计 total = " + result.total;
+        appendResponse((result.cancelled ? "已停止所有请求，" : "所有设备查询完成，") + result.results.size() + " 台设备" + what
+                + "，耗时 " + result.elapsedMillis + "ms");
+        closeExporter();
+        RiskAggregator currentAggregator = aggregator;
+        if (currentAggregator != null && currentAggregator.getTotal() > 0) {
+            appendResponse(currentAggregator.summary(RiskAggregator.DEFAULT_TOP_N).format());
+        }
+        appendResponse("连接统计: " + HttpClientManager.getPoolStats());
+        SliceTotalCache.Stats stats = totalCacheStats;
+        if (totalCache != null && stats != null) {
+            appendResponse("缓存命中 " + stats.getHits() + " 次（内存 " + stats.getMemoryHits() + "，磁盘 " + stats.getDiskHits()
+                    + "），未命中 " + stats.getMisses() + " 次");
+        }
+        Platform.runLater(() -> {
+            queryBtn.setDisable(false);
+            stopBtn.setDisable(true);
+        });
+    }
+
+    /**
+     * 每条明细记录写入表格、导出器和统计
+     */
+    private RiskRecordSink<RiskEvent> newRecordSink(RiskEventColumns results) {
+        return newRecordSink(results, aggregator);
     }
 
-    private void sendSingleRequest(String url, String token, TimeRange range) {
-        JSONObject jsonBody = buildRequestBody(range.start, range.end);
-        RequestBody body = RequestBody.create(jsonBody.toString(), MediaType.get("application/json;charset=UTF-8"));
+    /**
+     * @param currentAggregator 为 null 时不统计，由调用方另外统计
+     */
+    private RiskRecordSink<RiskEvent> newRecordSink(RiskEventColumns results, RiskAggregator currentAggregator) {
+        RiskEventExporter currentExporter = exporter;
+        return (range, event) -> {
+            results.add(event);
+            resultsPane.requestRefresh();
+            if (currentAggregator != null) {
+                currentAggregator.add(event);
+            }
+            if (currentExporter != null) {
+                currentExporter.onRecord(range, event);
+            }
+        };
+    }
 
-        Request request = new Request.Builder()
-                .url(url)
-                .post(body)
-                .header("Authorization", "Bearer " + token)
-                .header("Content-Type", "application/json;charset=UTF-8")
-                .build();
+    /**
+     * 输出当前查询的统计，查询进行中也可以查看
+     */
+    private void showStatistics() {
+        RiskAggregator current = aggregator;
+        if (current == null || current.getTotal() == 0) {
+            appendResponse("还没有告警明细，勾选“获取明细”或“持续跟踪”后查询");
+            return;
+        }
+        appendResponse(current.summary(RiskAggregator.DEFAULT_TOP_N).format());
+    }
 
-        Call call = HttpClientManager.getInstance().newCall(request);
-        activeCalls.add(call);
+    /**
+     * 从 since 开始持续跟踪新告警，直到点击停止
+     */
+    private void startFollow(String baseUrl, TokenManager tokens, LocalDateTime since, RiskEventColumns results) {
+        HttpClientManager.getRateLimiter().setRate(rateSpinner.getValue(), burstSpinner.getValue());
+        int interval = followIntervalSpinner.getValue();
+        RiskTailFollower tail = new RiskTailFollower(queryEngine, baseUrl, tokens.getToken(), since)
+                .tokens(tokens)
+                .grades(getSelectedAttackGrades())
+                .retry(new RetryPolicy(retrySpinner.getValue()))
+                .interval(interval);
+        RiskRecordSink<RiskEvent> recordSink = newRecordSink(results);
+        follower = tail;
+        appendResponse("开始跟踪 " + since.format(DATE_TIME_FORMATTER) + " 之后的新告警，每 " + interval + " 秒查询一次");
+        tail.start(new RiskTailFollower.TailListener() {
+            @Override
+            public void onRecord(RiskEvent event) {
+                recordSink.onRecord(null, event);
+            }
 
-        call.enqueue(new Callback() {
             @Override
-            public void onFailure(@NotNull Call call, @NotNull IOException e) {
-                if (call.isCanceled()) {
-                    appendResponse("时间段 " + range.start + " ~ " + range.end + " 已取消");
-                } else {
-                    appendResponse("时间段 " + range.start + " ~ " + range.end + " 请求失败: " + e.getMessage());
+            public void onTick(TimeRange window, int newRecords, long elapsedMillis) {
+                // 没有新告警的周期不输出，避免刷屏
+                if (newRecords > 0) {
+                    appendResponse("跟踪 " + window + " 新增 " + newRecords + " 条，耗时 " + elapsedMillis + "ms");
                 }
-                onRequestFinished(call);
             }
 
             @Override
-            public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException {
-                String respBody = response.body() != null ? response.body().string() : "";
-                int total = 0;
-                try {
-                    JSONObject obj = JSON.parseObject(respBody);
-                    JSONObject data = obj.getJSONObject("data");
-                    total = data.getIntValue("total");
-                } catch (Exception ignored) {}
-                synchronized (RiskListTab.this) {
-                    totalCount += total;
+            public void onTickFailed(TimeRange window, String error) {
+                appendResponse("跟踪 " + window + " 请求失败，下个周期重试: " + error);
+            }
+
+            @Override
+            public void onRelogin(String error) {
+                appendResponse(error == null ? "已重新登录，继续跟踪" : "重新登录失败，下个周期重试: " + error);
+            }
+        });
+    }
+
+    /**
+     * 在本地缓存中按 IP/规则/CVE/域名检索，走倒排索引，不请求设备；时间范围和攻击等级取界面上的设置
+     */
+    private void searchLocalStore() {
+        String expression = searchField.getText().trim();
+        ScanFilter filter;
+        try {
+            filter = ScanFilter.parse(expression);
+        } catch (IllegalArgumentException e) {
+            appendResponse("检索条件错误: " + e.getMessage());
+            return;
+        }
+        List<AccountInfo> accounts = getSelectedAccounts();
+        for (AccountInfo account : accounts) {
+            if (account.getLoginUrl() == null || account.getLoginUrl().isEmpty()) {
+                appendResponse("错误: 设备 " + account.getName() + " 的登录地址为空，无法定位本地缓存");
+                return;
+            }
+        }
+        if (accounts.isEmpty()) {
+            appendResponse("错误: 登录地址为空，无法定位本地缓存");
+            return;
+        }
+        boolean multiple = accounts.size() > 1;
+        resultsPane.setApplianceVisible(multiple);
+        LocalDateTime start = parseDateTime(startDatePicker, startTimeField);
+        LocalDateTime end = parseDateTime(endDatePicker, endTimeField);
+        filter.time(start.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(),
+                end.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli())
+                .grades(getSelectedGradeMask());
+
+        responseUpdates.clear();
+        responseArea.clear();
+        RiskEventColumns results = resultsPane.reset();
+        resultColumns = results;
+        RiskAggregator currentAggregator = new RiskAggregator(results.getDictionary());
+        aggregator = currentAggregator;
+        exporter = null;
+        searchBtn.setDisable(true);
+        Thread t = new Thread(() -> {
+            try {
+                RiskRecordSink<RiskEvent> recordSink = newRecordSink(results, currentAggregator);
+                long matched = 0;
+                for (AccountInfo account : accounts) {
+                    String baseUrl = account.getLoginUrl();
+                    EventStore store = EventStore.open(baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl);
+                    String appliance = multiple ? account.getName() : null;
+                    // 存储的记录先转换到结果表格的字典，设备名称不能编入存储目录的字典
+                    DictionaryRemapper remapper = new DictionaryRemapper(results.getDictionary());
+                    long begin = System.currentTimeMillis();
+                    long n = store.scan(start, end, filter,
+                            row -> recordSink.onRecord(null, remapper.remap(row.toEvent()).withAppliance(appliance)));
+                    appendResponse((multiple ? "[" + account.getName() + "] " : "") + "本地检索 " + expression + " 命中 " + n
+                            + " 条，耗时 " + (System.currentTimeMillis() - begin) + "ms（只包含已缓存的小时）");
+                    matched += n;
                 }
-                appendResponse("时间段 " + range.start + " ~ " + range.end + " total: " + total);
-                onRequestFinished(call);
+                if (matched > 0) {
+                    appendResponse(currentAggregator.summary(RiskAggregator.DEFAULT_TOP_N).format());
+                }
+            } catch (IOException e) {
+                LogUtils.error(RiskListTab.class, "本地检索失败", e);
+                appendResponse("本地检索失败: " + e.getMessage());
+            } finally {
+                Platform.runLater(() -> searchBtn.setDisable(false));
             }
+        }, "local-search");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * 停止跟踪，等跟踪线程退出后再关闭导出器
+     */
+    private void stopFollow(RiskTailFollower tail) {
+        tail.stop();
+        Thread t = new Thread(() -> {
+            try {
+                tail.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            appendResponse("已停止跟踪，共 " + tail.getTickCount() + " 个周期，新增告警 " + tail.getRecordCount() + " 条");
+            closeExporter();
+            showStatistics();
+            Platform.runLater(() -> queryBtn.setDisable(false));
+        }, "risk-tail-stop");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * 选择导出文件并创建导出器，取消选择或创建失败时返回 false
+     */
+    private boolean openExporter(RiskEventExporter.Format format) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("导出告警明细");
+        chooser.setInitialFileName("risk_list_" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss"))
+                + "." + format.getExtension());
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(format.name(), "*." + format.getExtension()));
+        File file = chooser.showSaveDialog(getScene() != null ? getScene().getWindow() : null);
+        if (file == null) {
+            return false;
+        }
+        try {
+            exporter = RiskEventExporter.create(format, file.toPath());
+            exportFile = file;
+            return true;
+        } catch (IOException e) {
+            LogUtils.error(RiskListTab.class, "创建导出文件失败", e);
+            appendResponse("创建导出文件失败: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void closeExporter() {
+        RiskEventExporter current = exporter;
+        if (current == null) {
+            return;
+        }
+        exporter = null;
+        try {
+            current.close();
+            appendResponse("已导出 " + current.getRowCount() + " 条到 " + exportFile.getAbsolutePath()
+                    + "（" + current.getBytesWritten() / 1024 + " KB）");
+        } catch (IOException e) {
+            LogUtils.error(RiskListTab.class, "导出失败", e);
+            appendResponse("导出失败: " + e.getMessage());
+        }
+    }
+
+    private void appendResponse(String msg) {
+        responseUpdates.post(msg);
+    }
+
+    /**
+     * 在 FX 线程上一次性追加一批信息
+     */
+    private void flushResponse(List<String> messages) {
+        StringBuilder sb = new StringBuilder();
+        for (String msg : messages) {
+            sb.append(msg).append("\n\n");
+        }
+        int overflow = responseArea.getLength() + sb.length() - MAX_RESPONSE_CHARS;
+        if (overflow > 0) {
+            if (overflow >= responseArea.getLength()) {
+                responseArea.clear();
+                sb.delete(0, Math.max(0, sb.length() - MAX_RESPONSE_CHARS));
+            } else {
+                responseArea.deleteText(0, overflow);
+            }
+        }
+        responseArea.appendText(sb.toString());
+    }
+
+    private void onQueryFinished(RiskQueryEngine.QueryResult result) {
+        String what = result.request.isDetail() ? "共获取告警明细 " + result.recordCount + " 条" : "累计 total = " + result.total;
+        if (result.cancelled) {
+            appendResponse("已停止所有请求，已完成 " + result.doneCount + " 个时间段，取消 " + result.cancelledCount + " 个，" + what);
+        } else {
+            appendResponse("所有请求完成，" + what + "，耗时 " + result.elapsedMillis + "ms");
+        }
+        if (result.deduplicator != null && result.deduplicator.getDuplicateCount() > 0) {
+            appendResponse(result.deduplicator.summary());
+        }
+        if (!result.failedSlices.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("注意: 以下 ").append(result.failedSlices.size()).append(" 个时间段重试后仍失败，未计入结果，可单独重新查询:");
+            for (Map.Entry<TimeRange, String> entry : result.failedSlices.entrySet()) {
+                sb.append("\n").append(entry.getKey()).append("  ").append(entry.getValue());
+            }
+            appendResponse(sb.toString());
+        }
+        AdaptiveTimeSplitter currentSplitter = result.splitter;
+        if (currentSplitter != null) {
+            appendResponse(buildSplitterReport(currentSplitter));
+        }
+        EventStore store = eventStore;
+        if (store != null) {
+            readFromStore(store, null);
+        }
+        closeExporter();
+        RiskAggregator currentAggregator = aggregator;
+        if (currentAggregator != null && currentAggregator.getTotal() > 0) {
+            appendResponse(currentAggregator.summary(RiskAggregator.DEFAULT_TOP_N).format());
+        }
+        appendResponse("连接统计: " + HttpClientManager.getPoolStats());
+        double rate = HttpClientManager.getRateLimiter().getCurrentRate(queryBaseUrl);
+        if (rate > 0 && rate < HttpClientManager.getRateLimiter().getPermitsPerSecond()) {
+            appendResponse("设备负载较高，限速已自动降至 " + String.format("%.1f", rate) + " 次/秒");
+        }
+        SliceTotalCache.Stats stats = totalCacheStats;
+        if (totalCache != null && stats != null) {
+            appendResponse("缓存命中 " + stats.getHits() + " 次（内存 " + stats.getMemoryHits() + "，磁盘 " + stats.getDiskHits()
+                    + "），未命中 " + stats.getMisses() + " 次");
+        }
+        Platform.runLater(() -> {
+            queryBtn.setDisable(false);
+            stopBtn.setDisable(true);
         });
     }
 
-    private void onRequestFinished(Call call) {
-        activeCalls.remove(call);
-        synchronized (this) {
-            pendingRequests--;
-            if (pendingRequests <= 0) {
-                appendResponse("所有请求完成，累计 total = " + totalCount);
-                Platform.runLater(() -> {
-                    queryBtn.setDisable(false);
-                    stopBtn.setDisable(true);
-                });
+    /**
+     * @param appliance 多台设备时为来源设备名称，记录显示时标记设备；单台设备时为 null
+     */
+    private void readFromStore(EventStore store, String appliance) {
+        try {
+            long startMillis = queryStart.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            long endMillis = queryEnd.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            ScanFilter filter = ScanFilter.all().time(startMillis, endMillis);
+            long read = store.scan(queryStart, queryEnd, filter, null);
+            // 统计不经过逐行的 recordSink，按小时分区并行扫描后合并
+            RiskEventColumns results = resultColumns;
+            RiskRecordSink<RiskEvent> recordSink = newRecordSink(results, null);
+            // 存储的记录先转换到结果表格的字典，设备名称不能编入存储目录的字典
+            DictionaryRemapper remapper = new DictionaryRemapper(results.getDictionary());
+            long matched = store.scan(queryStart, queryEnd, filter.grades(queryGradeMask),
+                    row -> recordSink.onRecord(null, remapper.remap(row.toEvent()).withAppliance(appliance)));
+            appendResponse((appliance != null ? "[" + appliance + "] " : "")
+                    + "本地存储共 " + read + " 条，符合攻击等级的 " + matched + " 条，已显示在表格中");
+            RiskAggregator currentAggregator = aggregator;
+            if (currentAggregator != null && matched > 0) {
+                long begin = System.currentTimeMillis();
+                currentAggregator.merge(SegmentAggregation.aggregate(store, queryStart, queryEnd, filter,
+                        currentAggregator.getDictionary()));
+                LogUtils.info(RiskListTab.class, "本地存储并行统计耗时 " + (System.currentTimeMillis() - begin) + "ms");
             }
+        } catch (IOException e) {
+            LogUtils.error(RiskListTab.class, "读取本地存储失败", e);
+            appendResponse("读取本地存储失败: " + e.getMessage());
         }
     }
 
-    private void stopAllRequests() {
-        for (Call call : activeCalls) {
-            call.cancel();
+    private String buildSplitterReport(AdaptiveTimeSplitter currentSplitter) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("自适应拆分: 共发起 ").append(currentSplitter.getRequestCount()).append(" 次请求，拆分 ")
+                .append(currentSplitter.getSplitCount()).append(" 次，按小时拆分需要 ")
+                .append(AdaptiveTimeSplitter.countHourlySlices(queryStart, queryEnd)).append(" 次，节省 ")
+                .append(currentSplitter.getSavedRequests(queryStart, queryEnd)).append(" 次");
+        if (currentSplitter.getOversizedCount() > 0) {
+            sb.append("\n注意: ").append(currentSplitter.getOversizedCount())
+                    .append(" 个时间段已达到最小窗口仍超过阈值 ").append(currentSplitter.getThreshold());
         }
-        activeCalls.clear();
-        pendingRequests = 0;
-        appendResponse("已停止所有请求");
-        queryBtn.setDisable(false);
-        stopBtn.setDisable(true);
+        for (AdaptiveTimeSplitter.SliceTotal slice : currentSplitter.getSlices()) {
+            sb.append("\n").append(slice.range).append(" total: ").append(slice.total);
+        }
+        return sb.toString();
     }
 
-    private JSONObject buildRequestBody(LocalDateTime start, LocalDateTime end) {
-        JSONObject jsonBody = new JSONObject();
-        jsonBody.put("limit", GlobalConfig.LIMIT);
-        jsonBody.put("offset", 0);
-        jsonBody.put("total", null);
-        jsonBody.put("queryId", null);
-        jsonBody.put("maxaccessid", null);
-        jsonBody.put("assetChildNodes", new Object[0]);
-        jsonBody.put("combined", 1);
-        jsonBody.put("attackgrades", getSelectedAttackGrades()); // 改成动态
-        jsonBody.put("attackstatuss", null);
-        jsonBody.put("original", null);
-        jsonBody.put("accesssubtype", new Object[0]);
-        jsonBody.put("flags", null);
-        jsonBody.put("sips", new Object[0]);
-        jsonBody.put("dips", new Object[0]);
-        jsonBody.put("assetOrganize", null);
-        jsonBody.put("apptypeids", new Object[0]);
-        jsonBody.put("eventypes", new Object[0]);
-        jsonBody.put("incidentids", new Object[0]);
-        jsonBody.put("pstates", new int[]{0});
-        jsonBody.put("poid", "");
-        jsonBody.put("replycode", "");
-        jsonBody.put("cve", "");
-        jsonBody.put("ruleid", "");
-        jsonBody.put("domain", "");
-        jsonBody.put("cnnvd", "");
-        jsonBody.put("pcapId", "");
-        jsonBody.put("ioctagtypes", null);
-        jsonBody.put("oobcontent", "");
-        jsonBody.put("payload", "");
-        jsonBody.put("timeAgo", "m0");
-        jsonBody.put("attackerip", "");
-        jsonBody.put("begin", start.format(DATE_TIME_FORMATTER));
-        jsonBody.put("end", end.format(DATE_TIME_FORMATTER));
-        jsonBody.put("nonflags", new Object[0]);
-        jsonBody.put("fromtype", null);
-        jsonBody.put("direction", null);
-        return jsonBody;
+    private void stopAllRequests() {
+        RiskTailFollower tail = follower;
+        if (tail != null) {
+            follower = null;
+            stopFollow(tail);
+            stopBtn.setDisable(true);
+            return;
+        }
+        ApplianceFanOut.RunningFanOut fanOut = runningFanOut;
+        if (fanOut != null) {
+            fanOut.cancel();
+            stopBtn.setDisable(true);
+            return;
+        }
+        RiskQueryEngine.RunningQuery current = runningQuery;
+        if (current != null) {
+            current.cancel();
+        }
+        stopBtn.setDisable(true);
     }
 
     // 获取选中的 attackgrades
@@ -272,6 +1035,28 @@ public class RiskListTab extends BorderPane {
         return selected;
     }
 
+    private RecordDeduplicator.Mode getSelectedDedupMode() {
+        switch (dedupChoice.getSelectionModel().getSelectedIndex()) {
+            case 1:
+                return RecordDeduplicator.Mode.BLOOM;
+            case 2:
+                return null;
+            default:
+                return RecordDeduplicator.Mode.EXACT;
+        }
+    }
+
+    // 按等级（0~3）筛选本地记录，与 getSelectedAttackGrades 一致，全选或全不选时全部通过
+    private boolean[] getSelectedGradeMask() {
+        boolean[] mask = new boolean[4];
+        boolean all = getSelectedAttackGrades() == null;
+        mask[RiskEvent.GRADE_UNKNOWN] = all;
+        mask[RiskEvent.GRADE_LOW] = all || cbLow.isSelected();
+        mask[RiskEvent.GRADE_MEDIUM] = all || cbMedium.isSelected();
+        mask[RiskEvent.GRADE_HIGH] = all || cbHigh.isSelected();
+        return mask;
+    }
+
     private LocalDateTime parseDateTime(DatePicker datePicker, TextField timeField) {
         try {
             String date = datePicker.getValue().toString();
@@ -283,27 +1068,4 @@ public class RiskListTab extends BorderPane {
             return LocalDateTime.now();
         }
     }
-
-    private List<TimeRange> splitTimeByHour(LocalDateTime start, LocalDateTime end) {
-        List<TimeRange> list = new ArrayList<>();
-        LocalDateTime curStart = start;
-        while (curStart.isBefore(end)) {
-            LocalDateTime curEnd = curStart.plusHours(1);
-            if (curEnd.isAfter(end)) {
-                curEnd = end;
-            }
-            list.add(new TimeRange(curStart, curEnd));
-            curStart = curEnd;
-        }
-        return list;
-    }
-
-    private static class TimeRange {
-        LocalDateTime start;
-        LocalDateTime end;
-        TimeRange(LocalDateTime s, LocalDateTime e) {
-            this.start = s;
-            this.end = e;
-        }
-    }
 }
@@ -0,0 +1,193 @@
+package com.y5neko.dbapptools.ui;
+
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.model.RiskEventColumns;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.ObservableListBase;
+import javafx.geometry.Insets;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.BorderPane;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * 告警明细表格
+ * 数据保存在 RiskEventColumns 中，TableView 的 items 只是它上面的一层视图：只有可见的行会在 get 时临时创建 RiskEvent，
+ * 100 万行时 FX 一侧的对象数量只与可见行数有关。
+ * <p>
+ * 点击列头时只对行号数组按基本类型键排序，不移动数据；只按第一个排序列排序。
+ * 排序之后新到达的记录追加在末尾，再次点击列头即可重新排序
+ */
+public class RiskResultsPane extends BorderPane {
+
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final TableView<RiskEvent> table = new TableView<>();
+    private final Label statusLabel = new Label("共 0 条");
+    private final TableColumn<RiskEvent, String> applianceColumn =
+            column("设备", 110, RiskEventColumns.SortKey.APPLIANCE, RiskEvent::getApplianceName);
+    private ColumnList items;
+
+    // 已经安排了一次刷新但还没执行，保证合并队列里最多只有一个待处理的刷新
+    private final AtomicBoolean refreshPending = new AtomicBoolean(false);
+    private final FxUpdateCoalescer<Boolean> refresher =
+            new FxUpdateCoalescer<>(FxUpdateCoalescer.DEFAULT_INTERVAL_MILLIS, batch -> refresh());
+
+    public RiskResultsPane() {
+        table.getColumns().add(column("时间", 150, RiskEventColumns.SortKey.TIME,
+                e -> TIME_FORMATTER.format(Instant.ofEpochMilli(e.getTime()).atZone(ZoneId.systemDefault()))));
+        table.getColumns().add(column("等级", 60, RiskEventColumns.SortKey.GRADE, e -> RiskEvent.gradeName(e.getGrade())));
+        table.getColumns().add(column("源IP", 130, RiskEventColumns.SortKey.SIP, RiskEvent::getSipString));
+        table.getColumns().add(column("目的IP", 130, RiskEventColumns.SortKey.DIP, RiskEvent::getDipString));
+        table.getColumns().add(column("规则ID", 90, RiskEventColumns.SortKey.RULE, e -> String.valueOf(e.getRuleId())));
+        table.getColumns().add(column("攻击IP", 130, null, RiskEvent::getAttackerIpString));
+        table.getColumns().add(column("事件类型", 150, null, RiskEvent::getEventTypeName));
+        // 只有多台设备合并查询时显示
+        applianceColumn.setVisible(false);
+        table.getColumns().add(applianceColumn);
+        // 固定行高，滚动时不需要逐行测量
+        table.setFixedCellSize(24);
+        table.setPlaceholder(new Label("勾选“获取明细”后查询，结果显示在这里"));
+        table.setSortPolicy(t -> {
+            applySort();
+            return true;
+        });
+        reset();
+
+        BorderPane.setMargin(statusLabel, new Insets(5, 0, 0, 0));
+        this.setCenter(table);
+        this.setBottom(statusLabel);
+    }
+
+    private static TableColumn<RiskEvent, String> column(String title, double width, RiskEventColumns.SortKey sortKey,
+                                                         Function<RiskEvent, String> value) {
+        TableColumn<RiskEvent, String> column = new TableColumn<>(title);
+        column.setPrefWidth(width);
+        column.setCellValueFactory(f -> new ReadOnlyObjectWrapper<>(value.apply(f.getValue())));
+        column.setUserData(sortKey);
+        column.setSortable(sortKey != null);
+        return column;
+    }
+
+    /**
+     * 清空表格并返回新的数据集合，在 FX 线程上调用
+     * 查询线程向返回的集合追加记录后调用 requestRefresh；之后再次 reset，旧集合上的追加不会再显示
+     */
+    public RiskEventColumns reset() {
+        RiskEventColumns columns = new RiskEventColumns();
+        items = new ColumnList(columns);
+        table.getSortOrder().clear();
+        table.setItems(items);
+        updateStatus();
+        return columns;
+    }
+
+    /**
+     * 显示或隐藏“设备”列，在 FX 线程上调用
+     */
+    public void setApplianceVisible(boolean visible) {
+        applianceColumn.setVisible(visible);
+    }
+
+    /**
+     * 通知表格有新记录，可在任意线程调用
+     */
+    public void requestRefresh() {
+        if (refreshPending.compareAndSet(false, true)) {
+            refresher.post(Boolean.TRUE);
+        }
+    }
+
+    private void refresh() {
+        refreshPending.set(false);
+        items.grow();
+        updateStatus();
+    }
+
+    private void applySort() {
+        if (table.getSortOrder().isEmpty()) {
+            items.sort(null, true);
+            return;
+        }
+        TableColumn<RiskEvent, ?> column = table.getSortOrder().get(0);
+        items.sort((RiskEventColumns.SortKey) column.getUserData(), column.getSortType() == TableColumn.SortType.ASCENDING);
+    }
+
+    private void updateStatus() {
+        statusLabel.setText("共 " + items.size() + " 条");
+    }
+
+    /**
+     * RiskEventColumns 上的只读列表视图，size 只在 FX 线程上随 grow 增长
+     */
+    private static final class ColumnList extends ObservableListBase<RiskEvent> {
+        private final RiskEventColumns columns;
+        private int size = 0;
+        // 排序后的行号，只覆盖排序时已有的行，之后追加的行按原顺序排在后面；null 表示未排序
+        private int[] order = null;
+
+        ColumnList(RiskEventColumns columns) {
+            this.columns = columns;
+        }
+
+        @Override
+        public RiskEvent get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+            }
+            return columns.get(rowAt(index));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        private int rowAt(int index) {
+            int[] o = order;
+            return o != null && index < o.length ? o[index] : index;
+        }
+
+        void grow() {
+            int newSize = columns.size();
+            if (newSize <= size) {
+                return;
+            }
+            int from = size;
+            beginChange();
+            size = newSize;
+            nextAdd(from, newSize);
+            endChange();
+        }
+
+        /**
+         * @param key 为 null 时恢复到达顺序
+         */
+        void sort(RiskEventColumns.SortKey key, boolean ascending) {
+            if (size == 0 || (key == null && order == null)) {
+                return;
+            }
+            int[] newOrder = key != null ? columns.sortedOrder(key, ascending, size) : null;
+            // 行号 -> 新位置
+            int[] position = new int[size];
+            for (int i = 0; i < size; i++) {
+                position[newOrder != null ? newOrder[i] : i] = i;
+            }
+            // 旧位置 -> 新位置
+            int[] permutation = new int[size];
+            for (int i = 0; i < size; i++) {
+                permutation[i] = position[rowAt(i)];
+            }
+            beginChange();
+            order = newOrder;
+            nextPermutation(0, size, permutation);
+            endChange();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.y5neko.dbapptools.utils;
+
+/**
+ * IP 地址与 long 之间的压缩编码
+ * IPv4 直接存放在低 32 位；其他格式（IPv6 等）由调用方分配编号，以 NON_IPV4_FLAG 标记
+ */
+public class IpUtils {
+
+    public static final long NON_IPV4_FLAG = 1L << 32;
+
+    /**
+     * 解析点分十进制 IPv4，格式不合法时返回 -1
+     */
+    public static long parseIpv4(String ip) {
+        if (ip == null) return -1;
+        int len = ip.length();
+        if (len < 7 || len > 15) return -1;
+        long result = 0;
+        int part = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = 0; i < len; i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                part = part * 10 + (c - '0');
+                if (++digits > 3 || part > 255) return -1;
+            } else if (c == '.') {
+                if (digits == 0 || ++dots > 3) return -1;
+                result = (result << 8) | part;
+                part = 0;
+                digits = 0;
+            } else {
+                return -1;
+            }
+        }
+        if (dots != 3 || digits == 0) return -1;
+        return (result << 8) | part;
+    }
+
+    public static String formatIpv4(long packed) {
+        return ((packed >>> 24) & 0xff) + "." + ((packed >>> 16) & 0xff) + "." + ((packed >>> 8) & 0xff) + "." + (packed & 0xff);
+    }
+
+    public static boolean isIpv4(long packed) {
+        return (packed & NON_IPV4_FLAG) == 0;
+    }
+}
@@ -0,0 +1,125 @@
+package com.y5neko.dbapptools.aggregate;
+
+import com.y5neko.dbapptools.model.RiskEvent;
+import com.y5neko.dbapptools.model.StringDictionary;
+import com.y5neko.dbapptools.network.TimeRange;
+import com.y5neko.dbapptools.store.EventStore;
+import com.y5neko.dbapptools.store.ScanFilter;
+import com.y5neko.dbapptools.store.SegmentWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * 本地存储并行统计的基准测试
+ * 生成（或复用）一份模拟存储，分别用 1、2、4 …… 直到 CPU 核数的 ForkJoinPool 统计全部分区，输出耗时中位数和加速比。
+ * 放在测试源码中，不打进发布的 jar。先 mvn test-compile，再运行:
+ * java -cp target/classes:target/test-classes:依赖 com.y5neko.dbapptools.aggregate.AggregationBenchmark [小时数] [每小时行数] [目录]
+ * 建议加 -Xms 与 -Xmx 相同的堆大小运行，减少 GC 干扰
+ */
+public class AggregationBenchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURE_ROUNDS = 7;
+
+    public static void main(String[] args) throws IOException {
+        int hours = args.length > 0 ? Integer.parseInt(args[0]) : 24 * 7;
+        int rowsPerHour = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        File dir = args.length > 2 ? new File(args[2]) : new File(System.getProperty("java.io.tmpdir"), "risk-aggregation-bench");
+
+        LocalDateTime end = LocalDateTime.of(2024, 1, 1, 0, 0).plusHours(hours);
+        LocalDateTime start = end.minusHours(hours);
+        EventStore store = EventStore.open(dir);
+        generate(store, start, end, rowsPerHour);
+        ScanFilter filter = ScanFilter.all();
+        long rows = (long) hours * rowsPerHour;
+        System.out.println("存储目录: " + dir + "，" + hours + " 个小时分区，共 " + rows + " 行");
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        double baseline = 0;
+        long expectedTotal = -1;
+        for (int parallelism = 1; ; parallelism = Math.min(parallelism * 2, cores)) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                long[] millis = new long[MEASURE_ROUNDS];
+                for (int round = 0; round < WARMUP_ROUNDS + MEASURE_ROUNDS; round++) {
+                    long begin = System.nanoTime();
+                    RiskAggregator result = SegmentAggregation.aggregate(store, start, end, filter, new StringDictionary(), pool);
+                    long elapsed = (System.nanoTime() - begin) / 1_000_000;
+                    if (expectedTotal < 0) {
+                        expectedTotal = result.getTotal();
+                    } else if (result.getTotal() != expectedTotal) {
+                        throw new IllegalStateException("并行度 " + parallelism + " 的统计结果不一致: "
+                                + result.getTotal() + " != " + expectedTotal);
+                    }
+                    if (round >= WARMUP_ROUNDS) {
+                        millis[round - WARMUP_ROUNDS] = elapsed;
+                    }
+                }
+                Arrays.sort(millis);
+                double median = Math.max(1, millis[MEASURE_ROUNDS / 2]);
+                if (parallelism == 1) {
+                    baseline = median;
+                }
+                System.out.println(String.format("并行度 %3d: %8.0f ms, %,12.0f 行/秒, 加速比 %.2f",
+                        parallelism, median, rows * 1000 / median, baseline / median));
+            } finally {
+                pool.shutdown();
+            }
+            if (parallelism >= cores) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 写入模拟数据，已经完整的小时不再重复生成；攻击 IP 和规则按偏斜分布，接近真实告警
+     */
+    private static void generate(EventStore store, LocalDateTime start, LocalDateTime end, int rowsPerHour) throws IOException {
+        List<TimeRange> hours = EventStore.hourPartitions(start, end);
+        // 直接使用存储目录的字典，写入时不需要转换
+        StringDictionary dictionary = store.getDictionary();
+        int[] cves = new int[64];
+        for (int i = 0; i < cves.length; i++) {
+            cves[i] = dictionary.encode("CVE-2024-" + (10000 + i));
+        }
+        int eventType = dictionary.encode("web攻击");
+        long id = 1;
+        for (TimeRange hour : hours) {
+            if (store.isComplete(hour)) {
+                id += rowsPerHour;
+                continue;
+            }
+            Random random = new Random(hour.start.hashCode());
+            long hourStart = hour.start.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            long hourMillis = ChronoUnit.MILLIS.between(hour.start, hour.end);
+            try (SegmentWriter writer = store.openWriter(hour)) {
+                for (int i = 0; i < rowsPerHour; i++) {
+                    long time = hourStart + (long) i * hourMillis / rowsPerHour;
+                    long attacker = 0x0A000000L + skewed(random, 1 << 16);
+                    long dip = 0xC0A80000L + random.nextInt(1 << 12);
+                    int ruleId = 10000 + skewed(random, 4096);
+                    int cve = random.nextInt(4) == 0 ? cves[skewed(random, cves.length)] : 0;
+                    writer.append(new RiskEvent(dictionary, id++, time, (byte) random.nextInt(4), attacker, dip, attacker,
+                            ruleId, eventType, 0, cve, 0));
+                }
+                writer.commit(true);
+            }
+        }
+    }
+
+    /**
+     * [0, bound) 内偏向小值的随机数
+     */
+    private static int skewed(Random random, int bound) {
+        double u = random.nextDouble();
+        return (int) (bound * u * u * u);
+    }
+}